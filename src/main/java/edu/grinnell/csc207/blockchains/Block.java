@@ -3,6 +3,9 @@ package edu.grinnell.csc207.blockchains;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -13,6 +16,37 @@ import java.util.Random;
  * @author Samuel A. Rebelsky
  */
 public class Block {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The original header format: the number, the names in the platform's
+   * default charset, the amount, the previous hash, and the nonce.
+   */
+  public static final int LEGACY = 0;
+
+  /**
+   * A header format that is the same on every platform: a version byte,
+   * the number, the length and UTF-8 bytes of each name, the amount,
+   * the length and bytes of the previous hash, and the nonce.
+   */
+  public static final int CANONICAL = 1;
+
+  /**
+   * The header format of a block with a batch of transactions: a
+   * version byte, the number, the number of transactions, the Merkle
+   * root of the transactions, the length and bytes of the previous
+   * hash, and the nonce.
+   */
+  public static final int BATCH = 2;
+
+  /** The byte that starts the hash of a leaf of a Merkle tree. */
+  static final byte MERKLE_LEAF = 0;
+
+  /** The byte that starts the hash of an inner node of a Merkle tree. */
+  static final byte MERKLE_NODE = 1;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -41,14 +75,20 @@ public class Block {
   /** What will encode our hashes. */
   private MessageDigest md;
 
-  /** The hash without nonce. */
+  /** The encoded header without the nonce. */
   private byte[] baseHash;
 
-  /** ByteBuffer for the integers. */
-  static ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
+  /** The transaction that baseHash encodes. */
+  private Transaction encoded;
+
+  /** The header format of this block (LEGACY, CANONICAL, or BATCH). */
+  private int version;
+
+  /** The transactions in a BATCH block (null for other blocks). */
+  private List<Transaction> batch;
 
-  /** ByteBuffer for the longs. */
-  static ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
+  /** The Merkle root of the transactions in a BATCH block. */
+  private Hash merkleRoot;
 
 
 
@@ -71,24 +111,52 @@ public class Block {
    *   The validator used to check the block.
    */
   Block(int num, Transaction transaction, Hash prevBlockHash, HashValidator check) {
-    Random rand = new Random();
-    try {
-      this.md = MessageDigest.getInstance("sha-256");
-      this.index = num;
-      this.blockData = transaction;
-      this.prevHash = prevBlockHash;
-      this.checker = check;
-      this.currentHash = new Hash(new byte[0]);
-      while (!this.checker.isValid(currentHash)) {
-        this.nonce = rand.nextLong();
-        this.md.reset();
-        computeHash();
-      } //while
-    } catch (NoSuchAlgorithmException e) {
-      System.err.println("Algorithm not found (should never happen)");
-    } //try/catch
+    this(num, transaction, prevBlockHash, check, LEGACY);
   } // Block(int, Transaction, Hash, HashValidator)
 
+  /**
+   * Create a new block with a particular header format, mining to
+   * choose a nonce that meets the requirements of the validator.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param check
+   *   The validator used to check the block.
+   * @param format
+   *   The header format (LEGACY or CANONICAL).
+   */
+  Block(int num, Transaction transaction, Hash prevBlockHash, HashValidator check, int format) {
+    this.version = checkVersion(format);
+    this.index = num;
+    this.blockData = transaction;
+    this.prevHash = prevBlockHash;
+    mine(check);
+  } // Block(int, Transaction, Hash, HashValidator, int)
+
+  /**
+   * Create a new block for a batch of transactions, mining to choose a
+   * nonce that meets the requirements of the validator.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transactions
+   *   The transactions for the block, in order.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param check
+   *   The validator used to check the block.
+   */
+  Block(int num, List<Transaction> transactions, Hash prevBlockHash, HashValidator check) {
+    this.index = num;
+    this.prevHash = prevBlockHash;
+    setBatch(transactions);
+    mine(check);
+  } // Block(int, List, Hash, HashValidator)
+
   /**
    * Create a new block, computing the hash for the block.
    *
@@ -102,6 +170,30 @@ public class Block {
    *   The nonce of the block.
    */
   public Block(int num, Transaction transaction, Hash prevBlockHash, long blockNonce) {
+    this(num, transaction, prevBlockHash, blockNonce, LEGACY);
+  } // Block(int, Transaction, Hash, long)
+
+  /**
+   * Create a new block with a particular header format, computing the
+   * hash for the block.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param blockNonce
+   *   The nonce of the block.
+   * @param format
+   *   The header format (LEGACY or CANONICAL).
+   *
+   * @throws IllegalArgumentException
+   *   If the format is not one we know.
+   */
+  public Block(int num, Transaction transaction, Hash prevBlockHash, long blockNonce,
+      int format) {
+    this.version = checkVersion(format);
     try {
       this.md = MessageDigest.getInstance("sha-256");
       this.index = num;
@@ -112,26 +204,240 @@ public class Block {
     } catch (NoSuchAlgorithmException e) {
       System.err.println("Algorithm not found (should never happen)");
     } //try/catch
-  } // Block(int, Transaction, Hash, long)
+  } // Block(int, Transaction, Hash, long, int)
+
+  /**
+   * Create a new block for a batch of transactions, computing the hash
+   * for the block.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transactions
+   *   The transactions for the block, in order.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param blockNonce
+   *   The nonce of the block.
+   *
+   * @throws IllegalArgumentException
+   *   If there are no transactions.
+   */
+  public Block(int num, List<Transaction> transactions, Hash prevBlockHash, long blockNonce) {
+    this.index = num;
+    this.prevHash = prevBlockHash;
+    this.nonce = blockNonce;
+    setBatch(transactions);
+    try {
+      this.md = MessageDigest.getInstance("sha-256");
+      computeHash();
+    } catch (NoSuchAlgorithmException e) {
+      System.err.println("Algorithm not found (should never happen)");
+    } //try/catch
+  } // Block(int, List, Hash, long)
+
+  /**
+   * Create a new block for a batch of transactions whose hash is
+   * already known.
+   *
+   * @param num
+   *   The number of the block.
+   * @param transactions
+   *   The transactions for the block, in order.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param blockNonce
+   *   The nonce of the block.
+   * @param blockHash
+   *   The hash of the block.
+   */
+  Block(int num, List<Transaction> transactions, Hash prevBlockHash, long blockNonce,
+      Hash blockHash) {
+    this.index = num;
+    this.prevHash = prevBlockHash;
+    this.nonce = blockNonce;
+    setBatch(transactions);
+    this.currentHash = blockHash;
+  } // Block(int, List, Hash, long, Hash)
+
+  /**
+   * Create a new block whose hash is already known (because it was
+   * computed when the block was first made).
+   *
+   * @param num
+   *   The number of the block.
+   * @param transaction
+   *   The transaction for the block.
+   * @param prevBlockHash
+   *   The hash of the previous block.
+   * @param blockNonce
+   *   The nonce of the block.
+   * @param blockHash
+   *   The hash of the block.
+   * @param format
+   *   The header format (LEGACY or CANONICAL).
+   */
+  Block(int num, Transaction transaction, Hash prevBlockHash, long blockNonce, Hash blockHash,
+      int format) {
+    this.version = format;
+    this.index = num;
+    this.blockData = transaction;
+    this.prevHash = prevBlockHash;
+    this.nonce = blockNonce;
+    this.currentHash = blockHash;
+  } // Block(int, Transaction, Hash, long, Hash, int)
 
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Make sure that a header format is one we know.
+   *
+   * @param format
+   *   The format.
+   *
+   * @return the format.
+   *
+   * @throws IllegalArgumentException
+   *   If it is not LEGACY or CANONICAL.
+   */
+  static int checkVersion(int format) {
+    if ((format != LEGACY) && (format != CANONICAL)) {
+      throw new IllegalArgumentException("Unknown block version " + format);
+    } // if
+    return format;
+  } // checkVersion(int)
+
+  /**
+   * Choose a nonce that meets the requirements of a validator.
+   *
+   * @param check
+   *   The validator.
+   */
+  private void mine(HashValidator check) {
+    Random rand = new Random();
+    try {
+      this.md = MessageDigest.getInstance("sha-256");
+      this.checker = check;
+      do {
+        this.nonce = rand.nextLong();
+        computeHash();
+      } while (!this.checker.isValid(currentHash));
+    } catch (NoSuchAlgorithmException e) {
+      System.err.println("Algorithm not found (should never happen)");
+    } //try/catch
+  } // mine(HashValidator)
+
+  /**
+   * Make this a BATCH block for some transactions.
+   *
+   * @param transactions
+   *   The transactions, in order.
+   *
+   * @throws IllegalArgumentException
+   *   If there are no transactions.
+   */
+  private void setBatch(List<Transaction> transactions) {
+    if (transactions.isEmpty()) {
+      throw new IllegalArgumentException("A block needs at least one transaction");
+    } // if
+    this.version = BATCH;
+    this.batch = Collections.unmodifiableList(Arrays.asList(
+        transactions.toArray(new Transaction[transactions.size()])));
+    this.blockData = this.batch.get(0);
+    this.merkleRoot = merkleRoot(this.batch);
+  } // setBatch(List)
+
+  /**
+   * Compute the Merkle root of some transactions. The leaves are the
+   * hashes of the canonical encodings of the transactions; each inner
+   * node is the hash of its two children; and an odd node at the end
+   * of a level moves up unchanged. Leaves and inner nodes start with
+   * different bytes so that neither can pass for the other.
+   *
+   * @param transactions
+   *   The transactions (at least one).
+   *
+   * @return the root.
+   */
+  static Hash merkleRoot(List<Transaction> transactions) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("sha-256");
+      int n = transactions.size();
+      byte[][] level = new byte[n][];
+      for (int i = 0; i < n; i++) {
+        digest.update(MERKLE_LEAF);
+        digest.update(transactions.get(i).encoding(CANONICAL));
+        level[i] = digest.digest();
+      } // for
+      while (n > 1) {
+        int m = 0;
+        for (int i = 0; i + 1 < n; i += 2) {
+          digest.update(MERKLE_NODE);
+          digest.update(level[i]);
+          digest.update(level[i + 1]);
+          level[m++] = digest.digest();
+        } // for
+        if ((n & 1) == 1) {
+          level[m++] = level[n - 1];
+        } // if
+        n = m;
+      } // while
+      return new Hash(level[0], 0, level[0].length);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Algorithm not found (should never happen)", e);
+    } // try/catch
+  } // merkleRoot(List)
+
+  /**
+   * Encode the header of the block, except for the nonce.
+   *
+   * @return the encoded header.
+   */
+  private byte[] encodeBase() {
+    byte[] prev = this.prevHash.hashData;
+    if (this.version == BATCH) {
+      byte[] root = this.merkleRoot.hashData;
+      return ByteBuffer.allocate(1 + 3 * Integer.BYTES + root.length + prev.length)
+          .put((byte) BATCH).putInt(this.index).putInt(this.batch.size()).put(root)
+          .putInt(prev.length).put(prev).array();
+    } // if
+    if (this.version == LEGACY) {
+      byte[] data = this.blockData.encoding(LEGACY);
+      return ByteBuffer.allocate(Integer.BYTES + data.length + prev.length)
+          .putInt(this.index).put(data).put(prev).array();
+    } // if
+    byte[] data = this.blockData.encoding(CANONICAL);
+    return ByteBuffer.allocate(1 + 2 * Integer.BYTES + data.length + prev.length)
+        .put((byte) CANONICAL).putInt(this.index).put(data)
+        .putInt(prev.length).put(prev).array();
+  } // encodeBase()
+
+  /**
+   * Get the encoded header of the block, except for the nonce, which
+   * we compute only once unless the transaction changes.
+   *
+   * @return the encoded header. Clients must not change it.
+   */
+  byte[] base() {
+    if ((this.baseHash == null)
+        || ((this.batch == null) && (this.encoded != this.blockData))) {
+      this.baseHash = encodeBase();
+      this.encoded = this.blockData;
+    } // if
+    return this.baseHash;
+  } // base()
+
   /**
    * Compute the hash of the block given all the other info already
    * stored in the block.
    */
   void computeHash() throws NoSuchAlgorithmException {
-    intBuffer.clear();
-    this.md.update(intBuffer.putInt(this.index).array());
-    this.md.update(this.blockData.getSource().getBytes());
-    this.md.update(this.blockData.getTarget().getBytes());
-    intBuffer.clear();
-    this.md.update(intBuffer.putInt(this.blockData.getAmount()).array());
-    this.md.update(this.prevHash.getBytes());
-    longBuffer.clear();
-    this.md.update(longBuffer.putLong(this.nonce).array());
+    // A buffer of our own, so that blocks can be hashed in parallel.
+    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    this.md.reset();
+    this.md.update(base());
+    this.md.update(buffer.putLong(0, this.nonce).array());
     this.currentHash = new Hash(md.digest());
   } // computeHash()
 
@@ -139,6 +445,25 @@ public class Block {
   // | Methods |
   // +---------+
 
+  /**
+   * Get the encoded header of the block, which is what we hash.
+   *
+   * @return the encoded header.
+   */
+  public byte[] getHeader() {
+    byte[] base = base();
+    return ByteBuffer.allocate(base.length + Long.BYTES).put(base).putLong(this.nonce).array();
+  } // getHeader()
+
+  /**
+   * Get the header format of the block.
+   *
+   * @return LEGACY, CANONICAL, or BATCH.
+   */
+  public int getVersion() {
+    return this.version;
+  } // getVersion()
+
   /**
    * Get the number of the block.
    *
@@ -151,12 +476,62 @@ public class Block {
   /**
    * Get the transaction stored in this block.
    *
-   * @return the transaction.
+   * @return the transaction (the first one, for a BATCH block).
    */
   public Transaction getTransaction() {
     return this.blockData;
   } // getTransaction()
 
+  /**
+   * Get all the transactions stored in this block.
+   *
+   * @return the transactions, in order.
+   */
+  public List<Transaction> getTransactions() {
+    return (this.batch == null) ? List.of(this.blockData) : this.batch;
+  } // getTransactions()
+
+  /**
+   * Get the number of transactions stored in this block.
+   *
+   * @return the number of transactions.
+   */
+  public int getTransactionCount() {
+    return (this.batch == null) ? 1 : this.batch.size();
+  } // getTransactionCount()
+
+  /**
+   * Determine whether this block holds a batch of transactions.
+   *
+   * @return true if this is a BATCH block.
+   */
+  public boolean isBatch() {
+    return this.batch != null;
+  } // isBatch()
+
+  /**
+   * Get the Merkle root of the transactions in a BATCH block.
+   *
+   * @return the root, or null if this is not a BATCH block.
+   */
+  public Hash getMerkleRoot() {
+    return this.merkleRoot;
+  } // getMerkleRoot()
+
+  /**
+   * Build a new copy of this block from its current contents, hashing
+   * it again. If the block has been changed, the copy's hash will
+   * differ from this block's.
+   *
+   * @return the copy.
+   */
+  Block rehash() {
+    if (this.batch != null) {
+      return new Block(this.index, this.batch, this.prevHash, this.nonce);
+    } // if
+    return new Block(this.index, this.blockData, this.prevHash, this.nonce, this.version);
+  } // rehash()
+
   /**
    * Get the nonce of this block.
    *
@@ -190,6 +565,18 @@ public class Block {
    * @return a string representation of the block.
    */
   public String toString() {
+    if (this.batch != null) {
+      StringBuilder str = new StringBuilder("Block " + this.index + " (Transactions: [");
+      for (int i = 0; i < this.batch.size(); i++) {
+        Transaction t = this.batch.get(i);
+        str.append((i == 0) ? "[Source " : ", [Source ").append(t.getSource())
+            .append(", Target ").append(t.getTarget())
+            .append(", Amount ").append(t.getAmount()).append("]");
+      } // for
+      return str.append("], Nonce: ").append(this.nonce)
+          .append(", prevHash: ").append(this.prevHash)
+          .append(", hash: ").append(this.currentHash).append(")").toString();
+    } // if
     return "Block " + this.index
       + " (Transaction: [Source " + this.blockData.getSource()
       + ", Target " + this.blockData.getTarget()
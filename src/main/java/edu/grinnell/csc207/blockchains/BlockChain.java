@@ -1,17 +1,47 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Spliterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.NullKeyException;
 
 /**
  * A full blockchain.
  *
+ * One thread at a time may change the chain (append and removeLast
+ * are synchronized), while any number of threads read it. Readers
+ * never lock: every query works on an immutable snapshot of the chain,
+ * which they can also take explicitly with snapshot().
+ *
+ * A chain may also be told to keep only its most recent blocks in
+ * memory (see setRetainedBlocks). Older blocks are then checked once
+ * and collapsed into the balances of every user plus the hash of the
+ * last such block.
+ *
  * @author Benjamin Sheeley
  * @author Jake Bell
  */
 public class BlockChain implements Iterable<Transaction> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How far behind the end of the chain a branch may leave it and still
+   * be kept by submit, in blocks.
+   */
+  static final int MAX_FORK_DEPTH = 100;
+
+  /** The most blocks that submit keeps off the chain. */
+  static final int MAX_SIDE_BLOCKS = 1024;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -28,6 +58,61 @@ public class BlockChain implements Iterable<Transaction> {
   /** Keep track of the length of the BlockChain. */
   private int size;
 
+  /** Find the nodes in the BlockChain by the hashes of their blocks. */
+  private HashIndex hashIndex;
+
+  /** Find the nodes in the BlockChain by their positions (less base). */
+  private Node[] nodes;
+
+  /**
+   * The number of transactions before each node's block, pruned blocks
+   * included, by position (less base). Copied and shared along with
+   * nodes.
+   */
+  private long[] starts;
+
+  /** The position of the first block that has not been pruned. */
+  private int base;
+
+  /** The balances of all users before the first block not pruned. */
+  private Ledger baseLedger;
+
+  /** The hash of the last pruned block (null if none are pruned). */
+  private Hash boundaryHash;
+
+  /** How many blocks to keep when pruning (0 to keep all of them). */
+  private int retained;
+
+  /** What was wrong with the pruned blocks (null if nothing). */
+  private volatile String prunedProblem;
+
+  /**
+   * Whether a snapshot may include the slots of nodes past the end of
+   * the chain, so that we must copy nodes before writing to them.
+   */
+  private boolean nodesShared;
+
+  /** The number of transactions in the blocks that are not pruned. */
+  private long transactionCount;
+
+  /** The number of blocks ever removed from the BlockChain. */
+  private volatile long removalCount;
+
+  /** The current state of the BlockChain, as seen by readers. */
+  private volatile ChainSnapshot current;
+
+  /** The valid blocks we have seen that are not in the BlockChain. */
+  private ForkTree forks;
+
+  /** Find the positions of the blocks in which each user appears. */
+  private UserIndex userIndex;
+
+  /** The header format of the blocks we mine. */
+  private volatile int blockVersion;
+
+  /** Where we keep the blocks, if we keep them in columns (or null). */
+  private BlockColumns columns;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -39,21 +124,312 @@ public class BlockChain implements Iterable<Transaction> {
    *   The validator used to check elements.
    */
   public BlockChain(HashValidator check) {
+    this(check, false);
+  } // BlockChain(HashValidator)
+
+  /**
+   * Create a new blockchain using a validator to check elements,
+   * optionally keeping a memory-compact index of block hashes.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param compactIndex
+   *   True if the hash index should store only part of each hash
+   *   (and confirm matches against the block itself).
+   */
+  public BlockChain(HashValidator check, boolean compactIndex) {
+    this(check, compactIndex, false);
+  } // BlockChain(HashValidator, boolean)
+
+  /**
+   * Create a new blockchain using a validator to check elements,
+   * optionally keeping a memory-compact index of block hashes and
+   * keeping the blocks themselves in columns.
+   *
+   * In columnar mode the chain takes several times less memory per
+   * block, but every block it returns is a new copy, so changing a
+   * block after appending it does not change the chain. The hash index
+   * is always compact in columnar mode, since a full index would keep
+   * a Hash object for every block.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param compactIndex
+   *   True if the hash index should store only part of each hash
+   *   (and confirm matches against the block itself). Ignored in
+   *   columnar mode.
+   * @param columnar
+   *   True if blocks should be stored in columns rather than as
+   *   objects.
+   */
+  public BlockChain(HashValidator check, boolean compactIndex, boolean columnar) {
+    this(check, compactIndex, columnar, null);
+  } // BlockChain(HashValidator, boolean, boolean)
+
+  /**
+   * Create a new blockchain that starts with a particular block, such
+   * as the first block of a chain we exported.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param compactIndex
+   *   True if the hash index should store only part of each hash.
+   *   Ignored in columnar mode, whose index is always compact.
+   * @param columnar
+   *   True if blocks should be stored in columns.
+   * @param genesis
+   *   The first block, or null to mine a new one.
+   *
+   * @throws IllegalArgumentException
+   *   If the first block does not have a valid, correct hash.
+   */
+  public BlockChain(HashValidator check, boolean compactIndex, boolean columnar, Block genesis) {
     this.validator = check;
-    Transaction initTrans = new Transaction("", "", 0);
-    byte[] initByte = new byte[0];
-    Hash initHash = new Hash(initByte);
-    Block initBlock = new Block(0, initTrans, initHash, this.validator);
-    Node initNode = new Node(null, null, initBlock);
+    this.columns = columnar ? new BlockColumns() : null;
+    this.hashIndex = new HashIndex(compactIndex || columnar);
+    this.userIndex = new UserIndex();
+    this.nodes = new Node[16];
+    this.starts = new long[16];
+    Block initBlock = genesis;
+    if (initBlock == null) {
+      Transaction initTrans = new Transaction("", "", 0);
+      byte[] initByte = new byte[0];
+      Hash initHash = new Hash(initByte);
+      initBlock = new Block(0, initTrans, initHash, this.validator);
+    } else {
+      verify(initBlock);
+    } // if/else
+    Node initNode = columnar
+        ? this.columns.add(null, 0, initBlock)
+        : new Node(null, null, initBlock);
     this.head = initNode;
     this.tail = initNode;
     this.size = 1;
-  } // BlockChain(HashValidator)
+    this.nodes[0] = initNode;
+    this.hashIndex.add(initNode);
+    for (Transaction t : initBlock.getTransactions()) {
+      this.userIndex.add(0, t);
+    } // for
+    this.transactionCount = initBlock.getTransactionCount();
+    this.nodesShared = false;
+    this.removalCount = 0;
+    this.forks = new ForkTree();
+    this.base = 0;
+    this.baseLedger = new Ledger().freeze();
+    this.boundaryHash = null;
+    this.retained = 0;
+    this.prunedProblem = null;
+    this.blockVersion = Block.LEGACY;
+    publish();
+  } // BlockChain(HashValidator, boolean, boolean, Block)
 
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Make the current state of the chain visible to readers. Call after
+   * every change to the chain.
+   */
+  private void publish() {
+    prune();
+    this.current = new ChainSnapshot(this, this.nodes, this.starts, this.base, this.size,
+        this.transactionCount, this.removalCount, this.baseLedger, this.boundaryHash);
+  } // publish()
+
+  /**
+   * Prune old blocks, if we are keeping only some of them and have
+   * twice that many. Checks the blocks we prune.
+   */
+  private void prune() {
+    if ((this.retained == 0) || (this.size - this.base < 2 * this.retained)) {
+      return;
+    } // if
+    int newBase = this.size - this.retained;
+    int count = newBase - this.base;
+    ArrayList<Block> pruned = new ArrayList<Block>(count);
+    for (int i = 0; i < count; i++) {
+      pruned.add(this.nodes[i].getData());
+    } // for
+
+    Ledger ledger = this.baseLedger.snapshot();
+    try {
+      checkBlocks(pruned.iterator(), ledger, this.boundaryHash);
+    } catch (Exception e) {
+      if (this.prunedProblem == null) {
+        this.prunedProblem = e.getMessage();
+      } // if
+      // Keep the balances anyway, as balance() would.
+      ledger = this.baseLedger.snapshot();
+      for (Block blk : pruned) {
+        for (Transaction t : blk.getTransactions()) {
+          ledger.apply(t);
+        } // for
+      } // for
+    } // try/catch
+
+    // Readers compare the removal count after reading the indexes, so
+    // it must change before the indexes do.
+    this.removalCount += count;
+    for (int i = 0; i < count; i++) {
+      this.hashIndex.remove(this.nodes[i]);
+      this.transactionCount -= pruned.get(i).getTransactionCount();
+    } // for
+    this.userIndex.prune(newBase);
+    Node[] kept = new Node[2 * this.retained];
+    System.arraycopy(this.nodes, count, kept, 0, this.size - newBase);
+    long[] keptStarts = new long[kept.length];
+    System.arraycopy(this.starts, count, keptStarts, 0, this.size - newBase);
+    this.boundaryHash = pruned.get(count - 1).getHash();
+    this.nodes = kept;
+    this.starts = keptStarts;
+    this.nodesShared = false;
+    this.head = kept[0];
+    this.head.prevNode = null;
+    this.base = newBase;
+    this.baseLedger = ledger.freeze();
+  } // prune()
+
+  /**
+   * Get the number of blocks ever removed from the chain.
+   *
+   * @return the number of removals.
+   */
+  long removals() {
+    return this.removalCount;
+  } // removals()
+
+  /**
+   * Get the index of users in the chain.
+   *
+   * @return the user index.
+   */
+  UserIndex userIndex() {
+    return this.userIndex;
+  } // userIndex()
+
+  /**
+   * Check that a block's hash is valid and matches its contents.
+   *
+   * @param blk
+   *   The block to check.
+   *
+   * @throws IllegalArgumentException
+   *   If the hash is not valid or is not appropriate for the contents.
+   */
+  private void verify(Block blk) {
+    Block blockCopy = blk.rehash();
+
+    if (!this.validator.isValid(blk.getHash())) {
+      throw new IllegalArgumentException("Invalid hash in appended block: " + blk.getHash());
+    } else if (!blk.getHash().equals(blockCopy.getHash())) {
+      throw new IllegalArgumentException("Invalid hash in appended block: " + blk.getHash());
+    } // if/else
+  } // verify(Block)
+
+  /**
+   * Check that a block follows the block with a particular hash.
+   *
+   * @param blk
+   *   The block to check.
+   * @param prev
+   *   The hash of the block it should follow.
+   *
+   * @throws IllegalArgumentException
+   *   If the previous hash of the block is incorrect.
+   */
+  private static void verifyLink(Block blk, Hash prev) {
+    if (!blk.getPrevHash().equals(prev)) {
+      throw new IllegalArgumentException("Does not match the previous hash: "
+          + prev + " was " + blk.getPrevHash());
+    } // if
+  } // verifyLink(Block, Hash)
+
+  /**
+   * Add a verified block to the end of the chain, without publishing
+   * the change to readers.
+   *
+   * @param blk
+   *   The block to add.
+   */
+  private void link(Block blk) {
+    Node newNode = (this.columns == null)
+        ? new Node(this.tail, null, blk)
+        : this.columns.add(this.tail, this.size, blk);
+    this.tail.nextNode = newNode;
+    this.tail = newNode;
+    int slot = this.size - this.base;
+    if (this.nodesShared || (slot == this.nodes.length)) {
+      int capacity = (slot == this.nodes.length) ? slot * 2 : this.nodes.length;
+      this.nodes = Arrays.copyOf(this.nodes, capacity);
+      this.starts = Arrays.copyOf(this.starts, capacity);
+      this.nodesShared = false;
+    } // if
+    newNode.position = this.size;
+    this.nodes[slot] = newNode;
+    this.starts[slot] = this.starts[0] + this.transactionCount;
+    this.hashIndex.add(newNode);
+    for (Transaction t : blk.getTransactions()) {
+      this.userIndex.add(this.size, t);
+    } // for
+    this.transactionCount += blk.getTransactionCount();
+    this.size++;
+  } // link(Block)
+
+  /**
+   * Remove the last block from the chain, without publishing the
+   * change to readers. The chain must have at least two blocks that
+   * have not been pruned.
+   *
+   * @return the block removed.
+   */
+  private Block unlink() {
+    // Readers compare the removal count after reading the indexes, so
+    // it must change before the indexes do.
+    this.removalCount++;
+    this.size--;
+    Block removed = this.tail.getData();
+    this.hashIndex.remove(this.tail);
+    for (Transaction t : removed.getTransactions()) {
+      this.userIndex.remove(this.size, t);
+    } // for
+    this.transactionCount -= removed.getTransactionCount();
+    this.nodesShared = true;
+    this.tail = this.tail.prevNode;
+    this.tail.nextNode = null;
+    return removed;
+  } // unlink()
+
+  /**
+   * Find the first side block of the branch that ends with a block.
+   *
+   * @param blk
+   *   A side block.
+   *
+   * @return the earliest side block from which blk descends (or blk
+   *   itself).
+   */
+  private Block root(Block blk) {
+    Block result = blk;
+    for (Block parent = this.forks.get(result.getPrevHash()); parent != null;
+        parent = this.forks.get(result.getPrevHash())) {
+      result = parent;
+    } // for
+    return result;
+  } // root(Block)
+
+  /**
+   * Determine whether a side block's branch joins the chain.
+   *
+   * @param blk
+   *   The side block.
+   *
+   * @return true if it does; false if it is waiting for a parent.
+   */
+  private boolean attached(Block blk) {
+    return this.hashIndex.find(root(blk).getPrevHash()) != null;
+  } // attached(Block)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -68,18 +444,82 @@ public class BlockChain implements Iterable<Transaction> {
    * @return a new block with correct number, hashes, and such.
    */
   public Block mine(Transaction t) {
-    return new Block(this.size, t, this.tail.getData().getHash(), this.validator);
+    ChainSnapshot now = this.current;
+    return new Block(now.getSize(), t, now.getHash(), this.validator, this.blockVersion);
   } // mine(Transaction)
 
+  /**
+   * Mine for a new valid block for the end of the chain that holds a
+   * batch of transactions, so that they share the cost of mining.
+   *
+   * @param transactions
+   *   The transactions that go in the block, in order.
+   *
+   * @return a new BATCH block with correct number, hashes, and such.
+   *
+   * @throws IllegalArgumentException
+   *   If there are no transactions.
+   */
+  public Block mine(List<Transaction> transactions) {
+    ChainSnapshot now = this.current;
+    return new Block(now.getSize(), transactions, now.getHash(), this.validator);
+  } // mine(List)
+
+  /**
+   * Keep only the most recent blocks in memory. Once the chain holds
+   * twice that many, the older ones are checked and replaced by the
+   * balance of every user and the hash of the newest of them. Their
+   * history is then no longer available, but balances, users, and
+   * check() still account for them.
+   *
+   * @param count
+   *   The number of blocks to keep, or 0 to keep all of them.
+   *
+   * @throws IllegalArgumentException
+   *   If count is negative.
+   */
+  public synchronized void setRetainedBlocks(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("Cannot retain " + count + " blocks");
+    } // if
+    this.retained = count;
+    publish();
+  } // setRetainedBlocks(int)
+
+  /**
+   * Choose the header format for the blocks that mine() creates. The
+   * chain accepts blocks in any format, and mines LEGACY blocks (whose
+   * hashes match those of earlier versions) unless told otherwise.
+   *
+   * @param format
+   *   Block.LEGACY or Block.CANONICAL.
+   *
+   * @throws IllegalArgumentException
+   *   If the format is not one we know.
+   */
+  public void setBlockVersion(int format) {
+    this.blockVersion = Block.checkVersion(format);
+  } // setBlockVersion(int)
+
   /**
    * Get the number of blocks curently in the chain.
    *
    * @return the number of blocks in the chain, including the initial block.
    */
   public int getSize() {
-    return this.size;
+    return this.current.getSize();
   } // getSize()
 
+  /**
+   * Take a snapshot of the chain. The snapshot is unaffected by later
+   * changes to the chain, and taking it takes no locks.
+   *
+   * @return a snapshot of the chain as it is now.
+   */
+  public ChainSnapshot snapshot() {
+    return this.current;
+  } // snapshot()
+
   /**
    * Add a block to the end of the chain.
    *
@@ -90,51 +530,223 @@ public class BlockChain implements Iterable<Transaction> {
    *   the hash is not appropriate for the contents, or (c) the previous
    *   hash is incorrect.
    */
-  public void append(Block blk) {
-    Block blockCopy = new Block(blk.getNum(), blk.getTransaction(),
-        blk.getPrevHash(), blk.getNonce());
-
-    if (!this.validator.isValid(blk.getHash())) {
-      throw new IllegalArgumentException("Invalid hash in appended block: " + blk.getHash());
-    } else if (!blk.getHash().equals(blockCopy.getHash())) {
-      throw new IllegalArgumentException("Invalid hash in appended block: " + blk.getHash());
-    } else if (!blk.getPrevHash().equals(this.tail.getData().getHash())) {
-      throw new IllegalArgumentException("Does not match the previous hash: "
-          + this.tail.getData().getHash() + " was " + blk.getPrevHash());
-    } else {
-      Node newNode = new Node(this.tail, null, blk);
-      this.tail.nextNode = newNode;
-      this.tail = newNode;
-      this.size++;
-    } // if/else
+  public synchronized void append(Block blk) {
+    verify(blk);
+    verifyLink(blk, this.tail.getData().getHash());
+    link(blk);
+    publish();
   } // append()
 
+  /**
+   * Add a sequence of blocks to the end of the chain, all or nothing.
+   * The blocks are verified in parallel before any is added, and
+   * readers see either none of them or all of them.
+   *
+   * @param blks
+   *   The blocks to add, in order.
+   *
+   * @throws InvalidBlockException
+   *   If any block would fail append, in which case the chain is
+   *   unchanged and the exception gives the index (in blks) of the
+   *   first bad block.
+   */
+  public void appendAll(List<Block> blks) {
+    Block[] batch = blks.toArray(new Block[0]);
+    if (batch.length == 0) {
+      return;
+    } // if
+    Hash expectedPrev = this.current.getHash();
+    OptionalInt bad = IntStream.range(0, batch.length).parallel()
+        .filter((i) -> {
+          try {
+            verify(batch[i]);
+            verifyLink(batch[i], (i == 0) ? expectedPrev : batch[i - 1].getHash());
+            return false;
+          } catch (IllegalArgumentException e) {
+            return true;
+          } // try/catch
+        })
+        .findFirst();
+    if (bad.isPresent()) {
+      int i = bad.getAsInt();
+      try {
+        verify(batch[i]);
+        verifyLink(batch[i], (i == 0) ? expectedPrev : batch[i - 1].getHash());
+      } catch (IllegalArgumentException e) {
+        throw new InvalidBlockException(i, e.getMessage());
+      } // try/catch
+    } // if
+
+    synchronized (this) {
+      // Someone may have changed the chain while we were verifying.
+      try {
+        verifyLink(batch[0], this.tail.getData().getHash());
+      } catch (IllegalArgumentException e) {
+        throw new InvalidBlockException(0, e.getMessage());
+      } // try/catch
+      for (Block blk : batch) {
+        link(blk);
+      } // for
+      publish();
+    } // synchronized
+  } // appendAll(List<Block>)
+
   /**
    * Attempt to remove the last block from the chain.
    *
    * @return false if the chain has only one block (in which case it's
    *   not removed) or true otherwise (in which case the last block
-   *   is removed).
+   *   is removed). On a pruned chain, the last block that has not been
+   *   pruned counts as the only block.
    */
-  public boolean removeLast() {
-    if (this.size == 1) {
+  public synchronized boolean removeLast() {
+    if (this.size - this.base == 1) {
       return false;
     } // if
-    this.tail = this.tail.prevNode;
-    this.tail.nextNode = null;
-    this.size--;
+    unlink();
+    publish();
     return true;
   } // removeLast()
 
+  /**
+   * Offer a block that may extend the chain or some other branch of
+   * it. Unlike append, a valid block whose previous hash is not the
+   * last block is kept rather than rejected. If it (with any blocks
+   * that have been waiting for it) makes a branch longer than the
+   * chain, the chain switches to that branch, removing only the blocks
+   * after the fork and adding the blocks of the branch. Every block
+   * takes the same work under a single validator, so the longest
+   * branch is also the one with the most work.
+   *
+   * So that peers cannot make us hold any number of blocks, we drop
+   * branches that leave the chain more than MAX_FORK_DEPTH blocks
+   * before its end, and keep at most MAX_SIDE_BLOCKS blocks off the
+   * chain, dropping the oldest blocks that are waiting for their
+   * parents first.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return true if the chain changed and false otherwise.
+   *
+   * @throws IllegalArgumentException
+   *   If the block's hash is not valid or not appropriate for its
+   *   contents.
+   */
+  public boolean submit(Block blk) {
+    verify(blk);
+    synchronized (this) {
+      int floor = this.size - MAX_FORK_DEPTH;
+      this.forks.dropBelow(floor);
+      if ((this.hashIndex.find(blk.getHash()) != null)
+          || (this.forks.get(blk.getHash()) != null) || (blk.getNum() < floor)) {
+        return false;
+      } // if
+      this.forks.add(blk);
+      if (this.forks.size() > MAX_SIDE_BLOCKS) {
+        // Make room, first by dropping blocks that are waiting for their
+        // parents, then by dropping the oldest blocks of any kind.
+        this.forks.evict(MAX_SIDE_BLOCKS * 3 / 4, (b) -> !attached(b));
+        this.forks.evict(MAX_SIDE_BLOCKS, (b) -> true);
+        if (this.forks.get(blk.getHash()) == null) {
+          return false;
+        } // if
+      } // if
+
+      // Find where the block's branch leaves the chain.
+      Block root = root(blk);
+      Node fork = this.hashIndex.find(root.getPrevHash());
+      if (fork == null) {
+        // We have not seen the start of the branch yet.
+        return false;
+      } // if
+      if (fork.position + 1 < floor) {
+        // The branch leaves the chain too far back to follow.
+        this.forks.removeTree(root);
+        return false;
+      } // if
+
+      List<Block> branch = this.forks.longestAfter(fork.getData().getHash());
+      int keep = fork.position + 1;
+      if (keep + branch.size() <= this.size) {
+        return false;
+      } // if
+      while (this.size > keep) {
+        this.forks.add(unlink());
+      } // while
+      for (Block b : branch) {
+        this.forks.remove(b);
+        link(b);
+      } // for
+      publish();
+      return true;
+    } // synchronized
+  } // submit(Block)
+
+  /**
+   * Determine how many valid blocks we know of that are not in the
+   * chain (on shorter branches, or waiting for their parents).
+   *
+   * @return the number of such blocks.
+   */
+  public synchronized int getSideBlockCount() {
+    return this.forks.size();
+  } // getSideBlockCount()
+
   /**
    * Get the hash of the last block in the chain.
    *
    * @return the hash of the last sblock in the chain.
    */
   public Hash getHash() {
-    return this.tail.getData().getHash();
+    return this.current.getHash();
   } // getHash()
 
+  /**
+   * Find the block in the chain with a particular hash.
+   *
+   * @param hash
+   *   The hash of the block we want.
+   *
+   * @return the block with that hash, or null if no block in the chain
+   *   has that hash.
+   */
+  public Block findByHash(Hash hash) {
+    Node node = this.hashIndex.find(hash);
+    return (node == null) ? null : node.getData();
+  } // findByHash(Hash)
+
+  /**
+   * Get one page of the blocks in which a user appears as source or
+   * target, in chain order. To get the next page, call again with
+   * a position one past the last block returned.
+   *
+   * @param user
+   *   The user whose history we want.
+   * @param fromBlock
+   *   The position in the chain at which to start.
+   * @param limit
+   *   The largest number of blocks to return.
+   *
+   * @return the blocks in which the user appears, starting at
+   *   fromBlock, of which there are at most limit.
+   */
+  public List<Block> history(String user, int fromBlock, int limit) {
+    return this.current.history(user, fromBlock, limit);
+  } // history(String, int, int)
+
+  /**
+   * Determine how many blocks a user appears in.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the number of blocks in which the user is source or target.
+   */
+  public int historySize(String user) {
+    return this.current.historySize(user);
+  } // historySize(String)
+
   /**
    * Determine if the blockchain is correct in that (a) the balances are
    * legal/correct at every step, (b) that every block has a correct
@@ -162,36 +774,54 @@ public class BlockChain implements Iterable<Transaction> {
    *   If things are wrong at any block.
    */
   public void check() throws Exception {
-    Iterator<Block> blockIter = blocks();
-    AssociativeArray arr = new AssociativeArray<String, Integer>();
-    Block prevBlock = null;
+    ChainSnapshot snap = this.current;
+    if (this.prunedProblem != null) {
+      throw new Exception(this.prunedProblem);
+    } // if
+    checkBlocks(snap.blocks(), snap.ledger().snapshot(), snap.boundary());
+  } // check()
+
+  /**
+   * Check a sequence of blocks, as check() does.
+   *
+   * @param blockIter
+   *   The blocks, in order.
+   * @param arr
+   *   The balances of each user before the first block. Updated to
+   *   the balances after the last block.
+   * @param prevHash
+   *   The hash the first block should follow, or null if the first
+   *   block may follow anything.
+   *
+   * @throws Exception
+   *   If things are wrong at any block.
+   */
+  private void checkBlocks(Iterator<Block> blockIter, Ledger arr, Hash prevHash)
+      throws Exception {
+    Hash expected = prevHash;
     while (blockIter.hasNext()) {
       Block curBlock = blockIter.next();
-      Transaction curTrans = curBlock.getTransaction();
-      if (curTrans.getAmount() < 0) {
-        throw new Exception("Invalid transaction amount " + curTrans.getAmount()
-        + " in block " + curBlock.getNum());
-      } // if
-      if (!(curTrans.getSource().equals(""))) {
-        try {
-          arr.set(curTrans.getSource(), (int) arr.get(curTrans.getSource()) - curTrans.getAmount());
-          if ((int) arr.get(curTrans.getSource()) < 0) {
+      for (Transaction curTrans : curBlock.getTransactions()) {
+        if (curTrans.getAmount() < 0) {
+          throw new Exception("Invalid transaction amount " + curTrans.getAmount()
+          + " in block " + curBlock.getNum());
+        } // if
+        if (!(curTrans.getSource().equals(""))) {
+          UserDictionary.Entry source = curTrans.source();
+          if (!arr.has(source)) {
+            throw new Exception("Unknown Source in block "
+                + curBlock.getNum() + ": " + curTrans.getSource());
+          } // if
+          long left = arr.addTo(source, -curTrans.getAmount());
+          if (left < 0) {
             throw new Exception("Insufficient funds for " + curTrans.getSource() + " in "
-                + curBlock.getNum() + ": Has " + (int) arr.get(curTrans.getSource()) + " needs "
+                + curBlock.getNum() + ": Has " + (left + curTrans.getAmount()) + " needs "
                 + curTrans.getAmount());
           } // if
-        } catch (Exception e) {
-          throw new Exception("Unknown Source in block "
-              + curBlock.getNum() + ": " + curTrans.getSource());
-        } // try/catch
-      } // if
-      try {
-        arr.set(curTrans.getTarget(), (int) arr.get(curTrans.getTarget()) + curTrans.getAmount());
-      } catch (Exception e) {
-        arr.set(curTrans.getTarget(), curTrans.getAmount());
-      } // try/catch
-      Block dupBlock = new Block(curBlock.getNum(), curBlock.getTransaction(),
-          curBlock.getPrevHash(), curBlock.getNonce());
+        } // if
+        arr.addTo(curTrans.target(), curTrans.getAmount());
+      } // for
+      Block dupBlock = curBlock.rehash();
       if (!curBlock.getHash().equals(dupBlock.getHash())) {
         throw new Exception("Hash is not correct in block " + curBlock.getNum());
       } // if
@@ -199,15 +829,15 @@ public class BlockChain implements Iterable<Transaction> {
       if (!this.validator.isValid(curBlock.getHash())) {
         throw new Exception("Hash is not correct in block " + curBlock.getNum());
       } // if
-      if (prevBlock != null) {
-        if (!prevBlock.getHash().equals(curBlock.getPrevHash())) {
+      if (expected != null) {
+        if (!expected.equals(curBlock.getPrevHash())) {
           throw new Exception("The previous hash stored in "
               + curBlock.getNum() + " is not correct");
         } // if
       } // if
-      prevBlock = curBlock;
+      expected = curBlock.getHash();
     } // while
-  } // check()
+  } // checkBlocks(Iterator, Ledger, Hash)
 
   /**
    * Return an iterator of all the people who participated in the
@@ -217,8 +847,11 @@ public class BlockChain implements Iterable<Transaction> {
    */
   public Iterator<String> users() {
     return new Iterator<String>() {
-      /** Keep track of the current node of the iterator */
-      private Node current = head;
+      /** The snapshot whose users we are listing */
+      private ChainSnapshot snap = snapshot();
+
+      /** Keep track of the blocks we have yet to visit */
+      private Iterator<Block> remaining = snap.blocks();
 
       /** An associative array of all users */
       String[] userArr;
@@ -229,16 +862,26 @@ public class BlockChain implements Iterable<Transaction> {
       {
         AssociativeArray<String, Boolean> tmpArr = new AssociativeArray<>();
         try {
-          while (current != null) {
-            String sourceName = current.getData().getTransaction().getSource();
-            String targetName = current.getData().getTransaction().getTarget();
-            if (!(sourceName.equals(""))) {
-              tmpArr.set(sourceName, true);
-            } // if
-            if (!(targetName.equals(""))) {
-              tmpArr.set(targetName, true);
-            } // if
-            current = current.nextNode;
+          snap.ledger().forEach((name, balance) -> {
+            try {
+              if (!(name.equals(""))) {
+                tmpArr.putIfAbsent(name, true);
+              } // if
+            } catch (NullKeyException e) {
+              // Names are never null.
+            } // try/catch
+          });
+          while (remaining.hasNext()) {
+            for (Transaction trans : remaining.next().getTransactions()) {
+              String sourceName = trans.getSource();
+              String targetName = trans.getTarget();
+              if (!(sourceName.equals(""))) {
+                tmpArr.putIfAbsent(sourceName, true);
+              } // if
+              if (!(targetName.equals(""))) {
+                tmpArr.putIfAbsent(targetName, true);
+              } // if
+            } // for
           } // while
           userArr = tmpArr.getAllKeys();
         } catch (Exception e) {
@@ -264,8 +907,9 @@ public class BlockChain implements Iterable<Transaction> {
    * @return that user's balance (or 0, if the user is not in the system).
    */
   public int balance(String user) {
-    int userBalance = 0;
-    for (Transaction obj : this) {
+    ChainSnapshot snap = this.current;
+    int userBalance = (int) snap.baseBalance(user);
+    for (Transaction obj : snap) {
       String sourceName = obj.getSource();
       String targetName = obj.getTarget();
       if (sourceName.equals(user)) {
@@ -278,52 +922,93 @@ public class BlockChain implements Iterable<Transaction> {
   } // balance()
 
   /**
-   * Get an interator for all the blocks in the chain.
+   * Find one user's balance as of a particular block, using the same
+   * ledger rules as check(). Takes time logarithmic in the number of
+   * blocks the user appears in.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   * @param height
+   *   The position of the block after which we want the balance.
+   *   Positions past the end of the chain refer to the last block.
+   *
+   * @return that user's balance after the block at that position
+   *   (or 0, if the user had not yet appeared).
+   */
+  public long balanceAt(String user, int height) {
+    return this.current.balanceAt(user, height);
+  } // balanceAt(String, int)
+
+  /**
+   * Get an interator for all the blocks in the chain. The iterator
+   * covers the blocks in the chain at the time of the call.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Block> blocks() {
-    return new Iterator<Block>() {
-      /** Keep track of the current node for iterator */
-      private Node current = head;
-
-      public boolean hasNext() {
-        return current != null;
-      } // hasNext()
-
-      public Block next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        Block data = current.getData();
-        current = current.nextNode;
-        return data;
-      } // next()
-    };
+    return this.current.blocks();
   } // blocks()
 
   /**
-   * Get an interator for all the transactions in the chain.
+   * Get an interator for all the transactions in the chain. The iterator
+   * covers the blocks in the chain at the time of the call.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Transaction> iterator() {
-    return new Iterator<Transaction>() {
-      /** Keep track of the current node for iterator */
-      private Node current = head;
+    return this.current.iterator();
+  } // iterator()
 
-      public boolean hasNext() {
-        return (current != null);
-      } // hasNext()
+  /**
+   * Get a spliterator for all the transactions in the chain. It splits
+   * evenly and knows its size, so parallel streams divide the work well.
+   *
+   * @return a spliterator for all the transactions in the chain.
+   */
+  public Spliterator<Transaction> spliterator() {
+    return this.current.spliterator();
+  } // spliterator()
 
-      public Transaction next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        Transaction data = current.getData().getTransaction();
-        current = current.nextNode;
-        return data;
-      } // next()
-    };
-  } // iterator()
+  /**
+   * Get a stream of all the blocks in the chain, in order. The stream
+   * covers the blocks in the chain at the time of the call.
+   *
+   * @param parallel
+   *   True if the stream should be parallel.
+   *
+   * @return a stream of all the blocks in the chain.
+   */
+  public Stream<Block> blockStream(boolean parallel) {
+    return this.current.blockStream(parallel);
+  } // blockStream(boolean)
+
+  /**
+   * Get a sequential stream of all the blocks in the chain.
+   *
+   * @return a stream of all the blocks in the chain.
+   */
+  public Stream<Block> blockStream() {
+    return blockStream(false);
+  } // blockStream()
+
+  /**
+   * Get a stream of all the transactions in the chain, in order.
+   *
+   * @param parallel
+   *   True if the stream should be parallel.
+   *
+   * @return a stream of all the transactions in the chain.
+   */
+  public Stream<Transaction> transactionStream(boolean parallel) {
+    return this.current.transactionStream(parallel);
+  } // transactionStream(boolean)
+
+  /**
+   * Get a sequential stream of all the transactions in the chain.
+   *
+   * @return a stream of all the transactions in the chain.
+   */
+  public Stream<Transaction> transactionStream() {
+    return transactionStream(false);
+  } // transactionStream()
 } // class BlockChain
@@ -0,0 +1,375 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary form for blocks, transactions, and hashes.
+ *
+ * A block is written as a format byte followed by its fields. Numbers
+ * that are usually small (block numbers, amounts, and lengths) are
+ * written as variable-length integers, seven bits to a byte, with
+ * signed values zig-zag encoded so that small negative numbers are
+ * small too. Names are written as their length and UTF-8 bytes, hashes
+ * as their length and bytes, and nonces, which are random, as eight
+ * plain bytes. Blocks that hold a batch of transactions write how many
+ * there are before them.
+ *
+ * <pre>
+ *   block       = FORMAT version:varint num:zigzag transactions
+ *                 prevHash:hash nonce:int64 hash:hash
+ *   transactions = transaction                  (single blocks)
+ *                | count:varint transaction*    (batch blocks)
+ *   transaction = source:name target:name amount:zigzag
+ *   name, hash  = length:varint bytes
+ * </pre>
+ *
+ * Everything is read from and written to ByteBuffers, starting at their
+ * current positions, which we advance.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public final class BlockCodec {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The format of the blocks we write. */
+  public static final byte FORMAT = 1;
+
+  /** The most bytes a variable-length int can take. */
+  static final int MAX_VARINT_BYTES = 5;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prevent instantiation.
+   */
+  private BlockCodec() {
+  } // BlockCodec()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine how many bytes a variable-length int takes.
+   *
+   * @param value
+   *   The value, treated as unsigned.
+   *
+   * @return the number of bytes.
+   */
+  static int varintSize(int value) {
+    int bits = Integer.SIZE - Integer.numberOfLeadingZeros(value | 1);
+    return (bits + 6) / 7;
+  } // varintSize(int)
+
+  /**
+   * Zig-zag encode a signed int, so that small magnitudes are small.
+   *
+   * @param value
+   *   The value.
+   *
+   * @return the encoded value.
+   */
+  static int zigzag(int value) {
+    return (value << 1) ^ (value >> (Integer.SIZE - 1));
+  } // zigzag(int)
+
+  /**
+   * Undo zigzag().
+   *
+   * @param value
+   *   The encoded value.
+   *
+   * @return the original value.
+   */
+  static int unzigzag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  } // unzigzag(int)
+
+  /**
+   * Read a length, making sure that there are that many bytes left.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the length.
+   *
+   * @throws IllegalArgumentException
+   *   If the length is larger than the rest of the buffer.
+   */
+  private static int readLength(ByteBuffer buf) {
+    int len = readVarint(buf);
+    if ((len < 0) || (len > buf.remaining())) {
+      throw new IllegalArgumentException("Length " + Integer.toUnsignedString(len)
+          + " is past the end of the data");
+    } // if
+    return len;
+  } // readLength(ByteBuffer)
+
+  /**
+   * Read a length-prefixed array of bytes.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the bytes.
+   */
+  private static byte[] readBytes(ByteBuffer buf) {
+    byte[] result = new byte[readLength(buf)];
+    buf.get(result);
+    return result;
+  } // readBytes(ByteBuffer)
+
+  /**
+   * Read a name.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the dictionary entry for the name.
+   */
+  private static UserDictionary.Entry readName(ByteBuffer buf) {
+    int len = readLength(buf);
+    String name;
+    if (buf.hasArray()) {
+      name = new String(buf.array(), buf.arrayOffset() + buf.position(), len,
+          StandardCharsets.UTF_8);
+      buf.position(buf.position() + len);
+    } else {
+      byte[] bytes = new byte[len];
+      buf.get(bytes);
+      name = new String(bytes, StandardCharsets.UTF_8);
+    } // if/else
+    return UserDictionary.intern(name);
+  } // readName(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write an unsigned variable-length int.
+   *
+   * @param buf
+   *   The buffer.
+   * @param value
+   *   The value, treated as unsigned.
+   */
+  public static void writeVarint(ByteBuffer buf, int value) {
+    int rest = value;
+    while ((rest & ~0x7F) != 0) {
+      buf.put((byte) ((rest & 0x7F) | 0x80));
+      rest >>>= 7;
+    } // while
+    buf.put((byte) rest);
+  } // writeVarint(ByteBuffer, int)
+
+  /**
+   * Read an unsigned variable-length int.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the value.
+   *
+   * @throws IllegalArgumentException
+   *   If the value takes too many bytes.
+   */
+  public static int readVarint(ByteBuffer buf) {
+    int result = 0;
+    for (int shift = 0; shift < MAX_VARINT_BYTES * 7; shift += 7) {
+      byte b = buf.get();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return result;
+      } // if
+    } // for
+    throw new IllegalArgumentException("Variable-length int is too long");
+  } // readVarint(ByteBuffer)
+
+  /**
+   * Determine how many bytes writeHash() will take.
+   *
+   * @param hash
+   *   The hash.
+   *
+   * @return the number of bytes.
+   */
+  public static int sizeOf(Hash hash) {
+    return varintSize(hash.length()) + hash.length();
+  } // sizeOf(Hash)
+
+  /**
+   * Write a hash.
+   *
+   * @param buf
+   *   The buffer.
+   * @param hash
+   *   The hash.
+   */
+  public static void writeHash(ByteBuffer buf, Hash hash) {
+    writeVarint(buf, hash.length());
+    buf.put(hash.hashData);
+  } // writeHash(ByteBuffer, Hash)
+
+  /**
+   * Read a hash.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the hash.
+   */
+  public static Hash readHash(ByteBuffer buf) {
+    if (buf.hasArray()) {
+      int len = readLength(buf);
+      Hash result = new Hash(buf.array(), buf.arrayOffset() + buf.position(), len);
+      buf.position(buf.position() + len);
+      return result;
+    } // if
+    byte[] bytes = readBytes(buf);
+    return new Hash(bytes, 0, bytes.length);
+  } // readHash(ByteBuffer)
+
+  /**
+   * Determine how many bytes writeTransaction() will take.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return the number of bytes.
+   */
+  public static int sizeOf(Transaction t) {
+    int src = t.source().utf8.length;
+    int tgt = t.target().utf8.length;
+    return varintSize(src) + src + varintSize(tgt) + tgt + varintSize(zigzag(t.getAmount()));
+  } // sizeOf(Transaction)
+
+  /**
+   * Write a transaction.
+   *
+   * @param buf
+   *   The buffer.
+   * @param t
+   *   The transaction.
+   */
+  public static void writeTransaction(ByteBuffer buf, Transaction t) {
+    writeVarint(buf, t.source().utf8.length);
+    buf.put(t.source().utf8);
+    writeVarint(buf, t.target().utf8.length);
+    buf.put(t.target().utf8);
+    writeVarint(buf, zigzag(t.getAmount()));
+  } // writeTransaction(ByteBuffer, Transaction)
+
+  /**
+   * Read a transaction.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the transaction.
+   */
+  public static Transaction readTransaction(ByteBuffer buf) {
+    UserDictionary.Entry source = readName(buf);
+    UserDictionary.Entry target = readName(buf);
+    return new Transaction(source, target, unzigzag(readVarint(buf)));
+  } // readTransaction(ByteBuffer)
+
+  /**
+   * Determine how many bytes writeBlock() will take.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the number of bytes.
+   */
+  public static int sizeOf(Block blk) {
+    int transactions = 0;
+    if (blk.isBatch()) {
+      transactions = varintSize(blk.getTransactionCount());
+      for (Transaction t : blk.getTransactions()) {
+        transactions += sizeOf(t);
+      } // for
+    } else {
+      transactions = sizeOf(blk.getTransaction());
+    } // if/else
+    return 1 + varintSize(blk.getVersion()) + varintSize(zigzag(blk.getNum()))
+        + transactions + sizeOf(blk.getPrevHash()) + Long.BYTES + sizeOf(blk.getHash());
+  } // sizeOf(Block)
+
+  /**
+   * Write a block.
+   *
+   * @param buf
+   *   The buffer.
+   * @param blk
+   *   The block.
+   */
+  public static void writeBlock(ByteBuffer buf, Block blk) {
+    buf.put(FORMAT);
+    writeVarint(buf, blk.getVersion());
+    writeVarint(buf, zigzag(blk.getNum()));
+    if (blk.isBatch()) {
+      writeVarint(buf, blk.getTransactionCount());
+      for (Transaction t : blk.getTransactions()) {
+        writeTransaction(buf, t);
+      } // for
+    } else {
+      writeTransaction(buf, blk.getTransaction());
+    } // if/else
+    writeHash(buf, blk.getPrevHash());
+    buf.putLong(blk.getNonce());
+    writeHash(buf, blk.getHash());
+  } // writeBlock(ByteBuffer, Block)
+
+  /**
+   * Read a block. The hash is taken as written, so the block should be
+   * verified (e.g., by appending it to a chain) before it is trusted.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the block.
+   *
+   * @throws IllegalArgumentException
+   *   If the data is not a block in a format we know.
+   */
+  public static Block readBlock(ByteBuffer buf) {
+    byte format = buf.get();
+    if (format != FORMAT) {
+      throw new IllegalArgumentException("Unknown block format " + format);
+    } // if
+    int version = readVarint(buf);
+    if (version == Block.BATCH) {
+      int num = unzigzag(readVarint(buf));
+      // Every transaction takes at least three bytes.
+      int count = readVarint(buf);
+      if ((count <= 0) || (count > buf.remaining() / 3)) {
+        throw new IllegalArgumentException("Bad transaction count "
+            + Integer.toUnsignedString(count));
+      } // if
+      List<Transaction> batch = new ArrayList<Transaction>(count);
+      for (int i = 0; i < count; i++) {
+        batch.add(readTransaction(buf));
+      } // for
+      Hash prevHash = readHash(buf);
+      long nonce = buf.getLong();
+      return new Block(num, batch, prevHash, nonce, readHash(buf));
+    } // if
+    Block.checkVersion(version);
+    int num = unzigzag(readVarint(buf));
+    Transaction t = readTransaction(buf);
+    Hash prevHash = readHash(buf);
+    long nonce = buf.getLong();
+    Hash hash = readHash(buf);
+    return new Block(num, t, prevHash, nonce, hash, version);
+  } // readBlock(ByteBuffer)
+} // class BlockCodec
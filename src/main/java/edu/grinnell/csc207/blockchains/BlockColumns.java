@@ -0,0 +1,199 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * Column-oriented storage for the blocks of a chain. Rather than one
+ * object per block (plus its transaction, strings, and hashes), we keep
+ * each field of a run of blocks in an array, refer to users by their
+ * shared entries in the UserDictionary, and pack the hashes into one
+ * array of bytes. Blocks are rebuilt from the columns when asked for.
+ * The columns hold the first transaction of each block; the rest of a
+ * batch, which is rare, is kept as it is.
+ *
+ * The blocks are stored in fixed-size chunks. A chunk never changes a
+ * slot once it has been written, so that readers may use a chunk while
+ * the writer adds to it; to replace a removed block, the writer copies
+ * the chunk instead. Only one thread may add blocks at a time.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class BlockColumns {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks in each chunk. */
+  static final int CHUNK_SIZE = 64;
+
+  /** The number of bytes in the hash of a block. */
+  static final int HASH_BYTES = 32;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create new, empty storage.
+   */
+  BlockColumns() {
+  } // BlockColumns()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Store a block after the block in another node.
+   *
+   * @param prev
+   *   The node of the previous block (or null if this is the first).
+   * @param pos
+   *   The position of the new block.
+   * @param blk
+   *   The block.
+   *
+   * @return a node that refers to the stored block.
+   *
+   * @throws IllegalArgumentException
+   *   If the block's hash is not the usual size.
+   */
+  Node add(Node prev, int pos, Block blk) {
+    Hash hash = blk.getHash();
+    if (hash.length() != HASH_BYTES) {
+      throw new IllegalArgumentException("Cannot store a hash of " + hash.length() + " bytes");
+    } // if
+    Chunk chunk = (prev == null) ? null : prev.chunk;
+    if ((chunk == null) || (pos - chunk.first == CHUNK_SIZE)) {
+      chunk = new Chunk(pos, blk.getPrevHash().hashData);
+    } else if (pos - chunk.first < chunk.count) {
+      // A reader may still see the block that used to be in this slot.
+      chunk = chunk.copy(pos - chunk.first);
+    } // if/else
+    chunk.put(blk);
+    return new Node(prev, null, chunk, pos);
+  } // add(Node, int, Block)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The columns for a run of consecutive blocks.
+   */
+  static class Chunk {
+    /** The position of the first block in the chunk. */
+    final int first;
+
+    /** The hash of the block before the first block. */
+    final byte[] lead;
+
+    /** The number of each block. */
+    final int[] nums = new int[CHUNK_SIZE];
+
+    /** The source of each transaction. */
+    final UserDictionary.Entry[] sources = new UserDictionary.Entry[CHUNK_SIZE];
+
+    /** The target of each transaction. */
+    final UserDictionary.Entry[] targets = new UserDictionary.Entry[CHUNK_SIZE];
+
+    /** The amount of each transaction. */
+    final int[] amounts = new int[CHUNK_SIZE];
+
+    /** The transactions of each batch block (null for other blocks). */
+    final Transaction[][] batches = new Transaction[CHUNK_SIZE][];
+
+    /** The header format of each block. */
+    final byte[] versions = new byte[CHUNK_SIZE];
+
+    /** The nonce of each block. */
+    final long[] nonces = new long[CHUNK_SIZE];
+
+    /** The hash of each block, one after another. */
+    final byte[] hashes = new byte[CHUNK_SIZE * HASH_BYTES];
+
+    /** The number of slots ever written. */
+    int count;
+
+    /**
+     * Create a new, empty chunk.
+     *
+     * @param firstPos
+     *   The position of the first block in the chunk.
+     * @param leadHash
+     *   The hash of the block before that one. Not copied.
+     */
+    Chunk(int firstPos, byte[] leadHash) {
+      this.first = firstPos;
+      this.lead = leadHash;
+      this.count = 0;
+    } // Chunk(int, byte[])
+
+    /**
+     * Copy the first few slots of this chunk into a new chunk.
+     *
+     * @param slots
+     *   The number of slots to copy.
+     *
+     * @return the new chunk.
+     */
+    Chunk copy(int slots) {
+      Chunk result = new Chunk(this.first, this.lead);
+      System.arraycopy(this.nums, 0, result.nums, 0, slots);
+      System.arraycopy(this.sources, 0, result.sources, 0, slots);
+      System.arraycopy(this.targets, 0, result.targets, 0, slots);
+      System.arraycopy(this.amounts, 0, result.amounts, 0, slots);
+      System.arraycopy(this.batches, 0, result.batches, 0, slots);
+      System.arraycopy(this.versions, 0, result.versions, 0, slots);
+      System.arraycopy(this.nonces, 0, result.nonces, 0, slots);
+      System.arraycopy(this.hashes, 0, result.hashes, 0, slots * HASH_BYTES);
+      result.count = slots;
+      return result;
+    } // copy(int)
+
+    /**
+     * Write a block into the next slot.
+     *
+     * @param blk
+     *   The block.
+     */
+    void put(Block blk) {
+      int slot = this.count++;
+      this.nums[slot] = blk.getNum();
+      this.sources[slot] = blk.getTransaction().source();
+      this.targets[slot] = blk.getTransaction().target();
+      this.amounts[slot] = blk.getTransaction().getAmount();
+      if (blk.isBatch()) {
+        this.batches[slot] = blk.getTransactions().toArray(new Transaction[0]);
+      } // if
+      this.versions[slot] = (byte) blk.getVersion();
+      this.nonces[slot] = blk.getNonce();
+      System.arraycopy(blk.getHash().hashData, 0, this.hashes, slot * HASH_BYTES, HASH_BYTES);
+    } // put(Block)
+
+    /**
+     * Rebuild the block at a position.
+     *
+     * @param pos
+     *   The position of the block, which must be in this chunk.
+     *
+     * @return a new copy of the block.
+     */
+    Block block(int pos) {
+      int slot = pos - this.first;
+      Hash prevHash = (slot == 0)
+          ? new Hash(this.lead)
+          : new Hash(this.hashes, (slot - 1) * HASH_BYTES, HASH_BYTES);
+      Hash hash = new Hash(this.hashes, slot * HASH_BYTES, HASH_BYTES);
+      if (this.batches[slot] != null) {
+        return new Block(this.nums[slot], Arrays.asList(this.batches[slot]), prevHash,
+            this.nonces[slot], hash);
+      } // if
+      Transaction t = new Transaction(this.sources[slot], this.targets[slot],
+          this.amounts[slot]);
+      return new Block(this.nums[slot], t, prevHash, this.nonces[slot], hash,
+          this.versions[slot]);
+    } // block(int)
+  } // class Chunk
+} // class BlockColumns
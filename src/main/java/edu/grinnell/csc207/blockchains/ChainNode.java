@@ -0,0 +1,412 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One node of a network that shares a chain. Each node serves its
+ * chain with a ChainRpcServer and gossips with its peers.
+ *
+ * Whenever a node's chain grows, it announces the new size and last
+ * hash to every peer. A peer whose chain is shorter, and which does not
+ * have that block, fetches the blocks it lacks from the announcer,
+ * adds them to its own chain (which verifies them), and announces its
+ * new tail in turn, so blocks spread across the network.
+ *
+ * A node syncs on one thread, one announcement at a time, and fetches
+ * only the blocks past the end of its chain. Announcements of blocks
+ * that it has, or is already fetching, are dropped. So each node
+ * downloads and verifies each block once, however many peers announce
+ * it, unless the chain forks.
+ *
+ * When the announcer's chain has forked from ours, we fetch earlier
+ * blocks until we reach one that we have and hand the branch to
+ * BlockChain.submit, which switches to it if it is longer. We go back
+ * at most BlockChain.MAX_FORK_DEPTH blocks, since submit drops deeper
+ * forks anyway.
+ *
+ * Peers are connected both ways: announcing to a peer tells it where
+ * we serve our chain, and it connects back when it first hears from us.
+ * A peer that takes more than TIMEOUT milliseconds to send blocks is
+ * dropped, so that it cannot hold up syncing with the others.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ChainNode implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The longest we wait for a peer to send blocks, in milliseconds. */
+  static final long TIMEOUT = 5_000;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain. */
+  private final BlockChain chain;
+
+  /** The server for our chain. */
+  private final ChainRpcServer server;
+
+  /** Our peers, by "host:port". */
+  private final ConcurrentHashMap<String, ChainRpcClient> peers;
+
+  /** The tails that we have been told about and have not yet fetched. */
+  private final Set<Hash> wanted;
+
+  /** The thread that syncs with peers. */
+  private final ExecutorService syncer;
+
+  /** The number of blocks we have downloaded. */
+  private final AtomicLong downloaded;
+
+  /** The number of blocks from peers that we have added to our chain. */
+  private final AtomicLong added;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Start a node for a chain. Every node of a network should start
+   * with the same genesis block.
+   *
+   * @param shared
+   *   The chain.
+   * @param port
+   *   The port to serve it on, or 0 for any free port.
+   *
+   * @throws IOException
+   *   If we cannot listen on the port.
+   */
+  public ChainNode(BlockChain shared, int port) throws IOException {
+    this.chain = shared;
+    this.peers = new ConcurrentHashMap<String, ChainRpcClient>();
+    this.wanted = ConcurrentHashMap.newKeySet();
+    this.downloaded = new AtomicLong();
+    this.added = new AtomicLong();
+    this.syncer = Executors.newSingleThreadExecutor((task) -> {
+      Thread thread = new Thread(task, "chain-node-sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = new ChainRpcServer(shared, port);
+    this.server.setAnnouncementHandler(this::announced);
+    this.server.start();
+  } // ChainNode(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Hear about a peer's chain. Runs on the server's selector thread,
+   * so it only decides whether there is anything to do and leaves
+   * connecting and syncing to the syncer.
+   *
+   * @param host
+   *   The peer's host.
+   * @param port
+   *   The port on which the peer serves its chain.
+   * @param size
+   *   The size of the peer's chain.
+   * @param tail
+   *   The hash of the last block of the peer's chain.
+   */
+  void announced(String host, int port, int size, Hash tail) {
+    boolean known = this.peers.containsKey(host + ":" + port);
+    boolean behind = (size > this.chain.getSize()) && (this.chain.findByHash(tail) == null)
+        && this.wanted.add(tail);
+    if (known && !behind) {
+      return;
+    } // if
+    this.syncer.execute(() -> {
+      try {
+        ChainRpcClient peer = peer(host, port);
+        if (behind) {
+          sync(peer, size, tail);
+        } // if
+      } catch (IOException | RuntimeException e) {
+        // We could not reach the peer, or it sent something we could
+        // not use. Someone will announce the blocks again.
+      } finally {
+        if (behind) {
+          this.wanted.remove(tail);
+        } // if
+      } // try/finally
+    });
+  } // announced(String, int, int, Hash)
+
+  /**
+   * Get the client for a peer, connecting if we have not yet.
+   *
+   * @param host
+   *   The peer's host.
+   * @param port
+   *   The port on which the peer serves its chain.
+   *
+   * @return the client.
+   *
+   * @throws IOException
+   *   If we cannot connect.
+   */
+  ChainRpcClient peer(String host, int port) throws IOException {
+    String key = host + ":" + port;
+    ChainRpcClient result = this.peers.get(key);
+    if (result == null) {
+      ChainRpcClient fresh = new ChainRpcClient(host, port);
+      result = this.peers.putIfAbsent(key, fresh);
+      if (result == null) {
+        result = fresh;
+        // Tell the new peer where we are.
+        fresh.announce(getPort(), this.chain.getSize(), this.chain.getHash());
+      } else {
+        fresh.close();
+      } // if/else
+    } // if
+    return result;
+  } // peer(String, int)
+
+  /**
+   * Bring our chain up to a peer's.
+   *
+   * @param peer
+   *   The peer.
+   * @param size
+   *   The size of the peer's chain.
+   * @param tail
+   *   The hash of the last block of the peer's chain.
+   */
+  void sync(ChainRpcClient peer, int size, Hash tail) {
+    if ((size <= this.chain.getSize()) || (this.chain.findByHash(tail) != null)) {
+      // We caught up while the request waited.
+      return;
+    } // if
+    int from = this.chain.getSize();
+    List<Block> blocks = fetch(peer, from, size);
+    if (blocks.isEmpty()) {
+      return;
+    } // if
+    if (blocks.get(0).getPrevHash().equals(this.chain.getHash())) {
+      try {
+        this.chain.appendAll(blocks);
+        this.added.addAndGet(blocks.size());
+        announce();
+        return;
+      } catch (IllegalArgumentException e) {
+        // Our chain changed while we fetched, or the peer sent a bad
+        // block. Either way, submit() sorts it out, block by block.
+      } // try/catch
+    } else {
+      // A fork: go back until the peer's blocks join ours, but no
+      // further than submit() keeps forks.
+      int floor = Math.max(0, this.chain.getSize() - BlockChain.MAX_FORK_DEPTH);
+      int step = blocks.size();
+      while ((from > floor) && (this.chain.findByHash(blocks.get(0).getPrevHash()) == null)) {
+        int back = Math.max(floor, from - step);
+        List<Block> earlier = fetch(peer, back, from);
+        if ((earlier.size() != from - back)
+            || !earlier.get(earlier.size() - 1).getHash().equals(blocks.get(0).getPrevHash())) {
+          // The peer's chain changed while we fetched, so its blocks do
+          // not make one branch. Someone will announce it again.
+          return;
+        } // if
+        earlier.addAll(blocks);
+        blocks = earlier;
+        from = back;
+        step *= 2;
+      } // while
+      if ((this.chain.findByHash(blocks.get(0).getHash()) == null)
+          && (this.chain.findByHash(blocks.get(0).getPrevHash()) == null)) {
+        // The fork is too deep for submit() to keep.
+        return;
+      } // if
+    } // if/else
+    List<Block> offered = new ArrayList<Block>();
+    boolean changed = false;
+    for (Block blk : blocks) {
+      if (this.chain.findByHash(blk.getHash()) == null) {
+        try {
+          changed |= this.chain.submit(blk);
+        } catch (IllegalArgumentException e) {
+          // A bad block, so the peer's blocks after it are no good.
+          break;
+        } // try/catch
+        offered.add(blk);
+      } // if
+    } // for
+    // Blocks on the side, or dropped, are not added until (unless) their
+    // branch becomes the chain.
+    for (Block blk : offered) {
+      if (this.chain.findByHash(blk.getHash()) != null) {
+        this.added.incrementAndGet();
+      } // if
+    } // for
+    if (changed) {
+      announce();
+    } // if
+  } // sync(ChainRpcClient, int, Hash)
+
+  /**
+   * Fetch a run of blocks from a peer.
+   *
+   * @param peer
+   *   The peer.
+   * @param from
+   *   The position of the first block.
+   * @param to
+   *   The position after the last block.
+   *
+   * @return the blocks, which may stop early if the peer's chain has
+   *   changed.
+   *
+   * @throws CompletionException
+   *   If the peer rejects the request, the connection fails, or the
+   *   peer takes more than TIMEOUT milliseconds, in which case we drop
+   *   it.
+   */
+  List<Block> fetch(ChainRpcClient peer, int from, int to) {
+    List<Block> result = new ArrayList<Block>(to - from);
+    while (from + result.size() < to) {
+      List<Block> some;
+      try {
+        some = peer.blocks(from + result.size(), to - from - result.size())
+            .orTimeout(TIMEOUT, TimeUnit.MILLISECONDS).join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof TimeoutException) {
+          drop(peer);
+        } // if
+        throw e;
+      } // try/catch
+      if (some.isEmpty()) {
+        break;
+      } // if
+      this.downloaded.addAndGet(some.size());
+      result.addAll(some);
+    } // while
+    return result;
+  } // fetch(ChainRpcClient, int, int)
+
+  /**
+   * Forget a peer and close our connection to it. If it announces
+   * again, we connect again.
+   *
+   * @param peer
+   *   The peer.
+   */
+  void drop(ChainRpcClient peer) {
+    this.peers.values().remove(peer);
+    try {
+      peer.close();
+    } catch (IOException e) {
+      // It is gone either way.
+    } // try/catch
+  } // drop(ChainRpcClient)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a peer and tell it about our chain.
+   *
+   * @param host
+   *   The peer's host.
+   * @param port
+   *   The port on which the peer serves its chain.
+   *
+   * @throws IOException
+   *   If we cannot connect to the peer.
+   */
+  public void connect(String host, int port) throws IOException {
+    peer(host, port);
+  } // connect(String, int)
+
+  /**
+   * Add a block of our own to the end of our chain and announce it.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @throws IllegalArgumentException
+   *   If BlockChain.append rejects it.
+   */
+  public void append(Block blk) {
+    this.chain.append(blk);
+    announce();
+  } // append(Block)
+
+  /**
+   * Tell every peer about our chain as it is now.
+   */
+  public void announce() {
+    ChainSnapshot snap = this.chain.snapshot();
+    for (ChainRpcClient peer : this.peers.values()) {
+      peer.announce(getPort(), snap.getSize(), snap.getHash());
+    } // for
+  } // announce()
+
+  /**
+   * Get the chain.
+   *
+   * @return the chain.
+   */
+  public BlockChain getChain() {
+    return this.chain;
+  } // getChain()
+
+  /**
+   * Get the port on which we serve our chain.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.server.getPort();
+  } // getPort()
+
+  /**
+   * Determine how many blocks we have downloaded from peers.
+   *
+   * @return the number of blocks.
+   */
+  public long getDownloaded() {
+    return this.downloaded.get();
+  } // getDownloaded()
+
+  /**
+   * Determine how many blocks from peers we have verified and added to
+   * our chain. Blocks of a fork count if the chain switches to it when
+   * we fetch them; blocks that we only keep on the side do not.
+   *
+   * @return the number of blocks.
+   */
+  public long getAdded() {
+    return this.added.get();
+  } // getAdded()
+
+  /**
+   * Stop serving and close every connection to peers.
+   *
+   * @throws IOException
+   *   If a connection cannot be closed.
+   */
+  public void close() throws IOException {
+    this.syncer.shutdownNow();
+    this.server.stop();
+    for (ChainRpcClient peer : this.peers.values()) {
+      peer.close();
+    } // for
+  } // close()
+} // class ChainNode
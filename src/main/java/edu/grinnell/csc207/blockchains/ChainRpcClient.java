@@ -0,0 +1,307 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client for a ChainRpcServer. Every request returns at once with a
+ * future for its result, so any number of requests may be in flight on
+ * the one connection. A thread of the client's own reads the responses
+ * and completes the futures, matching them to requests by id.
+ *
+ * Requests that the server rejects complete exceptionally with an
+ * IllegalArgumentException that gives the server's reason. If the
+ * connection fails, every request in flight completes exceptionally
+ * with an IOException.
+ *
+ * Any thread may send requests, and the server handles those of one
+ * connection in the order they are sent (except for mine; see
+ * ChainRpcServer).
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ChainRpcClient implements AutoCloseable {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The connection to the server. */
+  private final SocketChannel channel;
+
+  /** The requests in flight, by id. */
+  private final ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>> pending;
+
+  /** The id of the next request. */
+  private final AtomicInteger nextId;
+
+  /** The thread that reads responses. */
+  private final Thread reader;
+
+  /** Why the connection failed (null while it works). */
+  private volatile IOException failure;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Connect to a server.
+   *
+   * @param host
+   *   The server's host.
+   * @param port
+   *   The server's port.
+   *
+   * @throws IOException
+   *   If we cannot connect.
+   */
+  public ChainRpcClient(String host, int port) throws IOException {
+    this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+    this.channel.socket().setTcpNoDelay(true);
+    this.pending = new ConcurrentHashMap<Integer, CompletableFuture<ByteBuffer>>();
+    this.nextId = new AtomicInteger();
+    this.reader = new Thread(this::readResponses, "chain-rpc-client");
+    this.reader.setDaemon(true);
+    this.reader.start();
+  } // ChainRpcClient(String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Send a request.
+   *
+   * @param req
+   *   The request, as returned by ChainRpcServer.frame() and filled in.
+   *
+   * @return a future for the result of the response, positioned after
+   *   the status.
+   */
+  CompletableFuture<ByteBuffer> send(ByteBuffer req) {
+    CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+    int id = req.getInt(Integer.BYTES);
+    this.pending.put(id, result);
+    req.flip();
+    try {
+      synchronized (this.channel) {
+        if (this.failure != null) {
+          throw this.failure;
+        } // if
+        while (req.hasRemaining()) {
+          this.channel.write(req);
+        } // while
+      } // synchronized
+    } catch (IOException e) {
+      fail(e);
+    } // try/catch
+    return result;
+  } // send(ByteBuffer)
+
+  /**
+   * Read responses until the connection closes.
+   */
+  void readResponses() {
+    ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+    try {
+      while (true) {
+        header.clear();
+        fill(header);
+        int len = header.getInt(0);
+        if ((len < Integer.BYTES + 1) || (len > ChainRpcServer.MAX_FRAME)) {
+          throw new IOException("Bad frame length " + len);
+        } // if
+        ByteBuffer body = ByteBuffer.allocate(len);
+        fill(body);
+        body.flip();
+        CompletableFuture<ByteBuffer> result = this.pending.remove(body.getInt());
+        if (result == null) {
+          continue;
+        } // if
+        if (body.get() == ChainRpcServer.OK) {
+          result.complete(body);
+        } else {
+          result.completeExceptionally(
+              new IllegalArgumentException(ChainRpcServer.readName(body)));
+        } // if/else
+      } // while
+    } catch (IOException e) {
+      fail(e);
+    } // try/catch
+  } // readResponses()
+
+  /**
+   * Fill a buffer from the connection.
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @throws IOException
+   *   If the connection closes first.
+   */
+  void fill(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (this.channel.read(buf) < 0) {
+        throw new EOFException("Connection closed");
+      } // if
+    } // while
+  } // fill(ByteBuffer)
+
+  /**
+   * Note that the connection failed and fail everything in flight.
+   *
+   * @param e
+   *   Why.
+   */
+  void fail(IOException e) {
+    if (this.failure == null) {
+      this.failure = e;
+    } // if
+    for (Integer id : this.pending.keySet()) {
+      CompletableFuture<ByteBuffer> result = this.pending.remove(id);
+      if (result != null) {
+        result.completeExceptionally(this.failure);
+      } // if
+    } // for
+  } // fail(IOException)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Append blocks to the end of the server's chain, all or nothing.
+   *
+   * @param blocks
+   *   The blocks, in order.
+   *
+   * @return a future for the size of the chain after them.
+   */
+  public CompletableFuture<Integer> append(List<Block> blocks) {
+    int size = BlockCodec.varintSize(blocks.size());
+    for (Block blk : blocks) {
+      size += BlockCodec.sizeOf(blk);
+    } // for
+    ByteBuffer req = ChainRpcServer.frame(this.nextId.getAndIncrement(),
+        ChainRpcServer.APPEND, size);
+    BlockCodec.writeVarint(req, blocks.size());
+    for (Block blk : blocks) {
+      BlockCodec.writeBlock(req, blk);
+    } // for
+    return send(req).thenApply(BlockCodec::readVarint);
+  } // append(List)
+
+  /**
+   * Append a block to the end of the server's chain.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return a future for the size of the chain after it.
+   */
+  public CompletableFuture<Integer> append(Block blk) {
+    return append(List.of(blk));
+  } // append(Block)
+
+  /**
+   * Find a user's balance.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return a future for the balance.
+   */
+  public CompletableFuture<Long> balance(String user) {
+    ByteBuffer req = ChainRpcServer.frame(this.nextId.getAndIncrement(),
+        ChainRpcServer.BALANCE, ChainRpcServer.sizeOf(user));
+    ChainRpcServer.writeName(req, user);
+    return send(req).thenApply(ByteBuffer::getLong);
+  } // balance(String)
+
+  /**
+   * Have the server mine a block for the end of its chain.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return a future for the block.
+   */
+  public CompletableFuture<Block> mine(Transaction t) {
+    ByteBuffer req = ChainRpcServer.frame(this.nextId.getAndIncrement(),
+        ChainRpcServer.MINE, BlockCodec.sizeOf(t));
+    BlockCodec.writeTransaction(req, t);
+    return send(req).thenApply(BlockCodec::readBlock);
+  } // mine(Transaction)
+
+  /**
+   * Tell the server about our chain.
+   *
+   * @param port
+   *   The port on which we serve our chain.
+   * @param size
+   *   The size of our chain.
+   * @param tail
+   *   The hash of the last block of our chain.
+   *
+   * @return a future that completes when the server has heard.
+   */
+  public CompletableFuture<Void> announce(int port, int size, Hash tail) {
+    ByteBuffer req = ChainRpcServer.frame(this.nextId.getAndIncrement(),
+        ChainRpcServer.ANNOUNCE, BlockCodec.varintSize(port) + BlockCodec.varintSize(size)
+        + BlockCodec.sizeOf(tail));
+    BlockCodec.writeVarint(req, port);
+    BlockCodec.writeVarint(req, size);
+    BlockCodec.writeHash(req, tail);
+    return send(req).thenApply((result) -> null);
+  } // announce(int, int, Hash)
+
+  /**
+   * Get some of the server's blocks.
+   *
+   * @param from
+   *   The position of the first block we want.
+   * @param count
+   *   The number of blocks we want. We get fewer if the chain ends
+   *   first or if there are more than ChainRpcServer.MAX_BLOCKS.
+   *
+   * @return a future for the blocks, in order.
+   */
+  public CompletableFuture<List<Block>> blocks(int from, int count) {
+    ByteBuffer req = ChainRpcServer.frame(this.nextId.getAndIncrement(),
+        ChainRpcServer.BLOCKS, BlockCodec.varintSize(from) + BlockCodec.varintSize(count));
+    BlockCodec.writeVarint(req, from);
+    BlockCodec.writeVarint(req, count);
+    return send(req).thenApply((result) -> {
+      int n = BlockCodec.readVarint(result);
+      List<Block> blocks = new ArrayList<Block>(n);
+      for (int i = 0; i < n; i++) {
+        blocks.add(BlockCodec.readBlock(result));
+      } // for
+      return blocks;
+    });
+  } // blocks(int, int)
+
+  /**
+   * Close the connection. Requests still in flight fail.
+   *
+   * @throws IOException
+   *   If the connection cannot be closed.
+   */
+  public void close() throws IOException {
+    this.channel.close();
+    try {
+      this.reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+  } // close()
+} // class ChainRpcClient
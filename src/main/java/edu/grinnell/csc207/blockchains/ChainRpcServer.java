@@ -0,0 +1,764 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serve a chain over a compact binary protocol, for clients that make
+ * many requests at high rates. One thread runs a non-blocking selector
+ * loop over every connection.
+ *
+ * Every message is a frame: its length as four bytes, then that many
+ * bytes. Clients may send any number of requests without waiting for
+ * responses, and each response carries the id of its request.
+ *
+ * <pre>
+ *   request  = id:int32 op:byte args
+ *   response = id:int32 status:byte result
+ *
+ *   op APPEND  args = count:varint block*   result = size:varint
+ *   op BALANCE args = user:name             result = balance:int64
+ *   op MINE    args = transaction           result = block
+ *   op ANNOUNCE args = port:varint size:varint tail:hash
+ *                                           result = nothing
+ *   op BLOCKS  args = from:varint count:varint
+ *                                           result = count:varint block*
+ *
+ *   status OK    the result follows
+ *   status ERROR result = message:name
+ * </pre>
+ *
+ * Blocks, transactions, and names are in the BlockCodec form. The
+ * blocks of one APPEND go to the chain together, all or nothing (as
+ * with BlockChain.appendAll).
+ *
+ * We answer the requests of one connection in the order they arrive,
+ * so a client may send blocks that build on each other without
+ * waiting. APPEND verifies blocks, which takes a while, so it runs on a
+ * thread of its own, and the connection's later requests wait until it
+ * is done; other connections go on meanwhile. MINE can take much
+ * longer, so it runs on one of MINERS threads and its response may
+ * come after those of later requests. If MINE_QUEUE requests are
+ * already waiting for a miner, MINE fails at once.
+ *
+ * A client that sends requests faster than it reads the responses is
+ * slowed down: once MAX_QUEUED bytes of responses wait for it, we stop
+ * reading its requests until it has read some.
+ *
+ * ANNOUNCE and BLOCKS let servers share a chain (see ChainNode). A
+ * peer announces the size and last hash of its chain, and the port on
+ * which it serves it, and we pass that on to our announcement handler,
+ * if any. BLOCKS returns up to MAX_BLOCKS blocks of our chain, from a
+ * position onward.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ChainRpcServer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** Append blocks. */
+  public static final byte APPEND = 1;
+
+  /** Find a balance. */
+  public static final byte BALANCE = 2;
+
+  /** Mine a block. */
+  public static final byte MINE = 3;
+
+  /** Tell us about a peer's chain. */
+  public static final byte ANNOUNCE = 4;
+
+  /** Get some blocks. */
+  public static final byte BLOCKS = 5;
+
+  /** The request worked. */
+  public static final byte OK = 0;
+
+  /** The request failed. */
+  public static final byte ERROR = 1;
+
+  /** The largest frame we accept. */
+  public static final int MAX_FRAME = 1 << 24;
+
+  /** The most blocks that one BLOCKS request returns. */
+  public static final int MAX_BLOCKS = 1024;
+
+  /** The size of the buffer we first read each connection into. */
+  static final int READ_SIZE = 1 << 16;
+
+  /** The number of bytes of responses that may wait for a client. */
+  static final int MAX_QUEUED = 1 << 20;
+
+  /** The number of threads that mine. */
+  static final int MINERS = Runtime.getRuntime().availableProcessors();
+
+  /** The number of MINE requests that may wait for a miner. */
+  static final int MINE_QUEUE = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain we serve. */
+  private final BlockChain chain;
+
+  /** The channel on which we accept connections. */
+  private final ServerSocketChannel listener;
+
+  /** The selector for every channel. */
+  private final Selector selector;
+
+  /** The threads that mine. */
+  private final ThreadPoolExecutor miners;
+
+  /** The thread that appends. */
+  private final ExecutorService appender;
+
+  /** Connections that other threads have given responses to send. */
+  private final ConcurrentLinkedQueue<Connection> ready;
+
+  /** The thread that runs the selector loop. */
+  private final Thread loop;
+
+  /** Set when we should stop. */
+  private volatile boolean stopping;
+
+  /** Who hears about announcements (null if no one). */
+  private volatile AnnouncementHandler handler;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a server for a chain. It does not answer requests until it
+   * is started.
+   *
+   * @param served
+   *   The chain to serve.
+   * @param port
+   *   The port to listen on, or 0 for any free port.
+   *
+   * @throws IOException
+   *   If we cannot listen on the port.
+   */
+  public ChainRpcServer(BlockChain served, int port) throws IOException {
+    this.chain = served;
+    this.selector = Selector.open();
+    this.listener = ServerSocketChannel.open();
+    this.listener.bind(new InetSocketAddress(port));
+    this.listener.configureBlocking(false);
+    this.listener.register(this.selector, SelectionKey.OP_ACCEPT);
+    this.miners = new ThreadPoolExecutor(MINERS, MINERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MINE_QUEUE), (task) -> {
+          Thread thread = new Thread(task, "chain-rpc-miner");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.miners.allowCoreThreadTimeOut(true);
+    this.appender = Executors.newSingleThreadExecutor((task) -> {
+      Thread thread = new Thread(task, "chain-rpc-append");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.ready = new ConcurrentLinkedQueue<Connection>();
+    this.loop = new Thread(this::run, "chain-rpc");
+    this.loop.setDaemon(true);
+  } // ChainRpcServer(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine how many bytes writeName() will take.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the number of bytes.
+   */
+  static int sizeOf(String name) {
+    int len = name.getBytes(StandardCharsets.UTF_8).length;
+    return BlockCodec.varintSize(len) + len;
+  } // sizeOf(String)
+
+  /**
+   * Write a name (or message) as its length and UTF-8 bytes.
+   *
+   * @param buf
+   *   The buffer.
+   * @param name
+   *   The name.
+   */
+  static void writeName(ByteBuffer buf, String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    BlockCodec.writeVarint(buf, bytes.length);
+    buf.put(bytes);
+  } // writeName(ByteBuffer, String)
+
+  /**
+   * Read a name (or message) written by writeName().
+   *
+   * @param buf
+   *   The buffer.
+   *
+   * @return the name.
+   *
+   * @throws IllegalArgumentException
+   *   If the length is past the end of the buffer.
+   */
+  static String readName(ByteBuffer buf) {
+    int len = BlockCodec.readVarint(buf);
+    if ((len < 0) || (len > buf.remaining())) {
+      throw new IllegalArgumentException("Name is past the end of the frame");
+    } // if
+    byte[] bytes = new byte[len];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // readName(ByteBuffer)
+
+  /**
+   * Start a frame.
+   *
+   * @param id
+   *   The id of the request or response.
+   * @param code
+   *   The op or status.
+   * @param size
+   *   The number of bytes that will follow the code.
+   *
+   * @return a buffer with the length, id, and code written and room
+   *   for the rest.
+   */
+  static ByteBuffer frame(int id, byte code, int size) {
+    ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + Integer.BYTES + 1 + size);
+    buf.putInt(buf.capacity() - Integer.BYTES);
+    buf.putInt(id);
+    buf.put(code);
+    return buf;
+  } // frame(int, byte, int)
+
+  /**
+   * Build an error response.
+   *
+   * @param id
+   *   The id of the request.
+   * @param message
+   *   What went wrong.
+   *
+   * @return the response, ready to send.
+   */
+  static ByteBuffer error(int id, String message) {
+    String msg = String.valueOf(message);
+    ByteBuffer buf = frame(id, ERROR, sizeOf(msg));
+    writeName(buf, msg);
+    return buf.flip();
+  } // error(int, String)
+
+  /**
+   * Carry out one request.
+   *
+   * @param conn
+   *   The connection it came on.
+   * @param req
+   *   The request, from its id to the end of the frame.
+   *
+   * @return the response, ready to send, or null if it will be sent
+   *   later.
+   */
+  ByteBuffer answer(Connection conn, ByteBuffer req) {
+    int id = req.getInt();
+    try {
+      byte op = req.get();
+      ByteBuffer buf;
+      switch (op) {
+        case APPEND:
+          int count = BlockCodec.readVarint(req);
+          if ((count <= 0) || (count > req.remaining())) {
+            throw new IllegalArgumentException("Bad block count " + count);
+          } // if
+          List<Block> blocks = new ArrayList<Block>(count);
+          for (int i = 0; i < count; i++) {
+            blocks.add(BlockCodec.readBlock(req));
+          } // for
+          end(req);
+          conn.appending = true;
+          this.appender.execute(() -> {
+            ByteBuffer result;
+            try {
+              if (count == 1) {
+                this.chain.append(blocks.get(0));
+              } else {
+                this.chain.appendAll(blocks);
+              } // if/else
+              int size = this.chain.getSize();
+              result = frame(id, OK, BlockCodec.varintSize(size));
+              BlockCodec.writeVarint(result, size);
+              result.flip();
+            } catch (RuntimeException e) {
+              result = error(id, e.getMessage());
+            } // try/catch
+            conn.send(result);
+            conn.appending = false;
+            this.ready.add(conn);
+            this.selector.wakeup();
+          });
+          return null;
+
+        case BALANCE:
+          String user = readName(req);
+          end(req);
+          buf = frame(id, OK, Long.BYTES);
+          buf.putLong(this.chain.snapshot().balance(user));
+          return buf.flip();
+
+        case MINE:
+          Transaction t = BlockCodec.readTransaction(req);
+          end(req);
+          this.miners.execute(() -> {
+            ByteBuffer result;
+            try {
+              Block blk = this.chain.mine(t);
+              result = frame(id, OK, BlockCodec.sizeOf(blk));
+              BlockCodec.writeBlock(result, blk);
+              result.flip();
+            } catch (RuntimeException e) {
+              result = error(id, e.getMessage());
+            } // try/catch
+            conn.send(result);
+            this.ready.add(conn);
+            this.selector.wakeup();
+          });
+          return null;
+
+        case ANNOUNCE:
+          int port = BlockCodec.readVarint(req);
+          int peerSize = BlockCodec.readVarint(req);
+          Hash tail = BlockCodec.readHash(req);
+          end(req);
+          AnnouncementHandler announced = this.handler;
+          if (announced != null) {
+            InetSocketAddress from = (InetSocketAddress) conn.channel.getRemoteAddress();
+            announced.announced(from.getHostString(), port, peerSize, tail);
+          } // if
+          return frame(id, OK, 0).flip();
+
+        case BLOCKS:
+          int first = BlockCodec.readVarint(req);
+          int wanted = BlockCodec.readVarint(req);
+          end(req);
+          ChainSnapshot snap = this.chain.snapshot();
+          int last = (int) Math.min((long) first + Math.min(wanted, MAX_BLOCKS), snap.getSize());
+          List<Block> found = new ArrayList<Block>();
+          int bytes = 0;
+          for (int pos = first; pos < last; pos++) {
+            Block blk = snap.getBlock(pos);
+            found.add(blk);
+            bytes += BlockCodec.sizeOf(blk);
+          } // for
+          buf = frame(id, OK, BlockCodec.varintSize(found.size()) + bytes);
+          BlockCodec.writeVarint(buf, found.size());
+          for (Block blk : found) {
+            BlockCodec.writeBlock(buf, blk);
+          } // for
+          return buf.flip();
+
+        default:
+          throw new IllegalArgumentException("Unknown op " + op);
+      } // switch
+    } catch (BufferUnderflowException e) {
+      return error(id, "Request ends too soon");
+    } catch (RejectedExecutionException e) {
+      // MINE_QUEUE requests already wait for miners, or we are stopping.
+      conn.appending = false;
+      return error(id, "Server is too busy");
+    } catch (IOException e) {
+      return error(id, e.getMessage());
+    } catch (RuntimeException e) {
+      return error(id, e.getMessage());
+    } // try/catch
+  } // answer(Connection, ByteBuffer)
+
+  /**
+   * Make sure that a request has nothing left over.
+   *
+   * @param req
+   *   The request.
+   *
+   * @throws IllegalArgumentException
+   *   If it does.
+   */
+  static void end(ByteBuffer req) {
+    if (req.hasRemaining()) {
+      throw new IllegalArgumentException(req.remaining() + " extra bytes in request");
+    } // if
+  } // end(ByteBuffer)
+
+  /**
+   * Run the selector loop until we are stopped.
+   */
+  void run() {
+    while (!this.stopping) {
+      try {
+        this.selector.select();
+        for (Connection conn = this.ready.poll(); conn != null; conn = this.ready.poll()) {
+          conn.resume();
+        } // for
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          } // if
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          } // if
+          Connection conn = (Connection) key.attachment();
+          if (key.isReadable()) {
+            conn.read();
+          } // if
+          if (key.isValid() && key.isWritable()) {
+            conn.resume();
+          } // if
+        } // while
+      } catch (IOException e) {
+        // Only the selector itself can fail here; there is nothing to do
+        // but stop.
+        this.stopping = true;
+      } // try/catch
+    } // while
+    for (SelectionKey key : this.selector.keys()) {
+      try {
+        key.channel().close();
+      } catch (IOException e) {
+        // We are stopping anyway.
+      } // try/catch
+    } // for
+    try {
+      this.selector.close();
+    } catch (IOException e) {
+      // We are stopping anyway.
+    } // try/catch
+  } // run()
+
+  /**
+   * Accept a waiting connection.
+   *
+   * @throws IOException
+   *   If we cannot.
+   */
+  void accept() throws IOException {
+    SocketChannel channel = this.listener.accept();
+    if (channel == null) {
+      return;
+    } // if
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+    key.attach(new Connection(channel, key));
+  } // accept()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start answering requests.
+   */
+  public void start() {
+    this.loop.start();
+  } // start()
+
+  /**
+   * Stop answering requests and close every connection. Mining under
+   * way is abandoned.
+   */
+  public void stop() {
+    this.stopping = true;
+    this.selector.wakeup();
+    try {
+      this.loop.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try/catch
+    this.miners.shutdownNow();
+    this.appender.shutdownNow();
+  } // stop()
+
+  /**
+   * Say who should hear about announcements. The handler runs on the
+   * selector thread, so it should be quick.
+   *
+   * @param announced
+   *   The handler, or null for no one.
+   */
+  public void setAnnouncementHandler(AnnouncementHandler announced) {
+    this.handler = announced;
+  } // setAnnouncementHandler(AnnouncementHandler)
+
+  /**
+   * Get the port we listen on, which is useful when we asked for any
+   * free port.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.listener.socket().getLocalPort();
+  } // getPort()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * Something that hears about peers' chains.
+   */
+  public interface AnnouncementHandler {
+    /**
+     * Hear that a peer's chain has changed.
+     *
+     * @param host
+     *   The peer's host.
+     * @param port
+     *   The port on which the peer serves its chain.
+     * @param size
+     *   The size of the peer's chain.
+     * @param tail
+     *   The hash of the last block of the peer's chain.
+     */
+    void announced(String host, int port, int size, Hash tail);
+  } // interface AnnouncementHandler
+
+  /**
+   * One client's connection, with the bytes it has sent that we have
+   * not handled and the responses we have not sent.
+   */
+  class Connection {
+    /** The channel. */
+    final SocketChannel channel;
+
+    /** The channel's key. */
+    final SelectionKey key;
+
+    /** What we have read, ready for more. */
+    ByteBuffer in;
+
+    /** The responses to send, in order. Shared with the miners. */
+    final ArrayDeque<ByteBuffer> out;
+
+    /** The number of bytes left to send in out. */
+    long queued;
+
+    /** Set while the appender works on one of our requests. */
+    volatile boolean appending;
+
+    /**
+     * Set up a new connection.
+     *
+     * @param chan
+     *   The channel.
+     * @param selected
+     *   The channel's key.
+     */
+    Connection(SocketChannel chan, SelectionKey selected) {
+      this.channel = chan;
+      this.key = selected;
+      this.in = ByteBuffer.allocate(READ_SIZE);
+      this.out = new ArrayDeque<ByteBuffer>();
+    } // Connection(SocketChannel, SelectionKey)
+
+    /**
+     * Queue a response.
+     *
+     * @param response
+     *   The response, ready to send.
+     */
+    void send(ByteBuffer response) {
+      synchronized (this.out) {
+        this.out.add(response);
+        this.queued += response.remaining();
+      } // synchronized
+    } // send(ByteBuffer)
+
+    /**
+     * Determine whether we should leave the client's requests for now,
+     * because an append of theirs is under way or too many responses
+     * wait for them.
+     *
+     * @return true if we should, false otherwise.
+     */
+    boolean paused() {
+      if (this.appending) {
+        return true;
+      } // if
+      synchronized (this.out) {
+        return this.queued >= MAX_QUEUED;
+      } // synchronized
+    } // paused()
+
+    /**
+     * Read what the client has sent and answer every whole request.
+     */
+    void read() {
+      try {
+        if (this.channel.read(this.in) < 0) {
+          close();
+          return;
+        } // if
+      } catch (IOException e) {
+        close();
+        return;
+      } // try/catch
+      answerAll();
+    } // read()
+
+    /**
+     * Send what we can and, if we are no longer paused, go on with the
+     * requests that we have read but not answered.
+     */
+    void resume() {
+      flush();
+      if (this.key.isValid() && !paused() && hasRequest()) {
+        answerAll();
+      } // if
+    } // resume()
+
+    /**
+     * Determine whether we have read a whole request that we have not
+     * answered.
+     *
+     * @return true if we have, false otherwise.
+     */
+    boolean hasRequest() {
+      return (this.in.position() >= Integer.BYTES)
+          && (Integer.BYTES + this.in.getInt(0) <= this.in.position());
+    } // hasRequest()
+
+    /**
+     * Answer every whole request that we have read, until we pause.
+     * Sending responses may end the pause, so we go on until there are
+     * no more whole requests or we stay paused.
+     */
+    void answerAll() {
+      do {
+        if (!answerSome()) {
+          return;
+        } // if
+        flush();
+      } while (this.key.isValid() && !paused() && hasRequest());
+    } // answerAll()
+
+    /**
+     * Answer whole requests that we have read until we pause, and make
+     * the buffer the right size for what is left.
+     *
+     * @return true if the connection is still open, false otherwise.
+     */
+    boolean answerSome() {
+      this.in.flip();
+      while ((this.in.remaining() >= Integer.BYTES) && !paused()) {
+        int len = this.in.getInt(this.in.position());
+        if ((len < Integer.BYTES + 1) || (len > MAX_FRAME)) {
+          close();
+          return false;
+        } // if
+        if (this.in.remaining() < Integer.BYTES + len) {
+          break;
+        } // if
+        int start = this.in.position() + Integer.BYTES;
+        ByteBuffer req = this.in.slice(start, len);
+        this.in.position(start + len);
+        ByteBuffer response = answer(this, req);
+        if (response != null) {
+          send(response);
+        } // if
+      } // while
+      int need = this.in.remaining();
+      if (need >= Integer.BYTES) {
+        int len = this.in.getInt(this.in.position());
+        if ((len < Integer.BYTES + 1) || (len > MAX_FRAME)) {
+          close();
+          return false;
+        } // if
+        need = Math.max(need, Integer.BYTES + len);
+      } // if
+      boolean shrink = (this.in.capacity() > READ_SIZE) && (need <= READ_SIZE);
+      if ((need > this.in.capacity()) || shrink) {
+        // Make room for a frame larger than the buffer, or give back
+        // the room that a large frame took once it is done.
+        this.in = ByteBuffer.allocate(Math.max(need, READ_SIZE)).put(this.in);
+      } else {
+        this.in.compact();
+      } // if/else
+      return true;
+    } // answerSome()
+
+    /**
+     * Send as many responses as the channel will take, and say what we
+     * want to hear about next: more requests, unless we are paused, and
+     * when the channel will take more if there are responses left.
+     */
+    void flush() {
+      if (!this.key.isValid()) {
+        return;
+      } // if
+      try {
+        synchronized (this.out) {
+          while (!this.out.isEmpty()) {
+            ByteBuffer next = this.out.peek();
+            this.queued -= this.channel.write(next);
+            if (next.hasRemaining()) {
+              break;
+            } // if
+            this.out.poll();
+          } // while
+        } // synchronized
+        int ops = paused() ? 0 : SelectionKey.OP_READ;
+        synchronized (this.out) {
+          if (!this.out.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+          } // if
+        } // synchronized
+        this.key.interestOps(ops);
+      } catch (IOException e) {
+        close();
+      } // try/catch
+    } // flush()
+
+    /**
+     * Drop the connection.
+     */
+    void close() {
+      this.key.cancel();
+      try {
+        this.channel.close();
+      } catch (IOException e) {
+        // It is closed either way.
+      } // try/catch
+    } // close()
+  } // class Connection
+} // class ChainRpcServer
@@ -0,0 +1,488 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serve a chain over HTTP, with JSON bodies, using the server built
+ * into the JDK. The endpoints are
+ *
+ * <pre>
+ *   POST /mine      {"source":..,"target":..,"amount":..} -> the mined block
+ *   POST /append    a block, as /mine returns it           -> {"size":..}
+ *   GET  /balance?user=U                                   -> {"user":..,"balance":..}
+ *   GET  /users                                            -> {"users":[..]}
+ *   GET  /history?user=U[&amp;from=N][&amp;limit=N]
+ *                                   -> {"user":..,"total":..,"blocks":[..]}
+ *   GET  /check                                            -> {"ok":..[,"error":..]}
+ * </pre>
+ *
+ * Blocks are written as ChainTransfer writes them. Problems come back
+ * as {"error":..} with status 400 (a bad request), 404, 405, 409
+ * (a block that does not fit the end of the chain, usually because
+ * another block was appended after it was mined), 413 (a body longer
+ * than MAX_BODY), 500, or 503 (too many blocks being mined).
+ *
+ * Requests run on up to WORKERS threads. Queries read a single
+ * snapshot of the chain, so they never wait for appends and never see
+ * half of one; appends go through BlockChain.append, which lets one
+ * writer in at a time.
+ *
+ * Mining takes a whole processor for as long as it lasts, so /mine
+ * runs on at most MINERS threads, which (on a machine with several)
+ * leaves a processor for other requests, with at most MINE_QUEUE more
+ * waiting. Beyond that, /mine fails at once with 503.
+ *
+ * The JDK's server writes the headers and the body of a response
+ * separately, so unless Nagle's algorithm is off, the body waits for
+ * the client's delayed ACK, about 40 ms a response. Whoever starts the
+ * JVM should turn it off by setting the system property
+ * sun.net.httpserver.nodelay to true before the first server starts
+ * (e.g., with -Dsun.net.httpserver.nodelay=true), as BlockChainUI's
+ * --serve does.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ChainServer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The most blocks that /history returns at once. */
+  static final int MAX_HISTORY = 1000;
+
+  /** The number of connections that may wait to be accepted. */
+  static final int BACKLOG = 256;
+
+  /** The longest request body we read, in bytes. */
+  static final int MAX_BODY = 1 << 20;
+
+  /** The number of threads that handle requests. */
+  static final int WORKERS = 64;
+
+  /** The number of threads that mine, one fewer than the processors. */
+  static final int MINERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+  /** The number of /mine requests that may wait for a miner. */
+  static final int MINE_QUEUE = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain we serve. */
+  private final BlockChain chain;
+
+  /** The server. */
+  private final HttpServer server;
+
+  /** The threads that handle requests. */
+  private final ThreadPoolExecutor workers;
+
+  /** The threads that mine. */
+  private final ThreadPoolExecutor miners;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a server for a chain. It does not answer requests until
+   * it is started.
+   *
+   * @param served
+   *   The chain to serve.
+   * @param port
+   *   The port to listen on, or 0 for any free port.
+   *
+   * @throws IOException
+   *   If we cannot listen on the port.
+   */
+  public ChainServer(BlockChain served, int port) throws IOException {
+    this.chain = served;
+    this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+    this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), (task) -> {
+          Thread thread = new Thread(task, "chain-server");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.workers.allowCoreThreadTimeOut(true);
+    this.miners = new ThreadPoolExecutor(MINERS, MINERS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(MINE_QUEUE), (task) -> {
+          Thread thread = new Thread(task, "chain-server-miner");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.miners.allowCoreThreadTimeOut(true);
+    this.server.setExecutor(this.workers);
+    this.server.createContext("/", this::handle);
+  } // ChainServer(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Answer one request, turning problems into error responses.
+   *
+   * @param exchange
+   *   The request and response.
+   *
+   * @throws IOException
+   *   If we cannot talk to the client.
+   */
+  void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      int status = 200;
+      String body;
+      try {
+        body = route(exchange);
+      } catch (Failure f) {
+        status = f.status;
+        body = error(f.getMessage());
+      } catch (IllegalArgumentException e) {
+        status = 400;
+        body = error(e.getMessage());
+      } catch (RuntimeException e) {
+        status = 500;
+        body = error(e.toString());
+      } // try/catch
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      } // try
+    } // try
+  } // handle(HttpExchange)
+
+  /**
+   * Carry out one request.
+   *
+   * @param exchange
+   *   The request.
+   *
+   * @return the body of the response.
+   *
+   * @throws IOException
+   *   If we cannot read the request.
+   * @throws Failure
+   *   If we cannot carry out the request.
+   * @throws IllegalArgumentException
+   *   If the request is malformed.
+   */
+  String route(HttpExchange exchange) throws IOException {
+    String path = exchange.getRequestURI().getPath();
+    String method = exchange.getRequestMethod();
+    HashMap<String, String> query = query(exchange.getRequestURI().getRawQuery());
+    StringBuilder str = new StringBuilder();
+    switch (path) {
+      case "/mine":
+        expect(method, "POST");
+        ChainTransfer.JsonLine in = new ChainTransfer.JsonLine(read(exchange));
+        Transaction t = ChainTransfer.transactionFromJson(in);
+        in.end();
+        ChainTransfer.toJson(str, mine(t));
+        break;
+
+      case "/append":
+        expect(method, "POST");
+        Block blk = ChainTransfer.fromJson(read(exchange));
+        try {
+          this.chain.append(blk);
+        } catch (IllegalArgumentException e) {
+          throw new Failure(409, e.getMessage());
+        } // try/catch
+        str.append("{\"size\":").append(this.chain.getSize()).append('}');
+        break;
+
+      case "/balance":
+        expect(method, "GET");
+        String user = required(query, "user");
+        str.append("{\"user\":");
+        ChainTransfer.appendJson(str, user);
+        str.append(",\"balance\":").append(this.chain.snapshot().balance(user)).append('}');
+        break;
+
+      case "/users":
+        expect(method, "GET");
+        str.append("{\"users\":[");
+        Iterator<String> users = this.chain.users();
+        while (users.hasNext()) {
+          ChainTransfer.appendJson(str, users.next());
+          if (users.hasNext()) {
+            str.append(',');
+          } // if
+        } // while
+        str.append("]}");
+        break;
+
+      case "/history":
+        expect(method, "GET");
+        String who = required(query, "user");
+        int from = integer(query, "from", 0);
+        int limit = Math.min(integer(query, "limit", MAX_HISTORY), MAX_HISTORY);
+        ChainSnapshot snap = this.chain.snapshot();
+        List<Block> blocks = snap.history(who, from, limit);
+        str.append("{\"user\":");
+        ChainTransfer.appendJson(str, who);
+        str.append(",\"total\":").append(snap.historySize(who)).append(",\"blocks\":[");
+        for (int i = 0; i < blocks.size(); i++) {
+          if (i > 0) {
+            str.append(',');
+          } // if
+          ChainTransfer.toJson(str, blocks.get(i));
+        } // for
+        str.append("]}");
+        break;
+
+      case "/check":
+        expect(method, "GET");
+        try {
+          this.chain.check();
+          str.append("{\"ok\":true}");
+        } catch (Exception e) {
+          str.append("{\"ok\":false,\"error\":");
+          ChainTransfer.appendJson(str, String.valueOf(e.getMessage()));
+          str.append('}');
+        } // try/catch
+        break;
+
+      default:
+        throw new Failure(404, "No such endpoint: " + path);
+    } // switch
+    return str.toString();
+  } // route(HttpExchange)
+
+  /**
+   * Mine a block on one of the miners, waiting for it.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return the block.
+   *
+   * @throws Failure
+   *   If every miner is busy and MINE_QUEUE requests already wait, or
+   *   we are stopping.
+   */
+  Block mine(Transaction t) {
+    try {
+      return this.miners.submit(() -> this.chain.mine(t)).get();
+    } catch (RejectedExecutionException e) {
+      throw new Failure(503, "Too many blocks being mined; try again later");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new Failure(503, "Stopping");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } // if
+      throw new IllegalStateException(e.getCause());
+    } // try/catch
+  } // mine(Transaction)
+
+  /**
+   * Make sure that a request used the right method.
+   *
+   * @param method
+   *   The method it used.
+   * @param wanted
+   *   The method it should have used.
+   *
+   * @throws Failure
+   *   If they differ.
+   */
+  static void expect(String method, String wanted) {
+    if (!method.equals(wanted)) {
+      throw new Failure(405, "Use " + wanted + ", not " + method);
+    } // if
+  } // expect(String, String)
+
+  /**
+   * Read the body of a request.
+   *
+   * @param exchange
+   *   The request.
+   *
+   * @return the body.
+   *
+   * @throws IOException
+   *   If we cannot read it.
+   * @throws Failure
+   *   If the body is longer than MAX_BODY.
+   */
+  static String read(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] body = in.readNBytes(MAX_BODY + 1);
+      if (body.length > MAX_BODY) {
+        throw new Failure(413, "Bodies may have at most " + MAX_BODY + " bytes");
+      } // if
+      return new String(body, StandardCharsets.UTF_8);
+    } // try
+  } // read(HttpExchange)
+
+  /**
+   * Split a query string into its parameters.
+   *
+   * @param raw
+   *   The query string, still encoded (or null if there is none).
+   *
+   * @return the parameters.
+   */
+  static HashMap<String, String> query(String raw) {
+    HashMap<String, String> result = new HashMap<String, String>();
+    if (raw == null) {
+      return result;
+    } // if
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = (eq < 0) ? pair : pair.substring(0, eq);
+      String value = (eq < 0) ? "" : pair.substring(eq + 1);
+      result.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+          URLDecoder.decode(value, StandardCharsets.UTF_8));
+    } // for
+    return result;
+  } // query(String)
+
+  /**
+   * Get a parameter that must be present.
+   *
+   * @param query
+   *   The parameters.
+   * @param key
+   *   The name of the parameter.
+   *
+   * @return its value.
+   *
+   * @throws IllegalArgumentException
+   *   If it is missing.
+   */
+  static String required(HashMap<String, String> query, String key) {
+    String value = query.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing parameter: " + key);
+    } // if
+    return value;
+  } // required(HashMap, String)
+
+  /**
+   * Get a parameter that is a natural number.
+   *
+   * @param query
+   *   The parameters.
+   * @param key
+   *   The name of the parameter.
+   * @param otherwise
+   *   The value if it is missing.
+   *
+   * @return its value.
+   *
+   * @throws IllegalArgumentException
+   *   If it is not a natural number.
+   */
+  static int integer(HashMap<String, String> query, String key, int otherwise) {
+    String value = query.get(key);
+    if (value == null) {
+      return otherwise;
+    } // if
+    try {
+      int result = Integer.parseInt(value);
+      if (result >= 0) {
+        return result;
+      } // if
+    } catch (NumberFormatException e) {
+      // Fall through to the complaint.
+    } // try/catch
+    throw new IllegalArgumentException("Not a natural number: " + key + "=" + value);
+  } // integer(HashMap, String, int)
+
+  /**
+   * Write an error as JSON.
+   *
+   * @param message
+   *   What went wrong.
+   *
+   * @return the JSON.
+   */
+  static String error(String message) {
+    StringBuilder str = new StringBuilder("{\"error\":");
+    ChainTransfer.appendJson(str, String.valueOf(message));
+    return str.append('}').toString();
+  } // error(String)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start answering requests.
+   */
+  public void start() {
+    this.server.start();
+  } // start()
+
+  /**
+   * Stop answering requests, letting those under way finish.
+   *
+   * @param seconds
+   *   The longest we wait for them.
+   */
+  public void stop(int seconds) {
+    this.server.stop(seconds);
+    this.workers.shutdown();
+    this.miners.shutdown();
+  } // stop(int)
+
+  /**
+   * Get the port we listen on, which is useful when we asked for any
+   * free port.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return this.server.getAddress().getPort();
+  } // getPort()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A request that we could not carry out, with the status to send.
+   */
+  static class Failure extends RuntimeException {
+    /** The HTTP status. */
+    final int status;
+
+    /**
+     * Create a new failure.
+     *
+     * @param code
+     *   The HTTP status.
+     * @param message
+     *   What went wrong.
+     */
+    Failure(int code, String message) {
+      super(message);
+      this.status = code;
+    } // Failure(int, String)
+  } // class Failure
+} // class ChainServer
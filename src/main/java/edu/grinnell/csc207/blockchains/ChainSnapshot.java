@@ -0,0 +1,519 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * A consistent, read-only view of a blockchain as it was at one moment.
+ * Taking a snapshot is cheap and takes no locks, and later appends and
+ * removals never change what a snapshot contains, so any number of
+ * threads may query snapshots while another thread updates the chain.
+ *
+ * If the chain prunes old blocks, a snapshot holds only the blocks
+ * from getBase() on, plus the balances of every user before them.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ChainSnapshot implements Iterable<Transaction> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain that we are a snapshot of. */
+  private final BlockChain chain;
+
+  /**
+   * The nodes of the chain that have not been pruned, by position
+   * (less base). The chain never changes the first (size - base)
+   * entries of an array once it has been in a snapshot.
+   */
+  private final Node[] nodes;
+
+  /**
+   * The number of transactions before each node's block, pruned blocks
+   * included, by position (less base). Shared with the chain as nodes
+   * is.
+   */
+  private final long[] starts;
+
+  /** The position of the first block that has not been pruned. */
+  private final int base;
+
+  /** The number of blocks in the chain, including pruned blocks. */
+  private final int size;
+
+  /** The number of transactions in the blocks we hold. */
+  private final long transactions;
+
+  /** The balances of all users before the first block we hold. */
+  private final Ledger ledger;
+
+  /** The hash of the last pruned block (null if none are pruned). */
+  private final Hash boundary;
+
+  /** The number of blocks the chain had removed when we were taken. */
+  private final long removals;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new snapshot.
+   *
+   * @param source
+   *   The chain that we are a snapshot of.
+   * @param chainNodes
+   *   The nodes of the chain that have not been pruned.
+   * @param chainStarts
+   *   The number of transactions before each of those nodes' blocks.
+   * @param chainBase
+   *   The position of the first of those nodes.
+   * @param chainSize
+   *   The number of blocks in the chain, including pruned blocks.
+   * @param chainTransactions
+   *   The number of transactions in the blocks that are not pruned.
+   * @param chainRemovals
+   *   The number of blocks the chain has removed so far.
+   * @param baseLedger
+   *   The balances of all users before the first node. Must not be
+   *   changed afterwards.
+   * @param boundaryHash
+   *   The hash of the last pruned block (null if none are pruned).
+   */
+  ChainSnapshot(BlockChain source, Node[] chainNodes, long[] chainStarts, int chainBase,
+      int chainSize, long chainTransactions, long chainRemovals, Ledger baseLedger,
+      Hash boundaryHash) {
+    this.chain = source;
+    this.nodes = chainNodes;
+    this.starts = chainStarts;
+    this.base = chainBase;
+    this.size = chainSize;
+    this.transactions = chainTransactions;
+    this.removals = chainRemovals;
+    this.ledger = baseLedger;
+    this.boundary = boundaryHash;
+  } // ChainSnapshot(BlockChain, Node[], long[], int, int, long, long, Ledger, Hash)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine whether the chain's indexes still describe this snapshot.
+   * They do unless the chain has removed blocks since we were taken.
+   * Call this after reading from the indexes.
+   *
+   * @return true if results read from the indexes are correct for
+   *   this snapshot.
+   */
+  private boolean indexed() {
+    return this.chain.removals() == this.removals;
+  } // indexed()
+
+  /**
+   * Get the balances of all users before the first block we hold.
+   * Clients must not change them.
+   *
+   * @return the balances.
+   */
+  Ledger ledger() {
+    return this.ledger;
+  } // ledger()
+
+  /**
+   * Get the hash that the first block we hold should follow.
+   *
+   * @return the hash of the last pruned block, or null if no blocks
+   *   have been pruned.
+   */
+  Hash boundary() {
+    return this.boundary;
+  } // boundary()
+
+  /**
+   * Find a user's balance before the first block we hold.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the user's balance (or 0, if the user had not appeared).
+   */
+  long baseBalance(String user) {
+    return this.ledger.get(user);
+  } // baseBalance(String)
+
+  /**
+   * Get the block at a position that we hold.
+   *
+   * @param pos
+   *   The position.
+   *
+   * @return the block.
+   */
+  private Block at(int pos) {
+    return this.nodes[pos - this.base].getData();
+  } // at(int)
+
+  /**
+   * Find how the transactions in a block change a user's balance.
+   *
+   * @param blk
+   *   The block.
+   * @param user
+   *   The user.
+   *
+   * @return the change in the user's balance.
+   */
+  static long delta(Block blk, String user) {
+    long result = 0;
+    for (Transaction t : blk.getTransactions()) {
+      result += delta(t, user);
+    } // for
+    return result;
+  } // delta(Block, String)
+
+  /**
+   * Determine whether a user appears in any transaction in a block.
+   *
+   * @param blk
+   *   The block.
+   * @param user
+   *   The user.
+   *
+   * @return true if the user is the source or target of one of them.
+   */
+  static boolean involves(Block blk, String user) {
+    for (Transaction t : blk.getTransactions()) {
+      if (involves(t, user)) {
+        return true;
+      } // if
+    } // for
+    return false;
+  } // involves(Block, String)
+
+  /**
+   * Find how a transaction changes a user's balance.
+   *
+   * @param t
+   *   The transaction.
+   * @param user
+   *   The user.
+   *
+   * @return the change in the user's balance.
+   */
+  static long delta(Transaction t, String user) {
+    if (t.getSource().equals(t.getTarget())) {
+      return 0;
+    } else if (t.getSource().equals(user)) {
+      return -t.getAmount();
+    } else if (t.getTarget().equals(user)) {
+      return t.getAmount();
+    } // if/else
+    return 0;
+  } // delta(Transaction, String)
+
+  /**
+   * Determine whether a user appears in a transaction.
+   *
+   * @param t
+   *   The transaction.
+   * @param user
+   *   The user.
+   *
+   * @return true if the user is the source or target.
+   */
+  static boolean involves(Transaction t, String user) {
+    return !user.equals("") && (t.getSource().equals(user) || t.getTarget().equals(user));
+  } // involves(Transaction, String)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks in the snapshot.
+   *
+   * @return the number of blocks, including the initial block and any
+   *   pruned blocks.
+   */
+  public int getSize() {
+    return this.size;
+  } // getSize()
+
+  /**
+   * Get the number of transactions in the blocks of the snapshot that
+   * have not been pruned.
+   *
+   * @return the number of transactions.
+   */
+  public long getTransactionCount() {
+    return this.transactions;
+  } // getTransactionCount()
+
+  /**
+   * Get the position of the oldest block in the snapshot that has not
+   * been pruned.
+   *
+   * @return the position of that block (0 if nothing is pruned).
+   */
+  public int getBase() {
+    return this.base;
+  } // getBase()
+
+  /**
+   * Get the hash of the last block in the snapshot.
+   *
+   * @return the hash of the last block.
+   */
+  public Hash getHash() {
+    return at(this.size - 1).getHash();
+  } // getHash()
+
+  /**
+   * Get the block at a particular position.
+   *
+   * @param pos
+   *   The position of the block, between getBase() (inclusive) and
+   *   getSize() (exclusive).
+   *
+   * @return the block at that position.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the position is not in the snapshot or has been pruned.
+   */
+  public Block getBlock(int pos) {
+    if ((pos < this.base) || (pos >= this.size)) {
+      throw new IndexOutOfBoundsException("No block at " + pos);
+    } // if
+    return at(pos);
+  } // getBlock(int)
+
+  /**
+   * Find one user's balance at the end of the snapshot, using the same
+   * ledger rules as check().
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   *
+   * @return that user's balance (or 0, if the user is not in the system).
+   */
+  public long balance(String user) {
+    return balanceAt(user, this.size - 1);
+  } // balance(String)
+
+  /**
+   * Determine whether a user has appeared in the snapshot (as source or
+   * target), so that check() would let them spend.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return true if they have.
+   */
+  public boolean knows(String user) {
+    UserDictionary.Entry entry = UserDictionary.find(user);
+    return ((entry != null) && this.ledger.has(entry)) || (historySize(user) > 0);
+  } // knows(String)
+
+  /**
+   * Find one user's balance as of a particular block, using the same
+   * ledger rules as check().
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   * @param height
+   *   The position of the block after which we want the balance.
+   *   Positions past the end of the snapshot refer to the last block.
+   *
+   * @return that user's balance after the block at that position
+   *   (or 0, if the user had not yet appeared).
+   *
+   * @throws IllegalArgumentException
+   *   If the block at that position, and the one after it, have been
+   *   pruned.
+   */
+  public long balanceAt(String user, int height) {
+    int h = Math.min(height, this.size - 1);
+    if (h < this.base - 1) {
+      throw new IllegalArgumentException("Block " + h + " has been pruned");
+    } // if
+    long result = this.chain.userIndex().balanceAt(user, h);
+    if (indexed()) {
+      return result;
+    } // if
+    result = baseBalance(user);
+    for (int i = this.base; i <= h; i++) {
+      result += delta(at(i), user);
+    } // for
+    return result;
+  } // balanceAt(String, int)
+
+  /**
+   * Get one page of the blocks in which a user appears as source or
+   * target, in chain order.
+   *
+   * @param user
+   *   The user whose history we want.
+   * @param fromBlock
+   *   The position at which to start. Pruned blocks are skipped.
+   * @param limit
+   *   The largest number of blocks to return.
+   *
+   * @return the blocks in which the user appears, starting at
+   *   fromBlock, of which there are at most limit.
+   */
+  public List<Block> history(String user, int fromBlock, int limit) {
+    int from = Math.max(this.base, fromBlock);
+    int[] positions = this.chain.userIndex().positions(user, from, limit, this.size);
+    List<Block> result = new ArrayList<Block>(positions.length);
+    if (indexed()) {
+      for (int pos : positions) {
+        result.add(at(pos));
+      } // for
+      return result;
+    } // if
+    for (int i = from; (i < this.size) && (result.size() < limit); i++) {
+      Block blk = at(i);
+      if (involves(blk, user)) {
+        result.add(blk);
+      } // if
+    } // for
+    return result;
+  } // history(String, int, int)
+
+  /**
+   * Determine how many blocks (that have not been pruned) a user
+   * appears in.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the number of blocks in which the user is source or target.
+   */
+  public int historySize(String user) {
+    int result = this.chain.userIndex().count(user, this.size);
+    if (indexed()) {
+      return result;
+    } // if
+    result = 0;
+    for (int i = this.base; i < this.size; i++) {
+      if (involves(at(i), user)) {
+        result++;
+      } // if
+    } // for
+    return result;
+  } // historySize(String)
+
+  /**
+   * Get an iterator for all the blocks in the snapshot that have not
+   * been pruned.
+   *
+   * @return an iterator for all the blocks in the snapshot.
+   */
+  public Iterator<Block> blocks() {
+    return new Iterator<Block>() {
+      /** The position of the next block. */
+      private int pos = 0;
+
+      public boolean hasNext() {
+        return pos < size - base;
+      } // hasNext()
+
+      public Block next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return nodes[pos++].getData();
+      } // next()
+    };
+  } // blocks()
+
+  /**
+   * Get an iterator for all the transactions in the snapshot.
+   *
+   * @return an iterator for all the transactions in the snapshot.
+   */
+  public Iterator<Transaction> iterator() {
+    return new Iterator<Transaction>() {
+      /** The position of the next block. */
+      private int pos = 0;
+
+      /** The rest of the transactions in the current block. */
+      private Iterator<Transaction> batch = Collections.emptyIterator();
+
+      public boolean hasNext() {
+        while (!batch.hasNext() && (pos < size - base)) {
+          batch = nodes[pos++].getData().getTransactions().iterator();
+        } // while
+        return batch.hasNext();
+      } // hasNext()
+
+      public Transaction next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return batch.next();
+      } // next()
+    };
+  } // iterator()
+
+  /**
+   * Determine whether every block we hold has exactly one transaction.
+   *
+   * @return true if there are no batches of transactions.
+   */
+  private boolean unbatched() {
+    return this.transactions == this.size - this.base;
+  } // unbatched()
+
+  /**
+   * Get a spliterator for all the transactions in the snapshot. It
+   * knows its exact size and splits evenly by transactions, even when
+   * some blocks hold batches.
+   *
+   * @return a spliterator for all the transactions in the snapshot.
+   */
+  public Spliterator<Transaction> spliterator() {
+    if (unbatched()) {
+      return new ChainSpliterator<Transaction>(this.nodes, Block::getTransaction, 0,
+          this.size - this.base);
+    } // if
+    return new ChainSpliterator<Transaction>(this.nodes, this.starts, this.size - this.base,
+        Block::getTransactions, this.starts[0], this.starts[0] + this.transactions);
+  } // spliterator()
+
+  /**
+   * Get a stream of all the blocks in the snapshot, in order.
+   *
+   * @param parallel
+   *   True if the stream should be parallel.
+   *
+   * @return a stream of all the blocks in the snapshot.
+   */
+  public Stream<Block> blockStream(boolean parallel) {
+    return StreamSupport.stream(new ChainSpliterator<Block>(this.nodes, Function.identity(), 0,
+        this.size - this.base), parallel);
+  } // blockStream(boolean)
+
+  /**
+   * Get a stream of all the transactions in the snapshot, in order.
+   *
+   * @param parallel
+   *   True if the stream should be parallel.
+   *
+   * @return a stream of all the transactions in the snapshot.
+   */
+  public Stream<Transaction> transactionStream(boolean parallel) {
+    return StreamSupport.stream(spliterator(), parallel);
+  } // transactionStream(boolean)
+} // class ChainSnapshot
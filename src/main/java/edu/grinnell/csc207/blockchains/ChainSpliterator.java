@@ -0,0 +1,241 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A spliterator over a range of positions in a blockchain. It splits
+ * the range in half, so parallel streams get evenly-sized pieces of
+ * work and always know exactly how many elements each piece has.
+ *
+ * Usually each block gives one element. When blocks hold batches of
+ * transactions, we instead number the transactions themselves, using
+ * the number of transactions before each block to find the block that
+ * holds a transaction, so that the halves have equal numbers of
+ * transactions however the blocks are batched.
+ *
+ * @param <T>
+ *   The type of element we produce from each block.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class ChainSpliterator<T> implements Spliterator<T> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The characteristics of every chain spliterator. */
+  static final int CHARACTERISTICS =
+      ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The nodes of the chain, by position. */
+  private final Node[] nodes;
+
+  /** How to get an element from a block (null if we use expand). */
+  private final Function<Block, T> extract;
+
+  /**
+   * The number of elements before each block, by position (null if
+   * each block gives one element).
+   */
+  private final long[] starts;
+
+  /** The number of positions in starts that are in use. */
+  private final int count;
+
+  /** How to get all the elements of a block (null if we use extract). */
+  private final Function<Block, List<T>> expand;
+
+  /** The number of the next element. */
+  private long index;
+
+  /** One past the number of the last element. */
+  private final long fence;
+
+  /** The elements of the block we are in (null if none yet). */
+  private List<T> items;
+
+  /** The number of the first element of items. */
+  private long itemsStart;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a spliterator over some of the nodes of a chain, with one
+   * element for each block.
+   *
+   * @param chainNodes
+   *   The nodes of the chain, by position.
+   * @param extractor
+   *   How to get an element from a block.
+   * @param start
+   *   The position of the first element.
+   * @param end
+   *   One past the position of the last element.
+   */
+  ChainSpliterator(Node[] chainNodes, Function<Block, T> extractor, int start, int end) {
+    this.nodes = chainNodes;
+    this.extract = extractor;
+    this.starts = null;
+    this.count = end;
+    this.expand = null;
+    this.index = start;
+    this.fence = end;
+  } // ChainSpliterator(Node[], Function, int, int)
+
+  /**
+   * Create a spliterator over some of the elements of the blocks of a
+   * chain, where each block may give any number of elements.
+   *
+   * @param chainNodes
+   *   The nodes of the chain, by position.
+   * @param chainStarts
+   *   The number of elements before each block, by position.
+   * @param positions
+   *   The number of positions in use.
+   * @param expander
+   *   How to get all the elements of a block.
+   * @param start
+   *   The number of the first element.
+   * @param end
+   *   One past the number of the last element.
+   */
+  ChainSpliterator(Node[] chainNodes, long[] chainStarts, int positions,
+      Function<Block, List<T>> expander, long start, long end) {
+    this.nodes = chainNodes;
+    this.extract = null;
+    this.starts = chainStarts;
+    this.count = positions;
+    this.expand = expander;
+    this.index = start;
+    this.fence = end;
+  } // ChainSpliterator(Node[], long[], int, Function, long, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the position of the block that holds an element.
+   *
+   * @param element
+   *   The number of the element.
+   *
+   * @return the position of its block.
+   */
+  private int locate(long element) {
+    int lo = 0;
+    int hi = this.count - 1;
+    // The last position whose first element is at or before element.
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (this.starts[mid] <= element) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      } // if/else
+    } // while
+    return lo;
+  } // locate(long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Process the next element, if there is one.
+   *
+   * @param action
+   *   What to do with the element.
+   *
+   * @return true if there was an element and false otherwise.
+   */
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (this.index >= this.fence) {
+      return false;
+    } // if
+    if (this.expand == null) {
+      action.accept(this.extract.apply(this.nodes[(int) this.index++].getData()));
+      return true;
+    } // if
+    if ((this.items == null) || (this.index >= this.itemsStart + this.items.size())) {
+      int pos = locate(this.index);
+      this.items = this.expand.apply(this.nodes[pos].getData());
+      this.itemsStart = this.starts[pos];
+    } // if
+    action.accept(this.items.get((int) (this.index++ - this.itemsStart)));
+    return true;
+  } // tryAdvance(Consumer)
+
+  /**
+   * Process all the remaining elements.
+   *
+   * @param action
+   *   What to do with each element.
+   */
+  public void forEachRemaining(Consumer<? super T> action) {
+    if (this.expand == null) {
+      for (int i = (int) this.index; i < this.fence; i++) {
+        action.accept(this.extract.apply(this.nodes[i].getData()));
+      } // for
+      this.index = this.fence;
+      return;
+    } // if
+    for (int pos = (this.index < this.fence) ? locate(this.index) : 0; this.index < this.fence;
+        pos++) {
+      List<T> elements = this.expand.apply(this.nodes[pos].getData());
+      long first = this.starts[pos];
+      int last = (int) Math.min(elements.size(), this.fence - first);
+      for (int i = (int) (this.index - first); i < last; i++) {
+        action.accept(elements.get(i));
+      } // for
+      this.index = first + last;
+    } // for
+  } // forEachRemaining(Consumer)
+
+  /**
+   * Give the first half of the remaining elements to a new spliterator.
+   *
+   * @return the new spliterator, or null if there are too few
+   *   elements to split.
+   */
+  public Spliterator<T> trySplit() {
+    long mid = (this.index + this.fence) >>> 1;
+    if (mid <= this.index) {
+      return null;
+    } // if
+    Spliterator<T> prefix = (this.expand == null)
+        ? new ChainSpliterator<T>(this.nodes, this.extract, (int) this.index, (int) mid)
+        : new ChainSpliterator<T>(this.nodes, this.starts, this.count, this.expand, this.index,
+            mid);
+    this.index = mid;
+    return prefix;
+  } // trySplit()
+
+  /**
+   * Determine how many elements remain.
+   *
+   * @return the number of remaining elements.
+   */
+  public long estimateSize() {
+    return this.fence - this.index;
+  } // estimateSize()
+
+  /**
+   * Get the characteristics of this spliterator.
+   *
+   * @return the characteristics.
+   */
+  public int characteristics() {
+    return CHARACTERISTICS;
+  } // characteristics()
+} // class ChainSpliterator
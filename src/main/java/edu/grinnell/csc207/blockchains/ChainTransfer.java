@@ -0,0 +1,1053 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Export blocks to, and import them from, streams of text (one JSON
+ * object per line) or binary (the BlockCodec form, each block preceded
+ * by its length).
+ *
+ * Both directions work one block at a time, so they take the same
+ * memory however long the chain is. Imports read and parse blocks on
+ * one thread while the caller's thread verifies and appends them in
+ * batches, and both directions can report their progress to a pen.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public final class ChainTransfer {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The bytes at the start of a binary export. */
+  static final byte[] MAGIC = {'B', 'C', 'H', BlockCodec.FORMAT};
+
+  /** The number of blocks we append at once when importing. */
+  static final int BATCH_SIZE = 512;
+
+  /** The longest block record we read, in bytes (or, for text, characters). */
+  static final int MAX_RECORD = ChainRpcServer.MAX_FRAME;
+
+  /** The number of parsed batches that may wait to be appended. */
+  static final int QUEUE_SIZE = 8;
+
+  /** How often we report progress, in nanoseconds. */
+  static final long REPORT_INTERVAL = 1_000_000_000L;
+
+  /** The digits of a hex string. */
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  /** The batch that marks the end of an import. */
+  private static final List<Block> END = new ArrayList<Block>();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prevent instantiation.
+   */
+  private ChainTransfer() {
+  } // ChainTransfer()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Keeps track of progress and reports it now and then.
+   */
+  static class Progress {
+    /** Where to report (or null to stay quiet). */
+    private final PrintWriter log;
+
+    /** What we are doing. */
+    private final String verb;
+
+    /** When we started. */
+    private final long start;
+
+    /** When we next report. */
+    private long next;
+
+    /** The number of blocks when we last looked at the clock. */
+    private long checked;
+
+    /** The number of blocks so far. */
+    long blocks;
+
+    /** The number of bytes (or characters) so far. */
+    long bytes;
+
+    /**
+     * Start keeping track.
+     *
+     * @param pen
+     *   Where to report (or null to stay quiet).
+     * @param what
+     *   What we are doing, e.g., "Exported".
+     */
+    Progress(PrintWriter pen, String what) {
+      this.log = pen;
+      this.verb = what;
+      this.start = System.nanoTime();
+      this.next = this.start + REPORT_INTERVAL;
+    } // Progress(PrintWriter, String)
+
+    /**
+     * Note more work, reporting if it has been a while.
+     *
+     * @param moreBlocks
+     *   The number of blocks.
+     * @param moreBytes
+     *   The number of bytes.
+     */
+    void add(long moreBlocks, long moreBytes) {
+      this.blocks += moreBlocks;
+      this.bytes += moreBytes;
+      if ((this.log != null) && (this.blocks - this.checked >= 256)) {
+        this.checked = this.blocks;
+        long now = System.nanoTime();
+        if (now >= this.next) {
+          report(now);
+          this.next = now + REPORT_INTERVAL;
+        } // if
+      } // if
+    } // add(long, long)
+
+    /**
+     * Report progress.
+     *
+     * @param now
+     *   The current time, in nanoseconds.
+     */
+    void report(long now) {
+      if (this.log == null) {
+        return;
+      } // if
+      double seconds = Math.max(now - this.start, 1) / 1e9;
+      this.log.printf("%s %d blocks in %.1f s (%.0f blocks/s, %.1f MB/s)%n", this.verb,
+          this.blocks, seconds, this.blocks / seconds, this.bytes / seconds / 1e6);
+      this.log.flush();
+    } // report(long)
+  } // class Progress
+
+  /**
+   * Something from which we can read blocks.
+   */
+  interface BlockReader {
+    /**
+     * Read the next block.
+     *
+     * @param progress
+     *   Where to count the bytes we read.
+     *
+     * @return the block, or null at the end.
+     *
+     * @throws IOException
+     *   If the input is bad or cannot be read.
+     */
+    Block next(Progress progress) throws IOException;
+  } // interface BlockReader
+
+  /**
+   * Reads lines of text, refusing any longer than MAX_RECORD, so that
+   * one huge line cannot take all our memory.
+   */
+  static class LineReader {
+    /** Where the text comes from. */
+    private final Reader in;
+
+    /** Text we have read but not returned. */
+    private final char[] buf;
+
+    /** The position of the next character in buf. */
+    private int pos;
+
+    /** The position after the last character in buf. */
+    private int end;
+
+    /** The line we are reading. */
+    private final StringBuilder line;
+
+    /**
+     * Start reading.
+     *
+     * @param source
+     *   Where the text comes from.
+     */
+    LineReader(Reader source) {
+      this.in = source;
+      this.buf = new char[8192];
+      this.line = new StringBuilder();
+    } // LineReader(Reader)
+
+    /**
+     * Read the next line.
+     *
+     * @param index
+     *   The index of the block we expect the line to hold.
+     *
+     * @return the line, without its line terminator, or null at the end
+     *   of the text.
+     *
+     * @throws IOException
+     *   If the text cannot be read.
+     * @throws InvalidBlockException
+     *   If the line is longer than MAX_RECORD characters.
+     */
+    String readLine(int index) throws IOException {
+      this.line.setLength(0);
+      boolean started = false;
+      while (true) {
+        if (this.pos == this.end) {
+          this.pos = 0;
+          this.end = Math.max(0, this.in.read(this.buf, 0, this.buf.length));
+          if (this.end == 0) {
+            return started ? this.line.toString() : null;
+          } // if
+        } // if
+        started = true;
+        int start = this.pos;
+        while ((this.pos < this.end) && (this.buf[this.pos] != '\n')) {
+          this.pos++;
+        } // while
+        if (this.line.length() + (this.pos - start) > MAX_RECORD) {
+          throw new InvalidBlockException(index, "Record is longer than " + MAX_RECORD
+              + " characters");
+        } // if
+        this.line.append(this.buf, start, this.pos - start);
+        if (this.pos < this.end) {
+          this.pos++;
+          int len = this.line.length();
+          if ((len > 0) && (this.line.charAt(len - 1) == '\r')) {
+            this.line.setLength(len - 1);
+          } // if
+          return this.line.toString();
+        } // if
+      } // while
+    } // readLine(int)
+  } // class LineReader
+
+  /**
+   * Append a hash to a string as hex.
+   *
+   * @param str
+   *   The string.
+   * @param hash
+   *   The hash.
+   */
+  static void appendHex(StringBuilder str, Hash hash) {
+    for (byte b : hash.hashData) {
+      str.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    } // for
+  } // appendHex(StringBuilder, Hash)
+
+  /**
+   * Convert a hex string to a hash.
+   *
+   * @param hex
+   *   The string.
+   *
+   * @return the hash.
+   *
+   * @throws IllegalArgumentException
+   *   If the string is not hex.
+   */
+  static Hash parseHex(String hex) {
+    if ((hex.length() & 1) != 0) {
+      throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+    } // if
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int hi = Character.digit(hex.charAt(2 * i), 16);
+      int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+      if ((hi < 0) || (lo < 0)) {
+        throw new IllegalArgumentException("Not a hex string: " + hex);
+      } // if
+      bytes[i] = (byte) ((hi << 4) | lo);
+    } // for
+    return new Hash(bytes, 0, bytes.length);
+  } // parseHex(String)
+
+  /**
+   * Append a string to a string as a JSON string.
+   *
+   * @param str
+   *   The string to append to.
+   * @param value
+   *   The string to append.
+   */
+  static void appendJson(StringBuilder str, String value) {
+    str.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if ((c == '"') || (c == '\\')) {
+        str.append('\\').append(c);
+      } else if (c < ' ') {
+        str.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+      } else {
+        str.append(c);
+      } // if/else
+    } // for
+    str.append('"');
+  } // appendJson(StringBuilder, String)
+
+  /**
+   * Write the fields of a transaction.
+   *
+   * @param str
+   *   Where to write the fields.
+   * @param t
+   *   The transaction.
+   */
+  static void appendJson(StringBuilder str, Transaction t) {
+    str.append("\"source\":");
+    appendJson(str, t.getSource());
+    str.append(",\"target\":");
+    appendJson(str, t.getTarget());
+    str.append(",\"amount\":").append(t.getAmount());
+  } // appendJson(StringBuilder, Transaction)
+
+  /**
+   * Write a block as one line of JSON. A block that holds a batch of
+   * transactions has a "transactions" array in place of the source,
+   * target, and amount.
+   *
+   * @param str
+   *   Where to write the block.
+   * @param blk
+   *   The block.
+   */
+  static void toJson(StringBuilder str, Block blk) {
+    str.append("{\"num\":").append(blk.getNum());
+    str.append(",\"version\":").append(blk.getVersion());
+    if (blk.isBatch()) {
+      str.append(",\"transactions\":[");
+      String sep = "{";
+      for (Transaction t : blk.getTransactions()) {
+        str.append(sep);
+        appendJson(str, t);
+        str.append('}');
+        sep = ",{";
+      } // for
+      str.append(']');
+    } else {
+      str.append(',');
+      appendJson(str, blk.getTransaction());
+    } // if/else
+    str.append(",\"prevHash\":\"");
+    appendHex(str, blk.getPrevHash());
+    str.append("\",\"nonce\":").append(blk.getNonce());
+    str.append(",\"hash\":\"");
+    appendHex(str, blk.getHash());
+    str.append("\"}");
+  } // toJson(StringBuilder, Block)
+
+  /**
+   * Read one transaction object from the "transactions" array.
+   *
+   * @param in
+   *   The line, positioned at the object.
+   *
+   * @return the transaction.
+   */
+  static Transaction transactionFromJson(JsonLine in) {
+    Long amount = null;
+    String source = null;
+    String target = null;
+    in.expect('{');
+    boolean more = !in.skip('}');
+    while (more) {
+      String key = in.string();
+      in.expect(':');
+      switch (key) {
+        case "amount":
+          amount = in.number();
+          break;
+        case "source":
+          source = in.string();
+          break;
+        case "target":
+          target = in.string();
+          break;
+        default:
+          in.value();
+          break;
+      } // switch
+      more = in.skip(',');
+      if (!more) {
+        in.expect('}');
+      } // if
+    } // while
+    if ((amount == null) || (source == null) || (target == null)) {
+      throw in.error("a source, target, and amount");
+    } // if
+    return new Transaction(source, target, Math.toIntExact(amount));
+  } // transactionFromJson(JsonLine)
+
+  /**
+   * Read a block from one line of JSON, as written by toJson. The
+   * fields may come in any order and unknown fields are ignored. If
+   * there is a "transactions" array, the block is a batch.
+   *
+   * @param line
+   *   The line.
+   *
+   * @return the block.
+   *
+   * @throws IllegalArgumentException
+   *   If the line is not such a block.
+   */
+  static Block fromJson(String line) {
+    JsonLine in = new JsonLine(line);
+    List<Transaction> batch = null;
+    Long num = null;
+    Long version = null;
+    Long amount = null;
+    Long nonce = null;
+    String source = null;
+    String target = null;
+    String prevHash = null;
+    String hash = null;
+    in.expect('{');
+    boolean more = !in.skip('}');
+    while (more) {
+      String key = in.string();
+      in.expect(':');
+      switch (key) {
+        case "num":
+          num = in.number();
+          break;
+        case "version":
+          version = in.number();
+          break;
+        case "amount":
+          amount = in.number();
+          break;
+        case "nonce":
+          nonce = in.number();
+          break;
+        case "source":
+          source = in.string();
+          break;
+        case "target":
+          target = in.string();
+          break;
+        case "prevHash":
+          prevHash = in.string();
+          break;
+        case "transactions":
+          batch = new ArrayList<Transaction>();
+          in.expect('[');
+          if (!in.skip(']')) {
+            do {
+              batch.add(transactionFromJson(in));
+            } while (in.skip(','));
+            in.expect(']');
+          } // if
+          break;
+        case "hash":
+          hash = in.string();
+          break;
+        default:
+          in.value();
+          break;
+      } // switch
+      more = in.skip(',');
+      if (!more) {
+        in.expect('}');
+      } // if
+    } // while
+    in.end();
+    if ((batch != null) && (num != null) && (nonce != null) && (prevHash != null)
+        && (hash != null) && !batch.isEmpty()) {
+      return new Block(Math.toIntExact(num), batch, parseHex(prevHash), nonce,
+          parseHex(hash));
+    } // if
+    if ((num == null) || (amount == null) || (nonce == null) || (source == null)
+        || (target == null) || (prevHash == null) || (hash == null)) {
+      throw new IllegalArgumentException("Missing field in " + line);
+    } // if
+    int format = Block.checkVersion((version == null) ? Block.LEGACY : version.intValue());
+    return new Block(Math.toIntExact(num), new Transaction(source, target,
+        Math.toIntExact(amount)), parseHex(prevHash), nonce, parseHex(hash), format);
+  } // fromJson(String)
+
+  /**
+   * A very small reader for the flat JSON objects we write.
+   */
+  static class JsonLine {
+    /** The text. */
+    private final String text;
+
+    /** Where we are in the text. */
+    private int pos;
+
+    /**
+     * Start reading some text.
+     *
+     * @param line
+     *   The text.
+     */
+    JsonLine(String line) {
+      this.text = line;
+      this.pos = 0;
+    } // JsonLine(String)
+
+    /**
+     * Complain about the text.
+     *
+     * @param what
+     *   What we expected.
+     *
+     * @return an exception to throw.
+     */
+    IllegalArgumentException error(String what) {
+      return new IllegalArgumentException("Expected " + what + " at column " + (this.pos + 1));
+    } // error(String)
+
+    /**
+     * Skip white space.
+     */
+    void space() {
+      while ((this.pos < this.text.length())
+          && Character.isWhitespace(this.text.charAt(this.pos))) {
+        this.pos++;
+      } // while
+    } // space()
+
+    /**
+     * Skip a character, if it comes next.
+     *
+     * @param c
+     *   The character.
+     *
+     * @return true if it came next.
+     */
+    boolean skip(char c) {
+      space();
+      if ((this.pos < this.text.length()) && (this.text.charAt(this.pos) == c)) {
+        this.pos++;
+        return true;
+      } // if
+      return false;
+    } // skip(char)
+
+    /**
+     * Skip a character, which must come next.
+     *
+     * @param c
+     *   The character.
+     */
+    void expect(char c) {
+      if (!skip(c)) {
+        throw error("'" + c + "'");
+      } // if
+    } // expect(char)
+
+    /**
+     * Make sure there is nothing left.
+     */
+    void end() {
+      space();
+      if (this.pos != this.text.length()) {
+        throw error("end of line");
+      } // if
+    } // end()
+
+    /**
+     * Read a string.
+     *
+     * @return the string.
+     */
+    String string() {
+      expect('"');
+      StringBuilder result = new StringBuilder();
+      while (this.pos < this.text.length()) {
+        char c = this.text.charAt(this.pos++);
+        if (c == '"') {
+          return result.toString();
+        } else if (c != '\\') {
+          result.append(c);
+        } else if (this.pos < this.text.length()) {
+          char e = this.text.charAt(this.pos++);
+          switch (e) {
+            case 'b':
+              result.append('\b');
+              break;
+            case 'f':
+              result.append('\f');
+              break;
+            case 'n':
+              result.append('\n');
+              break;
+            case 'r':
+              result.append('\r');
+              break;
+            case 't':
+              result.append('\t');
+              break;
+            case 'u':
+              if (this.pos + 4 > this.text.length()) {
+                throw error("four hex digits");
+              } // if
+              try {
+                result.append((char) Integer.parseInt(
+                    this.text.substring(this.pos, this.pos + 4), 16));
+              } catch (NumberFormatException x) {
+                throw error("four hex digits");
+              } // try/catch
+              this.pos += 4;
+              break;
+            default:
+              result.append(e);
+              break;
+          } // switch
+        } // if/else
+      } // while
+      throw error("'\"'");
+    } // string()
+
+    /**
+     * Read a whole number.
+     *
+     * @return the number.
+     */
+    long number() {
+      space();
+      int start = this.pos;
+      if ((this.pos < this.text.length()) && (this.text.charAt(this.pos) == '-')) {
+        this.pos++;
+      } // if
+      while ((this.pos < this.text.length()) && Character.isDigit(this.text.charAt(this.pos))) {
+        this.pos++;
+      } // while
+      try {
+        return Long.parseLong(this.text.substring(start, this.pos));
+      } catch (NumberFormatException e) {
+        this.pos = start;
+        throw error("a whole number");
+      } // try/catch
+    } // number()
+
+    /**
+     * Read and ignore a string or number.
+     */
+    void value() {
+      space();
+      if ((this.pos < this.text.length()) && (this.text.charAt(this.pos) == '"')) {
+        string();
+      } else {
+        number();
+      } // if/else
+    } // value()
+  } // class JsonLine
+
+  /**
+   * Read a variable-length int from a stream.
+   *
+   * @param in
+   *   The stream.
+   *
+   * @return the value, or -1 if the stream ends before it starts.
+   *
+   * @throws IOException
+   *   If the stream ends in the middle or cannot be read.
+   */
+  static int readVarint(InputStream in) throws IOException {
+    int result = 0;
+    for (int i = 0; i < BlockCodec.MAX_VARINT_BYTES; i++) {
+      int b = in.read();
+      if (b < 0) {
+        if (i == 0) {
+          return -1;
+        } // if
+        throw new EOFException("Stream ends in the middle of a length");
+      } // if
+      result |= (b & 0x7F) << (7 * i);
+      if (b < 0x80) {
+        return result;
+      } // if
+    } // for
+    throw new IOException("Length is too long");
+  } // readVarint(InputStream)
+
+  /**
+   * Import blocks, parsing on another thread while we append.
+   *
+   * @param chain
+   *   The chain to append to.
+   * @param reader
+   *   Where the blocks come from.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the number of blocks appended.
+   */
+  static long pump(BlockChain chain, BlockReader reader, PrintWriter log) throws IOException {
+    BlockingQueue<List<Block>> queue = new ArrayBlockingQueue<List<Block>>(QUEUE_SIZE);
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    // The bytes parsed by the time each batch was queued.
+    AtomicLong parsed = new AtomicLong();
+    Thread parser = new Thread(() -> {
+      Progress read = new Progress(null, "Parsed");
+      try {
+        List<Block> batch = new ArrayList<Block>(BATCH_SIZE);
+        for (Block blk = reader.next(read); blk != null; blk = reader.next(read)) {
+          batch.add(blk);
+          if (batch.size() == BATCH_SIZE) {
+            parsed.set(read.bytes);
+            queue.put(batch);
+            batch = new ArrayList<Block>(BATCH_SIZE);
+          } // if
+        } // for
+        parsed.set(read.bytes);
+        queue.put(batch);
+      } catch (InterruptedException e) {
+        // The importer gave up, so the put below gives up at once.
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        failure.set(e);
+      } finally {
+        // However we stopped, wake the importer so that it can finish.
+        try {
+          queue.put(END);
+        } catch (InterruptedException e) {
+          // The importer gave up.
+        } // try/catch
+      } // try/catch/finally
+    }, "chain-import");
+    parser.setDaemon(true);
+    parser.start();
+
+    Progress appended = new Progress(log, "Imported");
+    long records = 0;
+    try {
+      for (List<Block> batch = queue.take(); batch != END; batch = queue.take()) {
+        int skip = 0;
+        // Blocks the chain already has (e.g., its first block).
+        while ((skip < batch.size()) && (chain.findByHash(batch.get(skip).getHash()) != null)) {
+          skip++;
+        } // while
+        if (skip < batch.size()) {
+          try {
+            chain.appendAll(batch.subList(skip, batch.size()));
+          } catch (InvalidBlockException e) {
+            throw e.shift((int) records + skip);
+          } // try/catch
+        } // if
+        records += batch.size();
+        // Only an estimate, since the parser is still counting.
+        appended.bytes = parsed.get();
+        appended.add(batch.size() - skip, 0);
+      } // for
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while importing", e);
+    } finally {
+      parser.interrupt();
+    } // try/finally
+    appended.report(System.nanoTime());
+    Throwable e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof InvalidBlockException) {
+      throw (InvalidBlockException) e;
+    } else if (e != null) {
+      throw new IOException(String.valueOf(e.getMessage()), e);
+    } // if
+    return appended.blocks;
+  } // pump(BlockChain, BlockReader, PrintWriter)
+
+  /**
+   * Read blocks from lines of JSON.
+   *
+   * @param in
+   *   The text.
+   *
+   * @return a reader for those blocks.
+   */
+  static BlockReader ndjsonReader(Reader in) {
+    LineReader lines = new LineReader(in);
+    int[] lineNum = {0};
+    int[] blockNum = {0};
+    return (progress) -> {
+      for (String line = lines.readLine(blockNum[0]); line != null;
+          line = lines.readLine(blockNum[0])) {
+        lineNum[0]++;
+        progress.bytes += line.length() + 1;
+        if (!line.isBlank()) {
+          try {
+            blockNum[0]++;
+            return fromJson(line);
+          } catch (RuntimeException e) {
+            throw new IOException("Line " + lineNum[0] + ": " + e.getMessage(), e);
+          } // try/catch
+        } // if
+      } // for
+      return null;
+    };
+  } // ndjsonReader(Reader)
+
+  /**
+   * Read blocks in binary.
+   *
+   * @param input
+   *   The bytes.
+   *
+   * @return a reader for those blocks.
+   *
+   * @throws IOException
+   *   If the bytes do not start like a binary export.
+   */
+  static BlockReader binaryReader(InputStream input) throws IOException {
+    InputStream in = new BufferedInputStream(input);
+    byte[] magic = in.readNBytes(MAGIC.length);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not a binary export of a chain");
+    } // if
+    byte[][] record = {new byte[256]};
+    long[] recordNum = {0};
+    return (progress) -> {
+      int len = readVarint(in);
+      if (len < 0) {
+        return null;
+      } // if
+      recordNum[0]++;
+      if (len > MAX_RECORD) {
+        throw new InvalidBlockException((int) recordNum[0] - 1, "Record claims " + len
+            + " bytes, more than " + MAX_RECORD);
+      } // if
+      if (len > record[0].length) {
+        record[0] = new byte[Math.max(len, record[0].length * 2)];
+      } // if
+      if (in.readNBytes(record[0], 0, len) != len) {
+        throw new EOFException("Stream ends in the middle of block " + recordNum[0]);
+      } // if
+      progress.bytes += BlockCodec.varintSize(len) + len;
+      ByteBuffer buf = ByteBuffer.wrap(record[0], 0, len);
+      try {
+        Block blk = BlockCodec.readBlock(buf);
+        if (buf.hasRemaining()) {
+          throw new IllegalArgumentException("Extra bytes after block");
+        } // if
+        return blk;
+      } catch (RuntimeException e) {
+        throw new IOException("Block " + recordNum[0] + ": " + e.getMessage(), e);
+      } // try/catch
+    };
+  } // binaryReader(InputStream)
+
+  /**
+   * Read the first block, make a chain from it, and import the rest.
+   *
+   * @param reader
+   *   Where the blocks come from.
+   * @param check
+   *   The validator for the new chain.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the new chain.
+   */
+  static BlockChain load(BlockReader reader, HashValidator check, PrintWriter log)
+      throws IOException {
+    Block genesis = reader.next(new Progress(null, ""));
+    if (genesis == null) {
+      throw new IOException("No blocks to load");
+    } // if
+    BlockChain chain = new BlockChain(check, false, false, genesis);
+    pump(chain, reader, log);
+    return chain;
+  } // load(BlockReader, HashValidator, PrintWriter)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write blocks as lines of JSON.
+   *
+   * @param snap
+   *   The blocks to write (those that have not been pruned).
+   * @param out
+   *   Where to write them. Flushed, but not closed.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the number of blocks written.
+   *
+   * @throws IOException
+   *   If the blocks cannot be written.
+   */
+  public static long exportNdjson(ChainSnapshot snap, Writer out, PrintWriter log)
+      throws IOException {
+    Writer pen = new BufferedWriter(out, 1 << 16);
+    Progress progress = new Progress(log, "Exported");
+    StringBuilder line = new StringBuilder(256);
+    for (Iterator<Block> blocks = snap.blocks(); blocks.hasNext(); ) {
+      line.setLength(0);
+      toJson(line, blocks.next());
+      line.append('\n');
+      pen.append(line);
+      progress.add(1, line.length());
+    } // for
+    pen.flush();
+    progress.report(System.nanoTime());
+    return progress.blocks;
+  } // exportNdjson(ChainSnapshot, Writer, PrintWriter)
+
+  /**
+   * Write blocks in binary.
+   *
+   * @param snap
+   *   The blocks to write (those that have not been pruned).
+   * @param out
+   *   Where to write them. Flushed, but not closed.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the number of blocks written.
+   *
+   * @throws IOException
+   *   If the blocks cannot be written.
+   */
+  public static long exportBinary(ChainSnapshot snap, OutputStream out, PrintWriter log)
+      throws IOException {
+    OutputStream pen = new BufferedOutputStream(out, 1 << 16);
+    Progress progress = new Progress(log, "Exported");
+    ByteBuffer buf = ByteBuffer.allocate(256);
+    pen.write(MAGIC);
+    for (Iterator<Block> blocks = snap.blocks(); blocks.hasNext(); ) {
+      Block blk = blocks.next();
+      int len = BlockCodec.sizeOf(blk);
+      if (len + BlockCodec.MAX_VARINT_BYTES > buf.capacity()) {
+        buf = ByteBuffer.allocate(2 * (len + BlockCodec.MAX_VARINT_BYTES));
+      } // if
+      buf.clear();
+      BlockCodec.writeVarint(buf, len);
+      BlockCodec.writeBlock(buf, blk);
+      pen.write(buf.array(), 0, buf.position());
+      progress.add(1, buf.position());
+    } // for
+    pen.flush();
+    progress.report(System.nanoTime());
+    return progress.blocks;
+  } // exportBinary(ChainSnapshot, OutputStream, PrintWriter)
+
+  /**
+   * Append blocks from lines of JSON to a chain. Blocks the chain
+   * already has are skipped.
+   *
+   * @param chain
+   *   The chain.
+   * @param in
+   *   The text.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws IOException
+   *   If the text cannot be read or parsed, in which case the blocks
+   *   before the bad one may have been appended.
+   * @throws InvalidBlockException
+   *   If a block cannot be appended, or its record is longer than
+   *   MAX_RECORD, in which case the blocks before it may have been
+   *   appended.
+   */
+  public static long importNdjson(BlockChain chain, Reader in, PrintWriter log)
+      throws IOException {
+    return pump(chain, ndjsonReader(in), log);
+  } // importNdjson(BlockChain, Reader, PrintWriter)
+
+  /**
+   * Append blocks in binary to a chain. Blocks the chain already has
+   * are skipped.
+   *
+   * @param chain
+   *   The chain.
+   * @param in
+   *   The bytes.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the number of blocks appended.
+   *
+   * @throws IOException
+   *   If the bytes cannot be read or parsed, in which case the blocks
+   *   before the bad one may have been appended.
+   * @throws InvalidBlockException
+   *   If a block cannot be appended, or its record is longer than
+   *   MAX_RECORD, in which case the blocks before it may have been
+   *   appended.
+   */
+  public static long importBinary(BlockChain chain, InputStream in, PrintWriter log)
+      throws IOException {
+    return pump(chain, binaryReader(in), log);
+  } // importBinary(BlockChain, InputStream, PrintWriter)
+
+  /**
+   * Make a new chain from lines of JSON, starting with the first block.
+   *
+   * @param in
+   *   The text.
+   * @param check
+   *   The validator for the new chain.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the new chain.
+   *
+   * @throws IOException
+   *   If the text cannot be read or parsed.
+   * @throws IllegalArgumentException
+   *   If the blocks do not form a valid chain.
+   */
+  public static BlockChain loadNdjson(Reader in, HashValidator check, PrintWriter log)
+      throws IOException {
+    return load(ndjsonReader(in), check, log);
+  } // loadNdjson(Reader, HashValidator, PrintWriter)
+
+  /**
+   * Make a new chain from blocks in binary, starting with the first
+   * block.
+   *
+   * @param in
+   *   The bytes.
+   * @param check
+   *   The validator for the new chain.
+   * @param log
+   *   Where to report progress (or null).
+   *
+   * @return the new chain.
+   *
+   * @throws IOException
+   *   If the bytes cannot be read or parsed.
+   * @throws IllegalArgumentException
+   *   If the blocks do not form a valid chain.
+   */
+  public static BlockChain loadBinary(InputStream in, HashValidator check, PrintWriter log)
+      throws IOException {
+    return load(binaryReader(in), check, log);
+  } // loadBinary(InputStream, HashValidator, PrintWriter)
+} // class ChainTransfer
@@ -0,0 +1,212 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The blocks we know about that are not on a chain's main branch,
+ * organized as a tree by their previous hashes. A block may arrive
+ * before its parent, in which case it waits here until the parent
+ * shows up.
+ *
+ * The tree only holds what it is given; the chain decides which
+ * blocks are worth keeping and drops the rest with dropBelow and
+ * evict, which remove a block together with everything that descends
+ * from it.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class ForkTree {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The side blocks, by their own hashes, oldest first. */
+  private LinkedHashMap<Hash, Block> blocks;
+
+  /** The side blocks, grouped by the hashes of their parents. */
+  private HashMap<Hash, List<Block>> children;
+
+  /** The highest floor that dropBelow has been given. */
+  private int floor;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty tree.
+   */
+  ForkTree() {
+    this.blocks = new LinkedHashMap<Hash, Block>();
+    this.children = new HashMap<Hash, List<Block>>();
+    this.floor = 0;
+  } // ForkTree()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a block to the tree. Does nothing if it is already there.
+   *
+   * @param blk
+   *   The block to add.
+   */
+  void add(Block blk) {
+    if (this.blocks.putIfAbsent(blk.getHash(), blk) == null) {
+      this.children.computeIfAbsent(blk.getPrevHash(), (h) -> new ArrayList<Block>()).add(blk);
+    } // if
+  } // add(Block)
+
+  /**
+   * Remove a block from the tree. Its children stay.
+   *
+   * @param blk
+   *   The block to remove.
+   */
+  void remove(Block blk) {
+    if (this.blocks.remove(blk.getHash()) == null) {
+      return;
+    } // if
+    List<Block> siblings = this.children.get(blk.getPrevHash());
+    siblings.remove(blk);
+    if (siblings.isEmpty()) {
+      this.children.remove(blk.getPrevHash());
+    } // if
+  } // remove(Block)
+
+  /**
+   * Remove a block and every side block that descends from it.
+   *
+   * @param blk
+   *   The block at the top of the subtree (which need not be a side
+   *   block itself).
+   *
+   * @return the number of side blocks removed.
+   */
+  int removeTree(Block blk) {
+    int removed = 0;
+    ArrayDeque<Block> todo = new ArrayDeque<Block>();
+    todo.add(blk);
+    while (!todo.isEmpty()) {
+      Block next = todo.poll();
+      if (this.blocks.containsKey(next.getHash())) {
+        remove(next);
+        removed++;
+      } // if
+      todo.addAll(this.children.getOrDefault(next.getHash(), List.of()));
+    } // while
+    return removed;
+  } // removeTree(Block)
+
+  /**
+   * Remove the side blocks numbered below a floor, and everything that
+   * descends from them. Does nothing unless the floor has risen since
+   * the last call.
+   *
+   * @param min
+   *   The lowest number of a block to keep.
+   *
+   * @return the number of side blocks removed.
+   */
+  int dropBelow(int min) {
+    if (min <= this.floor) {
+      return 0;
+    } // if
+    this.floor = min;
+    int removed = 0;
+    for (Block blk : new ArrayList<Block>(this.blocks.values())) {
+      if ((blk.getNum() < min) && this.blocks.containsKey(blk.getHash())) {
+        removed += removeTree(blk);
+      } // if
+    } // for
+    return removed;
+  } // dropBelow(int)
+
+  /**
+   * Remove side blocks, oldest first, along with everything that
+   * descends from them, until at most a number remain.
+   *
+   * @param max
+   *   The most side blocks to leave.
+   * @param victim
+   *   Which blocks we may remove.
+   *
+   * @return the number of side blocks removed.
+   */
+  int evict(int max, Predicate<Block> victim) {
+    int removed = 0;
+    for (Block blk : new ArrayList<Block>(this.blocks.values())) {
+      if (this.blocks.size() <= max) {
+        break;
+      } // if
+      if (this.blocks.containsKey(blk.getHash()) && victim.test(blk)) {
+        removed += removeTree(blk);
+      } // if
+    } // for
+    return removed;
+  } // evict(int, Predicate)
+
+  /**
+   * Find a side block by its hash.
+   *
+   * @param hash
+   *   The hash of the block.
+   *
+   * @return the block, or null if there is no such side block.
+   */
+  Block get(Hash hash) {
+    return this.blocks.get(hash);
+  } // get(Hash)
+
+  /**
+   * Find the longest path of side blocks that starts with the children
+   * of a block. Among paths of equal length, we prefer blocks that
+   * arrived first.
+   *
+   * @param hash
+   *   The hash of the block at which the path starts.
+   *
+   * @return the blocks on the path, in order (empty if the block has
+   *   no children).
+   */
+  List<Block> longestAfter(Hash hash) {
+    // Visit the descendants level by level; the first block we see on
+    // the deepest level ends the path.
+    Block deepest = null;
+    ArrayDeque<Block> level = new ArrayDeque<Block>(this.children.getOrDefault(hash, List.of()));
+    while (!level.isEmpty()) {
+      deepest = level.peekFirst();
+      ArrayDeque<Block> next = new ArrayDeque<Block>();
+      for (Block blk : level) {
+        next.addAll(this.children.getOrDefault(blk.getHash(), List.of()));
+      } // for
+      level = next;
+    } // while
+    ArrayList<Block> path = new ArrayList<Block>();
+    for (Block blk = deepest; blk != null; blk = this.blocks.get(blk.getPrevHash())) {
+      path.add(blk);
+      if (blk.getPrevHash().equals(hash)) {
+        break;
+      } // if
+    } // for
+    Collections.reverse(path);
+    return path;
+  } // longestAfter(Hash)
+
+  /**
+   * Determine how many side blocks there are.
+   *
+   * @return the number of side blocks.
+   */
+  int size() {
+    return this.blocks.size();
+  } // size()
+} // class ForkTree
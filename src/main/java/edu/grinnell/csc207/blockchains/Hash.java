@@ -35,6 +35,20 @@ public class Hash {
     this.hashData = dataCopy;
   } // Hash(byte[])
 
+  /**
+   * Create a new encapsulated hash from part of an array.
+   *
+   * @param data
+   *   The array that holds the hash.
+   * @param offset
+   *   The index of the first byte of the hash.
+   * @param len
+   *   The number of bytes in the hash.
+   */
+  Hash(byte[] data, int offset, int len) {
+    this.hashData = Arrays.copyOfRange(data, offset, offset + len);
+  } // Hash(byte[], int, int)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -109,6 +123,6 @@ public class Hash {
    * @return the hash code.
    */
   public int hashCode() {
-    return this.toString().hashCode();
+    return Arrays.hashCode(this.hashData);
   } // hashCode()
 } // class Hash
@@ -0,0 +1,329 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index from block hashes to the nodes that hold those blocks, so
+ * that we can find a block by hash without walking the chain.
+ *
+ * The index has two modes. The normal mode is a map keyed by the
+ * hashes themselves. The compact mode stores only an eight-byte tag
+ * taken from each hash in an open-addressing table and confirms any
+ * match against the hash stored in the block. Columnar chains always
+ * use the compact mode, since the map's keys would keep a Hash alive
+ * for every block that the columns store as bytes.
+ *
+ * Other threads may read either index while one thread changes it,
+ * and readers never lock. The writer of the compact index bumps a
+ * version before and after each change (so it is odd during one), and
+ * a reader that sees the version change while it probes tries again.
+ * Growing builds a new table and swaps it in, so the old one stays
+ * intact for readers that are still probing it.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class HashIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The initial capacity of the compact table (a power of two). */
+  static final int DEFAULT_CAPACITY = 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** Whether we store tags rather than full hashes. */
+  private boolean compact;
+
+  /** The full map, used when we are not compact. */
+  private ConcurrentHashMap<Hash, Node> map;
+
+  /** The tags of the hashes, used when we are compact. */
+  private long[] tags;
+
+  /** The nodes that correspond to the tags (null for an empty slot). */
+  private Node[] slots;
+
+  /** The number of entries in the compact table. */
+  private int count;
+
+  /** The number of changes begun and finished on the compact table. */
+  private volatile int version;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty index.
+   *
+   * @param compactMode
+   *   True if we should store hash tags rather than full hashes.
+   */
+  HashIndex(boolean compactMode) {
+    this.compact = compactMode;
+    if (compactMode) {
+      this.tags = new long[DEFAULT_CAPACITY];
+      this.slots = new Node[DEFAULT_CAPACITY];
+    } else {
+      this.map = new ConcurrentHashMap<Hash, Node>();
+    } // if/else
+    this.count = 0;
+  } // HashIndex(boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Compute the tag for a hash. Validators usually force the leading
+   * bytes of a hash to be constant, so we take the trailing ones.
+   *
+   * @param hash
+   *   The hash to summarize.
+   *
+   * @return up to eight bytes of the hash packed into a long.
+   */
+  static long tag(Hash hash) {
+    long result = 0;
+    int start = Math.max(0, hash.length() - Long.BYTES);
+    for (int i = start; i < hash.length(); i++) {
+      result = (result << Byte.SIZE) | Byte.toUnsignedLong(hash.get(i));
+    } // for
+    return result;
+  } // tag(Hash)
+
+  /**
+   * Find the home slot for a tag.
+   *
+   * @param t
+   *   The tag.
+   * @param capacity
+   *   The capacity of the table (a power of two).
+   *
+   * @return the slot at which to start probing.
+   */
+  static int home(long t, int capacity) {
+    long mixed = t * 0x9E3779B97F4A7C15L;
+    return (int) (mixed >>> (Long.SIZE - Integer.numberOfTrailingZeros(capacity)));
+  } // home(long, int)
+
+  /**
+   * Put a node into the compact table without checking the load.
+   *
+   * @param t
+   *   The tag of the node's hash.
+   * @param node
+   *   The node.
+   */
+  private void place(long t, Node node) {
+    int mask = this.slots.length - 1;
+    int i = home(t, this.slots.length);
+    while (this.slots[i] != null) {
+      i = (i + 1) & mask;
+    } // while
+    this.tags[i] = t;
+    this.slots[i] = node;
+  } // place(long, Node)
+
+  /**
+   * Double the size of the compact table. Readers may go on using the
+   * old table until we swap in the new one.
+   */
+  private void expand() {
+    long[] oldTags = this.tags;
+    Node[] oldSlots = this.slots;
+    long[] newTags = new long[oldTags.length * 2];
+    Node[] newSlots = new Node[oldSlots.length * 2];
+    int mask = newSlots.length - 1;
+    for (int i = 0; i < oldSlots.length; i++) {
+      if (oldSlots[i] != null) {
+        int j = home(oldTags[i], newSlots.length);
+        while (newSlots[j] != null) {
+          j = (j + 1) & mask;
+        } // while
+        newTags[j] = oldTags[i];
+        newSlots[j] = oldSlots[i];
+      } // if
+    } // for
+    this.tags = newTags;
+    this.slots = newSlots;
+  } // expand()
+
+  /**
+   * Note that we are starting to change the compact table.
+   */
+  private void begin() {
+    this.version++;
+    // Keep the changes that follow from being seen before the bump.
+    VarHandle.storeStoreFence();
+  } // begin()
+
+  /**
+   * Note that we have finished changing the compact table.
+   */
+  private void end() {
+    this.version++;
+  } // end()
+
+  /**
+   * Find the slot that holds a particular node in the compact table.
+   *
+   * @param t
+   *   The tag of the node's hash.
+   * @param node
+   *   The node.
+   *
+   * @return the slot, or -1 if the node is not in the table.
+   */
+  private int slotOf(long t, Node node) {
+    int mask = this.slots.length - 1;
+    for (int i = home(t, this.slots.length); this.slots[i] != null; i = (i + 1) & mask) {
+      if (this.slots[i] == node) {
+        return i;
+      } // if
+    } // for
+    return -1;
+  } // slotOf(long, Node)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a node to the index.
+   *
+   * @param node
+   *   The node to add.
+   */
+  void add(Node node) {
+    Hash hash = node.getData().getHash();
+    if (!this.compact) {
+      this.map.put(hash, node);
+      return;
+    } // if
+    begin();
+    if ((this.count + 1) * 4 > this.slots.length * 3) {
+      expand();
+    } // if
+    place(tag(hash), node);
+    this.count++;
+    end();
+  } // add(Node)
+
+  /**
+   * Remove a node from the index. Does nothing if the node is not
+   * in the index.
+   *
+   * @param node
+   *   The node to remove.
+   */
+  void remove(Node node) {
+    Hash hash = node.getData().getHash();
+    if (!this.compact) {
+      this.map.remove(hash, node);
+      return;
+    } // if
+    int hole = slotOf(tag(hash), node);
+    if (hole < 0) {
+      return;
+    } // if
+    begin();
+    // Shift later members of the probe sequence back so that
+    // lookups never stop early at the hole.
+    int mask = this.slots.length - 1;
+    int i = (hole + 1) & mask;
+    while (this.slots[i] != null) {
+      int h = home(this.tags[i], this.slots.length);
+      if (((i - h) & mask) >= ((i - hole) & mask)) {
+        this.tags[hole] = this.tags[i];
+        this.slots[hole] = this.slots[i];
+        hole = i;
+      } // if
+      i = (i + 1) & mask;
+    } // while
+    this.slots[hole] = null;
+    this.tags[hole] = 0;
+    this.count--;
+    end();
+  } // remove(Node)
+
+  /**
+   * Find the node whose block has a particular hash.
+   *
+   * @param hash
+   *   The hash to look for.
+   *
+   * @return the node, or null if no indexed block has that hash.
+   */
+  Node find(Hash hash) {
+    if (!this.compact) {
+      return this.map.get(hash);
+    } // if
+    long t = tag(hash);
+    while (true) {
+      int before = this.version;
+      if ((before & 1) == 0) {
+        long[] ts = this.tags;
+        Node[] ns = this.slots;
+        // Gather the nodes whose tags match (rarely more than one),
+        // without looking inside them until we know that no change
+        // raced with us.
+        Node first = null;
+        List<Node> others = null;
+        if (ts.length == ns.length) {
+          int mask = ns.length - 1;
+          int i = home(t, ns.length);
+          for (int n = 0; (n < ns.length) && (ns[i] != null); n++) {
+            if ((ts[i] == t) && (first == null)) {
+              first = ns[i];
+            } else if (ts[i] == t) {
+              others = (others == null) ? new ArrayList<Node>() : others;
+              others.add(ns[i]);
+            } // if/else
+            i = (i + 1) & mask;
+          } // for
+        } // if
+        VarHandle.acquireFence();
+        if (this.version == before) {
+          if ((first != null) && first.getData().getHash().equals(hash)) {
+            return first;
+          } // if
+          if (others != null) {
+            for (Node node : others) {
+              if (node.getData().getHash().equals(hash)) {
+                return node;
+              } // if
+            } // for
+          } // if
+          return null;
+        } // if
+      } // if
+      Thread.onSpinWait();
+    } // while
+  } // find(Hash)
+
+  /**
+   * Determine whether the index is compact.
+   *
+   * @return true if the index stores tags rather than full hashes.
+   */
+  boolean isCompact() {
+    return this.compact;
+  } // isCompact()
+
+  /**
+   * Determine how many nodes are in the index.
+   *
+   * @return the number of indexed nodes.
+   */
+  int size() {
+    return this.compact ? this.count : this.map.size();
+  } // size()
+} // class HashIndex
@@ -0,0 +1,66 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Thrown to indicate that one block in a sequence of blocks is not
+ * acceptable, and which one.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class InvalidBlockException extends IllegalArgumentException {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The index of the bad block in the sequence. */
+  private final int index;
+
+  /** What is wrong with the block. */
+  private final String reason;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Build a new exception for the block at a particular index.
+   *
+   * @param badIndex
+   *   The index of the bad block in the sequence.
+   * @param message
+   *   What is wrong with the block.
+   */
+  public InvalidBlockException(int badIndex, String message) {
+    super("Block " + badIndex + " of batch: " + message);
+    this.index = badIndex;
+    this.reason = message;
+  } // InvalidBlockException(int, String)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the index of the bad block in the sequence.
+   *
+   * @return the index.
+   */
+  public int getIndex() {
+    return this.index;
+  } // getIndex()
+
+  /**
+   * Describe the same problem for a longer sequence, of which the
+   * sequence we describe is a part.
+   *
+   * @param offset
+   *   The index of the first block of our sequence in the longer one.
+   *
+   * @return a new exception for the longer sequence.
+   */
+  public InvalidBlockException shift(int offset) {
+    InvalidBlockException result = new InvalidBlockException(this.index + offset, this.reason);
+    result.initCause(this);
+    return result;
+  } // shift(int)
+} // class InvalidBlockException
@@ -0,0 +1,255 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The balance of each user, as plain longs indexed by the users' ids
+ * in the UserDictionary. Looking up or changing a balance indexes two
+ * arrays and allocates nothing. Alongside each balance we keep the
+ * user's entry, so that the dictionary cannot forget the user (and
+ * reuse the id) while we hold a balance for them.
+ *
+ * The balances are kept in fixed-size pages. A copy shares its pages
+ * with the original, and whichever changes a shared page first copies
+ * it, so a checkpoint costs one small array however many users there
+ * are. A ledger is not thread-safe, but once frozen it may be read and
+ * copied by any number of threads.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class Ledger {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of balances in each page, as a power of two. */
+  static final int PAGE_BITS = 8;
+
+  /** The number of balances in each page. */
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  /** The balance of users who have not appeared. */
+  static final long ABSENT = Long.MIN_VALUE;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The pages of balances (null until a user in them appears). */
+  private long[][] pages;
+
+  /** The entries of the users in each page of balances. */
+  private UserDictionary.Entry[][] users;
+
+  /** Which pages this ledger alone holds, and so may change. */
+  private boolean[] owned;
+
+  /** The number of users who have appeared. */
+  private int size;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty ledger.
+   */
+  Ledger() {
+    this.pages = new long[1][];
+    this.users = new UserDictionary.Entry[1][];
+    this.owned = new boolean[1];
+    this.size = 0;
+  } // Ledger()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get a page that we may change, making or copying it if necessary.
+   *
+   * @param page
+   *   The number of the page.
+   *
+   * @return the page.
+   */
+  private long[] writable(int page) {
+    if (page >= this.pages.length) {
+      int length = Math.max(page + 1, this.pages.length * 2);
+      this.pages = Arrays.copyOf(this.pages, length);
+      this.users = Arrays.copyOf(this.users, length);
+      this.owned = Arrays.copyOf(this.owned, length);
+    } // if
+    long[] result = this.pages[page];
+    if (result == null) {
+      result = new long[PAGE_SIZE];
+      Arrays.fill(result, ABSENT);
+      this.pages[page] = result;
+      this.users[page] = new UserDictionary.Entry[PAGE_SIZE];
+      this.owned[page] = true;
+    } else if (!this.owned[page]) {
+      result = result.clone();
+      this.pages[page] = result;
+      this.users[page] = this.users[page].clone();
+      this.owned[page] = true;
+    } // if/else
+    return result;
+  } // writable(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Make a copy of the ledger. Until one of them changes a page, the
+   * two share it.
+   *
+   * @return the copy.
+   */
+  Ledger snapshot() {
+    Ledger result = new Ledger();
+    result.pages = this.pages.clone();
+    result.users = this.users.clone();
+    result.owned = new boolean[this.pages.length];
+    result.size = this.size;
+    freeze();
+    return result;
+  } // snapshot()
+
+  /**
+   * Give up the right to change our pages in place, so that we may be
+   * shared. (We may still change, by copying pages.)
+   *
+   * @return this ledger.
+   */
+  Ledger freeze() {
+    for (int page = 0; page < this.owned.length; page++) {
+      if (this.owned[page]) {
+        this.owned[page] = false;
+      } // if
+    } // for
+    return this;
+  } // freeze()
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param id
+   *   The user's id.
+   *
+   * @return the balance, or ABSENT if the user has not appeared.
+   */
+  private long get(int id) {
+    int page = id >>> PAGE_BITS;
+    if ((page >= this.pages.length) || (this.pages[page] == null)) {
+      return ABSENT;
+    } // if
+    return this.pages[page][id & (PAGE_SIZE - 1)];
+  } // get(int)
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param user
+   *   The user's name.
+   *
+   * @return the balance, or 0 if the user has not appeared.
+   */
+  long get(String user) {
+    UserDictionary.Entry entry = UserDictionary.find(user);
+    return (entry == null) ? 0 : get(entry);
+  } // get(String)
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param user
+   *   The user's entry.
+   *
+   * @return the balance, or 0 if the user has not appeared.
+   */
+  long get(UserDictionary.Entry user) {
+    long result = get(user.id);
+    return (result == ABSENT) ? 0 : result;
+  } // get(UserDictionary.Entry)
+
+  /**
+   * Determine whether a user has appeared.
+   *
+   * @param user
+   *   The user's entry.
+   *
+   * @return true if they have.
+   */
+  boolean has(UserDictionary.Entry user) {
+    return get(user.id) != ABSENT;
+  } // has(UserDictionary.Entry)
+
+  /**
+   * Change a user's balance, adding the user if they have not
+   * appeared.
+   *
+   * @param user
+   *   The user's entry.
+   * @param delta
+   *   The change.
+   *
+   * @return the new balance.
+   */
+  long addTo(UserDictionary.Entry user, long delta) {
+    int page = user.id >>> PAGE_BITS;
+    long[] balances = writable(page);
+    int slot = user.id & (PAGE_SIZE - 1);
+    long old = balances[slot];
+    if (old == ABSENT) {
+      old = 0;
+      this.users[page][slot] = user;
+      this.size++;
+    } // if
+    balances[slot] = old + delta;
+    return balances[slot];
+  } // addTo(UserDictionary.Entry, long)
+
+  /**
+   * Apply a transaction, without checking it.
+   *
+   * @param t
+   *   The transaction.
+   */
+  void apply(Transaction t) {
+    if (!t.getSource().equals("")) {
+      addTo(t.source(), -t.getAmount());
+    } // if
+    addTo(t.target(), t.getAmount());
+  } // apply(Transaction)
+
+  /**
+   * Get the number of users who have appeared.
+   *
+   * @return the number of users.
+   */
+  int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Do something with each user who has appeared and their balance.
+   *
+   * @param action
+   *   What to do.
+   */
+  void forEach(ObjLongConsumer<String> action) {
+    for (int page = 0; page < this.pages.length; page++) {
+      long[] balances = this.pages[page];
+      if (balances != null) {
+        for (int slot = 0; slot < PAGE_SIZE; slot++) {
+          if (balances[slot] != ABSENT) {
+            action.accept(this.users[page][slot].name, balances[slot]);
+          } // if
+        } // for
+      } // if
+    } // for
+  } // forEach(ObjLongConsumer)
+} // class Ledger
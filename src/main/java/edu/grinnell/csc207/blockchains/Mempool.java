@@ -0,0 +1,323 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Transactions that are waiting to be mined into a chain. Any thread
+ * may add transactions. Each is checked against the chain's balances
+ * less what its source has already promised in other pending
+ * transactions, so the pool never holds more spending than a user can
+ * cover. (Money that a user will receive from pending transactions
+ * does not count until it is mined, and users who have not appeared in
+ * the chain cannot spend at all, even nothing.) Balances follow the
+ * same rules as check(), read from one snapshot of the chain per call.
+ *
+ * The miner asks for the next batch, in priority order, and tells the
+ * pool which transactions made it into the chain. When the pool is
+ * full, a new transaction replaces the one with the lowest priority,
+ * if it beats it.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class Mempool {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** Larger amounts first. */
+  public static final Comparator<Transaction> LARGEST_FIRST =
+      Comparator.comparingInt(Transaction::getAmount).reversed();
+
+  /** Everything in the order it arrived. */
+  public static final Comparator<Transaction> ARRIVAL = (a, b) -> 0;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain the transactions are for. */
+  private final BlockChain chain;
+
+  /** The most transactions we hold. */
+  private final int capacity;
+
+  /** The pending transactions, best first. */
+  private final TreeSet<Pending> queue;
+
+  /** The pending transactions, for finding duplicates. */
+  private final HashMap<Transaction, Pending> entries;
+
+  /** The amount that each user spends in pending transactions. */
+  private final HashMap<String, Long> spends;
+
+  /** The number of transactions ever added, to break ties. */
+  private long arrivals;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty pool that mines larger amounts first.
+   *
+   * @param target
+   *   The chain the transactions are for.
+   * @param maxSize
+   *   The most transactions to hold.
+   */
+  public Mempool(BlockChain target, int maxSize) {
+    this(target, maxSize, LARGEST_FIRST);
+  } // Mempool(BlockChain, int)
+
+  /**
+   * Create a new, empty pool. Transactions of equal priority are mined
+   * in the order they arrived.
+   *
+   * @param target
+   *   The chain the transactions are for.
+   * @param maxSize
+   *   The most transactions to hold.
+   * @param order
+   *   Puts the transactions to mine first before the others.
+   *
+   * @throws IllegalArgumentException
+   *   If maxSize is not positive.
+   */
+  public Mempool(BlockChain target, int maxSize, Comparator<Transaction> order) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cannot hold " + maxSize + " transactions");
+    } // if
+    this.chain = target;
+    this.capacity = maxSize;
+    this.queue = new TreeSet<Pending>((a, b) -> {
+      int result = order.compare(a.transaction, b.transaction);
+      return (result != 0) ? result : Long.compare(a.arrival, b.arrival);
+    });
+    this.entries = new HashMap<Transaction, Pending>();
+    this.spends = new HashMap<String, Long>();
+    this.arrivals = 0;
+  } // Mempool(BlockChain, int, Comparator)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find how much a user spends in pending transactions.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the total of their pending transactions.
+   */
+  private long spent(String user) {
+    Long result = this.spends.get(user);
+    return (result == null) ? 0 : result;
+  } // spent(String)
+
+  /**
+   * Forget a pending transaction.
+   *
+   * @param pending
+   *   The transaction, which must be in the pool.
+   */
+  private void drop(Pending pending) {
+    this.queue.remove(pending);
+    this.entries.remove(pending.transaction);
+    String source = pending.transaction.getSource();
+    if (!source.equals("")) {
+      long rest = spent(source) - pending.transaction.getAmount();
+      if (rest == 0) {
+        this.spends.remove(source);
+      } else {
+        this.spends.put(source, rest);
+      } // if/else
+    } // if
+  } // drop(Pending)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a transaction to the pool.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if the transaction was added; false if it is already
+   *   in the pool, or the pool is full of transactions that come first.
+   *
+   * @throws IllegalArgumentException
+   *   If the amount is negative, the source has not appeared in the
+   *   chain, or the source cannot afford it.
+   */
+  public synchronized boolean add(Transaction t) {
+    if (t.getAmount() < 0) {
+      throw new IllegalArgumentException("Invalid transaction amount " + t.getAmount());
+    } // if
+    if (this.entries.containsKey(t)) {
+      return false;
+    } // if
+    String source = t.getSource();
+    if (!source.equals("")) {
+      ChainSnapshot snap = this.chain.snapshot();
+      if (!snap.knows(source)) {
+        throw new IllegalArgumentException("Unknown Source " + source);
+      } // if
+      long available = snap.balance(source) - spent(source);
+      if (available < t.getAmount()) {
+        throw new IllegalArgumentException("Insufficient funds for " + source + ": Has "
+            + available + " needs " + t.getAmount());
+      } // if
+    } // if
+    Pending pending = new Pending(t, this.arrivals++);
+    if (this.queue.size() == this.capacity) {
+      Pending last = this.queue.last();
+      if (this.queue.comparator().compare(pending, last) > 0) {
+        return false;
+      } // if
+      drop(last);
+    } // if
+    this.queue.add(pending);
+    this.entries.put(t, pending);
+    if (!source.equals("")) {
+      this.spends.put(source, spent(source) + t.getAmount());
+    } // if
+    return true;
+  } // add(Transaction)
+
+  /**
+   * Remove a transaction from the pool.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if it was in the pool.
+   */
+  public synchronized boolean remove(Transaction t) {
+    Pending pending = this.entries.get(t);
+    if (pending == null) {
+      return false;
+    } // if
+    drop(pending);
+    return true;
+  } // remove(Transaction)
+
+  /**
+   * Determine whether a transaction is waiting in the pool.
+   *
+   * @param t
+   *   The transaction.
+   *
+   * @return true if it is.
+   */
+  public synchronized boolean contains(Transaction t) {
+    return this.entries.containsKey(t);
+  } // contains(Transaction)
+
+  /**
+   * Get the number of transactions in the pool.
+   *
+   * @return the number of transactions.
+   */
+  public synchronized int size() {
+    return this.queue.size();
+  } // size()
+
+  /**
+   * Get the most transactions the pool holds.
+   *
+   * @return the capacity.
+   */
+  public int getCapacity() {
+    return this.capacity;
+  } // getCapacity()
+
+  /**
+   * Get the next transactions to mine, in priority order. They stay in
+   * the pool until confirm() is told that they are in the chain. Any
+   * that the chain's current balances can no longer cover (e.g.,
+   * because blocks were removed), or whose sources the chain no longer
+   * knows, are skipped.
+   *
+   * @param max
+   *   The most transactions to return.
+   *
+   * @return the transactions.
+   */
+  public synchronized List<Transaction> nextBatch(int max) {
+    List<Transaction> result = new ArrayList<Transaction>();
+    HashMap<String, Long> used = new HashMap<String, Long>();
+    ChainSnapshot snap = this.chain.snapshot();
+    Iterator<Pending> pending = this.queue.iterator();
+    while ((result.size() < max) && pending.hasNext()) {
+      Transaction t = pending.next().transaction;
+      String source = t.getSource();
+      if (!source.equals("")) {
+        long before = used.getOrDefault(source, 0L);
+        if (!snap.knows(source) || (snap.balance(source) - before < t.getAmount())) {
+          continue;
+        } // if
+        used.put(source, before + t.getAmount());
+      } // if
+      result.add(t);
+    } // while
+    return result;
+  } // nextBatch(int)
+
+  /**
+   * Remove the transactions in a block that has been added to the
+   * chain.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the number of transactions removed from the pool.
+   */
+  public synchronized int confirm(Block blk) {
+    int removed = 0;
+    for (Transaction t : blk.getTransactions()) {
+      Pending pending = this.entries.get(t);
+      if (pending != null) {
+        drop(pending);
+        removed++;
+      } // if
+    } // for
+    return removed;
+  } // confirm(Block)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A transaction in the pool.
+   */
+  private static class Pending {
+    /** The transaction. */
+    final Transaction transaction;
+
+    /** When it arrived. */
+    final long arrival;
+
+    /**
+     * Create a new pending transaction.
+     *
+     * @param t
+     *   The transaction.
+     * @param when
+     *   When it arrived.
+     */
+    Pending(Transaction t, long when) {
+      this.transaction = t;
+      this.arrival = when;
+    } // Pending(Transaction, long)
+  } // class Pending
+} // class Mempool
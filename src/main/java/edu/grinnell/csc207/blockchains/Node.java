@@ -21,6 +21,16 @@ public class Node {
    */
   private Block blockData;
 
+  /**
+   * the position of our block in the chain (set when the node is linked).
+   */
+  int position;
+
+  /**
+   * the columns that hold our block, if we do not hold it ourselves.
+   */
+  BlockColumns.Chunk chunk;
+
   /**
    * Creates a new node.
    * @param prev
@@ -36,14 +46,36 @@ public class Node {
     this.nextNode = next;
   } // Node(prev, next, data)
 
+  /**
+   * Creates a new node whose block is kept in columns.
+   * @param prev
+   *  the previous node pointed to in the linked list.
+   * @param next
+   *  the next node pointed to in the linked list.
+   * @param columns
+   *  the chunk of columns that holds our block.
+   * @param pos
+   *  the position of our block in the chain.
+   */
+  Node(Node prev, Node next, BlockColumns.Chunk columns, int pos) {
+    this.prevNode = prev;
+    this.nextNode = next;
+    this.chunk = columns;
+    this.position = pos;
+  } // Node(prev, next, columns, pos)
+
   //methods
 
   /**
-   * accessor method for the data stored in our block field.
+   * accessor method for the data stored in our block field. If our
+   * block is kept in columns, this builds a new copy of it each time.
    * @return
    *  the data from our block.
    */
   public Block getData() {
+    if (this.chunk != null) {
+      return this.chunk.block(this.position);
+    } // if
     return blockData;
   } //getData()
 } //Node
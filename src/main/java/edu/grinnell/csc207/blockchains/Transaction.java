@@ -1,30 +1,43 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.nio.ByteBuffer;
+
 /**
- * A simple transaction.
+ * A simple transaction. Transactions are values: they never change,
+ * and two with the same source, target, and amount are equal.
  *
  * @author
  *   Samuel A. Rebelsky
  */
-public class Transaction {
+public final class Transaction {
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
 
   /**
-   * The source of a transfer.
+   * The source of a transfer (shared with every other transaction
+   * that names the same user).
    */
-  private String source;
+  private final UserDictionary.Entry source;
 
   /**
-   * The target of a transfer.
+   * The target of a transfer (shared likewise).
    */
-  private String target;
+  private final UserDictionary.Entry target;
 
   /**
    * The amount transferred.
    */
-  private int amount;
+  private final int amount;
+
+  /** The hash code, computed from the fields once. */
+  private final int hash;
+
+  /** The encoding of the transaction in legacy block headers. */
+  private volatile byte[] legacy;
+
+  /** The encoding of the transaction in canonical block headers. */
+  private volatile byte[] canonical;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -42,10 +55,28 @@ public class Transaction {
    *   The funds transfered.
    */
   public Transaction(String src, String tgt, int amt) {
+    this(UserDictionary.intern(src), UserDictionary.intern(tgt), amt);
+  } // Transaction(src)
+
+  /**
+   * Create a new Transaction between users we already know.
+   *
+   * @param src
+   *   The source of the transaction (or the entry for the empty
+   *   string, for a deposit).
+   * @param tgt
+   *   The person receiving the transaction.
+   * @param amt
+   *   The funds transfered.
+   */
+  Transaction(UserDictionary.Entry src, UserDictionary.Entry tgt, int amt) {
     this.source = src;
     this.target = tgt;
     this.amount = amt;
-  } // Transaction(src)
+    // Each name has its own id, so the ids stand in for the names.
+    int h = (src.id * 31 + tgt.id) * 0x9E3779B9 + amt;
+    this.hash = h ^ (h >>> 16);
+  } // Transaction(UserDictionary.Entry, UserDictionary.Entry, int)
 
   // +---------+-----------------------------------------------------
   // | Methods |
@@ -57,18 +88,36 @@ public class Transaction {
    * @return The source (or the empty string, if it'sa deposit).
    */
   public String getSource() {
-    return this.source;
+    return this.source.name;
   } // getSource()
 
+  /**
+   * Get the dictionary entry for the source of the transaction.
+   *
+   * @return The entry for the source.
+   */
+  UserDictionary.Entry source() {
+    return this.source;
+  } // source()
+
   /**
    * Get the target of the transaction.
    *
    * @return The target.
    */
   public String getTarget() {
-    return this.target;
+    return this.target.name;
   } // getTarget()
 
+  /**
+   * Get the dictionary entry for the target of the transaction.
+   *
+   * @return The entry for the target.
+   */
+  UserDictionary.Entry target() {
+    return this.target;
+  } // target()
+
   /**
    * Get the amount of the transaction.
    *
@@ -78,6 +127,38 @@ public class Transaction {
     return this.amount;
   } // getAmount()
 
+  /**
+   * Get the encoding of the transaction in a block header, which we
+   * compute only once for each format.
+   *
+   * @param format
+   *   Block.LEGACY or Block.CANONICAL.
+   *
+   * @return the encoding. Clients must not change it.
+   */
+  byte[] encoding(int format) {
+    if (format == Block.LEGACY) {
+      byte[] result = this.legacy;
+      if (result == null) {
+        result = ByteBuffer.allocate(this.source.bytes.length + this.target.bytes.length
+            + Integer.BYTES)
+            .put(this.source.bytes).put(this.target.bytes).putInt(this.amount).array();
+        this.legacy = result;
+      } // if
+      return result;
+    } // if
+    byte[] result = this.canonical;
+    if (result == null) {
+      result = ByteBuffer.allocate(this.source.utf8.length + this.target.utf8.length
+          + 3 * Integer.BYTES)
+          .putInt(this.source.utf8.length).put(this.source.utf8)
+          .putInt(this.target.utf8.length).put(this.target.utf8)
+          .putInt(this.amount).array();
+      this.canonical = result;
+    } // if
+    return result;
+  } // encoding(int)
+
   /**
    * Convert to string form.
    *
@@ -86,19 +167,18 @@ public class Transaction {
    *    a string in the form [Deposit, Target: target, Amount: amount].
    */
   public String toString() {
-    return String.format("[%s, Target: %s, Amount: %s]",
-        ("".equals(this.source)) ? "Deposit" : "Source: " + this.source,
-        this.target,
-        this.amount);
+    return (this.source.name.isEmpty() ? "[Deposit" : "[Source: " + this.source.name)
+        + ", Target: " + this.target.name + ", Amount: " + this.amount + "]";
   } // toString()
 
   /**
-   * Get a hash code.
+   * Get a hash code, which depends only on the source, target, and
+   * amount.
    *
    * @return the hash code.
    */
   public int hashCode() {
-    return this.toString().hashCode();
+    return this.hash;
   } // hashCode()
 
   /**
@@ -125,8 +205,11 @@ public class Transaction {
    *   and value.
    */
   public boolean equals(Transaction other) {
-    return other.source.equals(this.source)
-        && other.target.equals(this.target)
-        && other.amount == this.amount;
+    // Names are shared, so the same name is the same entry.
+    return (other != null)
+        && (other.hash == this.hash)
+        && (other.source == this.source)
+        && (other.target == this.target)
+        && (other.amount == this.amount);
   } // equals(Transaction)
 } // class Transaction
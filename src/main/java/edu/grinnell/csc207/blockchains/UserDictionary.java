@@ -0,0 +1,216 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The names of the users that transactions mention. Each name is
+ * stored once, with a small number that identifies it and the bytes
+ * that go into block hashes, so that transactions can share the name
+ * and blocks need not encode it again.
+ *
+ * Any thread may look up names. The dictionary holds its entries only
+ * weakly: transactions, stored blocks, and ledgers hold on to the
+ * entries they use, and once nothing does, the collector may take the
+ * entry and we reuse its id. So names that only ever appeared in
+ * rejected or unmined transactions, from whatever source, do not stay
+ * in memory. Ids are compared only among entries that are still held,
+ * so reuse is safe.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+final class UserDictionary {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The entry for each name. */
+  private static final ConcurrentHashMap<String, Ref> ENTRIES =
+      new ConcurrentHashMap<String, Ref>();
+
+  /** Where the collector puts the references to entries it takes. */
+  private static final ReferenceQueue<Entry> CLEARED = new ReferenceQueue<Entry>();
+
+  /** The entries, by id (null for ids that are free). */
+  private static volatile Ref[] byId = new Ref[64];
+
+  /** The ids that have been freed, for reuse. */
+  private static int[] free = new int[16];
+
+  /** The number of ids in free. */
+  private static int freeCount = 0;
+
+  /** The number of ids ever handed out. */
+  private static int count = 0;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prevent instantiation.
+   */
+  private UserDictionary() {
+  } // UserDictionary()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Forget the entries that the collector has taken and free their
+   * ids. Call only while holding the lock on ENTRIES.
+   */
+  private static void reclaim() {
+    for (Ref ref = (Ref) CLEARED.poll(); ref != null; ref = (Ref) CLEARED.poll()) {
+      ENTRIES.remove(ref.name, ref);
+      byId[ref.id] = null;
+      if (freeCount == free.length) {
+        free = Arrays.copyOf(free, freeCount * 2);
+      } // if
+      free[freeCount++] = ref.id;
+    } // for
+  } // reclaim()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the entry for a name, adding one if necessary.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the one entry for that name.
+   */
+  static Entry intern(String name) {
+    Entry entry = find(name);
+    if (entry != null) {
+      return entry;
+    } // if
+    synchronized (ENTRIES) {
+      reclaim();
+      entry = find(name);
+      if (entry == null) {
+        int id = (freeCount > 0) ? free[--freeCount] : count++;
+        Ref[] entries = byId;
+        if (id == entries.length) {
+          entries = Arrays.copyOf(entries, id * 2);
+        } // if
+        entry = new Entry(name, id);
+        Ref ref = new Ref(entry);
+        entries[id] = ref;
+        byId = entries;
+        ENTRIES.put(entry.name, ref);
+      } // if
+    } // synchronized
+    return entry;
+  } // intern(String)
+
+  /**
+   * Get the entry for a name, without adding one.
+   *
+   * @param name
+   *   The name.
+   *
+   * @return the entry for that name, or null if nothing that mentions
+   *   it is still around.
+   */
+  static Entry find(String name) {
+    Ref ref = ENTRIES.get(name);
+    return (ref == null) ? null : ref.get();
+  } // find(String)
+
+  /**
+   * Get the entry with a particular id.
+   *
+   * @param id
+   *   The id, which must have come from an entry that is still held.
+   *
+   * @return the entry.
+   */
+  static Entry get(int id) {
+    return byId[id].get();
+  } // get(int)
+
+  /**
+   * Determine how many names we know. Names whose entries the collector
+   * has taken count until the next call to intern().
+   *
+   * @return the number of names.
+   */
+  static int size() {
+    return ENTRIES.size();
+  } // size()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * One user name.
+   */
+  static final class Entry {
+    /** The name (the one copy that transactions share). */
+    final String name;
+
+    /** The id of the name. */
+    final int id;
+
+    /**
+     * The name as it goes into legacy block headers. That is the
+     * platform's default encoding, which is UTF-8 on most systems.
+     */
+    final byte[] bytes;
+
+    /** The name in UTF-8, as it goes into canonical block headers. */
+    final byte[] utf8;
+
+    /**
+     * Create a new entry.
+     *
+     * @param userName
+     *   The name.
+     * @param userId
+     *   The id of the name.
+     */
+    Entry(String userName, int userId) {
+      this.name = userName;
+      this.id = userId;
+      this.bytes = userName.getBytes();
+      this.utf8 = Charset.defaultCharset().equals(StandardCharsets.UTF_8)
+          ? this.bytes
+          : userName.getBytes(StandardCharsets.UTF_8);
+    } // Entry(String, int)
+  } // class Entry
+
+  /**
+   * A weak reference to an entry that remembers what to forget when
+   * the collector takes the entry.
+   */
+  private static final class Ref extends WeakReference<Entry> {
+    /** The name of the entry. */
+    final String name;
+
+    /** The id of the entry. */
+    final int id;
+
+    /**
+     * Refer to an entry.
+     *
+     * @param entry
+     *   The entry.
+     */
+    Ref(Entry entry) {
+      super(entry, CLEARED);
+      this.name = entry.name;
+      this.id = entry.id;
+    } // Ref(Entry)
+  } // class Ref
+} // class UserDictionary
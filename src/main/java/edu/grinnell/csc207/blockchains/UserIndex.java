@@ -0,0 +1,320 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index from each user to the (ordered) positions of the blocks
+ * in which that user appears as source or target, along with the
+ * user's balance after each of those blocks.
+ *
+ * One thread may update the index while others read it. Readers pass
+ * the size of the chain they are looking at and ignore any later
+ * postings. Entries that a reader may see are never overwritten in
+ * place, but removing blocks does change which postings exist, so
+ * readers must check the chain for removals after reading.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+class UserIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The initial capacity of a postings list. */
+  static final int DEFAULT_CAPACITY = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The postings list for each user. */
+  private ConcurrentHashMap<String, Postings> postings;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty index.
+   */
+  UserIndex() {
+    this.postings = new ConcurrentHashMap<String, Postings>();
+  } // UserIndex()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Note that a user appears in the block at a given position.
+   *
+   * @param user
+   *   The user (ignored if empty).
+   * @param pos
+   *   The position of the block.
+   * @param delta
+   *   The change in the user's balance in that block.
+   */
+  private void post(String user, int pos, long delta) {
+    if (user.equals("")) {
+      return;
+    } // if
+    Postings list = this.postings.get(user);
+    if (list == null) {
+      list = new Postings();
+      this.postings.put(user, list);
+    } // if
+    list.add(pos, delta);
+  } // post(String, int, long)
+
+  /**
+   * Forget that a user appears in the block at a given position,
+   * which must be the last block in which they appear.
+   *
+   * @param user
+   *   The user (ignored if empty).
+   * @param pos
+   *   The position of the block.
+   */
+  private void unpost(String user, int pos) {
+    Postings list = this.postings.get(user);
+    if ((list == null) || (list.count == 0) || (list.positions[list.count - 1] != pos)) {
+      return;
+    } // if
+    list.removeLast();
+    if ((list.count == 0) && (list.carry == 0)) {
+      this.postings.remove(user);
+    } // if
+  } // unpost(String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Index a transaction in the block at a given position. Blocks
+   * must be added in increasing order of position, and all the
+   * transactions in a block together.
+   *
+   * @param pos
+   *   The position of the block in the chain.
+   * @param t
+   *   The transaction in that block.
+   */
+  void add(int pos, Transaction t) {
+    if (t.getTarget().equals(t.getSource())) {
+      post(t.getTarget(), pos, 0);
+    } else {
+      post(t.getSource(), pos, -t.getAmount());
+      post(t.getTarget(), pos, t.getAmount());
+    } // if/else
+  } // add(int, Transaction)
+
+  /**
+   * Remove the transactions in the last indexed block. Call once for
+   * each transaction in the block.
+   *
+   * @param pos
+   *   The position of the block in the chain.
+   * @param t
+   *   The transaction in that block.
+   */
+  void remove(int pos, Transaction t) {
+    unpost(t.getSource(), pos);
+    unpost(t.getTarget(), pos);
+  } // remove(int, Transaction)
+
+  /**
+   * Find a page of the positions of the blocks in which a user appears.
+   *
+   * @param user
+   *   The user.
+   * @param from
+   *   The first position to consider.
+   * @param limit
+   *   The largest number of positions to return.
+   * @param end
+   *   One past the last position to consider.
+   *
+   * @return the positions, in increasing order.
+   */
+  int[] positions(String user, int from, int limit, int end) {
+    Postings list = this.postings.get(user);
+    if ((list == null) || (limit <= 0)) {
+      return new int[0];
+    } // if
+    int count = list.count;
+    int[] positions = list.positions;
+    count = Math.min(count, positions.length);
+    int start = Postings.before(positions, count, from);
+    int stop = Postings.before(positions, count, end);
+    stop = (int) Math.min((long) start + limit, stop);
+    return Arrays.copyOfRange(positions, start, Math.max(start, stop));
+  } // positions(String, int, int, int)
+
+  /**
+   * Determine how many blocks a user appears in.
+   *
+   * @param user
+   *   The user.
+   * @param end
+   *   One past the last position to consider.
+   *
+   * @return the number of blocks.
+   */
+  int count(String user, int end) {
+    Postings list = this.postings.get(user);
+    if (list == null) {
+      return 0;
+    } // if
+    int count = list.count;
+    int[] positions = list.positions;
+    return Postings.before(positions, Math.min(count, positions.length), end);
+  } // count(String, int)
+
+  /**
+   * Find a user's balance after the block at a given position, which
+   * must not have been pruned.
+   *
+   * @param user
+   *   The user.
+   * @param pos
+   *   The position of the block.
+   *
+   * @return the balance after that block (0 if the user has not yet
+   *   appeared).
+   */
+  long balanceAt(String user, int pos) {
+    Postings list = this.postings.get(user);
+    if (list == null) {
+      return 0;
+    } // if
+    int count = list.count;
+    int[] positions = list.positions;
+    long[] balances = list.balances;
+    count = Math.min(count, Math.min(positions.length, balances.length));
+    int i = Postings.before(positions, count, pos + 1) - 1;
+    return (i < 0) ? list.carry : balances[i];
+  } // balanceAt(String, int)
+
+  /**
+   * Forget the postings for all blocks before a particular position,
+   * remembering only each user's balance at that point.
+   *
+   * @param base
+   *   The position of the first block to keep.
+   */
+  void prune(int base) {
+    for (Postings list : this.postings.values()) {
+      list.prune(base);
+    } // for
+  } // prune(int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A growable, ordered list of block positions, with the running
+   * balance after each. Readers must read count before the arrays.
+   */
+  static class Postings {
+    /** The positions. Only the first count are meaningful. */
+    volatile int[] positions = new int[DEFAULT_CAPACITY];
+
+    /** The balance after the block at the corresponding position. */
+    volatile long[] balances = new long[DEFAULT_CAPACITY];
+
+    /** The number of positions. */
+    volatile int count = 0;
+
+    /** The balance before the first position (from pruned blocks). */
+    volatile long carry = 0;
+
+    /**
+     * Whether a reader may have seen the slot after the last position,
+     * so that we must copy the arrays before writing to it again.
+     */
+    boolean shared = false;
+
+    /**
+     * Count the positions before a particular position.
+     *
+     * @param positions
+     *   The positions, in increasing order.
+     * @param count
+     *   The number of meaningful positions.
+     * @param pos
+     *   The position to look for.
+     *
+     * @return the number of positions less than pos.
+     */
+    static int before(int[] positions, int count, int pos) {
+      int i = Arrays.binarySearch(positions, 0, count, pos);
+      return (i < 0) ? -(i + 1) : i;
+    } // before(int[], int, int)
+
+    /**
+     * Add a position to the end of the list. If it is already the last
+     * position (because the block holds several transactions), change
+     * the balance there instead; readers cannot see that position yet.
+     *
+     * @param pos
+     *   The position to add.
+     * @param delta
+     *   The change in balance at that position.
+     */
+    void add(int pos, long delta) {
+      int n = this.count;
+      if ((n > 0) && (this.positions[n - 1] == pos)) {
+        this.balances[n - 1] += delta;
+        return;
+      } // if
+      if (this.shared || (n == this.positions.length)) {
+        int capacity = (n == this.positions.length) ? n * 2 : this.positions.length;
+        this.positions = Arrays.copyOf(this.positions, capacity);
+        this.balances = Arrays.copyOf(this.balances, capacity);
+        this.shared = false;
+      } // if
+      long prev = (n == 0) ? this.carry : this.balances[n - 1];
+      this.positions[n] = pos;
+      this.balances[n] = prev + delta;
+      this.count = n + 1;
+    } // add(int, long)
+
+    /**
+     * Remove the positions before a particular position, carrying the
+     * balance forward. Never changes arrays in place.
+     *
+     * @param base
+     *   The first position to keep.
+     */
+    void prune(int base) {
+      int n = this.count;
+      int k = before(this.positions, n, base);
+      if (k == 0) {
+        return;
+      } // if
+      int capacity = Math.max(DEFAULT_CAPACITY, n - k);
+      int[] newPositions = new int[capacity];
+      long[] newBalances = new long[capacity];
+      System.arraycopy(this.positions, k, newPositions, 0, n - k);
+      System.arraycopy(this.balances, k, newBalances, 0, n - k);
+      this.carry = this.balances[k - 1];
+      this.positions = newPositions;
+      this.balances = newBalances;
+      this.count = n - k;
+      this.shared = false;
+    } // prune(int)
+
+    /**
+     * Remove the last position from the list.
+     */
+    void removeLast() {
+      this.count--;
+      this.shared = true;
+    } // removeLast()
+  } // class Postings
+} // class UserIndex
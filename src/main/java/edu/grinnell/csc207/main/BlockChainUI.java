@@ -1,12 +1,28 @@
 package edu.grinnell.csc207.main;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 import edu.grinnell.csc207.blockchains.Block;
 import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainServer;
+import edu.grinnell.csc207.blockchains.ChainTransfer;
 import edu.grinnell.csc207.blockchains.HashValidator;
 import edu.grinnell.csc207.blockchains.Transaction;
 import edu.grinnell.csc207.util.IOUtils;
@@ -14,6 +30,25 @@ import edu.grinnell.csc207.util.IOUtils;
 /**
  * A simple UI for our BlockChain class.
  *
+ * Run with no arguments to be prompted for each command and its
+ * arguments. Run with <code>--batch [file]</code> to read commands
+ * from a file (or, without a file or with "-", from standard input),
+ * one per line, with the arguments on the same line after the command,
+ * separated by tabs:
+ *
+ * <pre>
+ *   append	Alice	Bob	10	123456789
+ *   balance	Bob
+ *   # Comments and blank lines are ignored.
+ * </pre>
+ *
+ * An empty source is a deposit. Batch mode prints no prompts, buffers
+ * its output, reports bad lines rather than asking again, and ends
+ * with the time taken by each kind of command.
+ *
+ * Run with <code>--serve [port]</code> to serve a new chain over HTTP
+ * instead (see ChainServer).
+ *
  * @author Your Name Here
  * @author Samuel A. Rebelsky
  */
@@ -27,6 +62,16 @@ public class BlockChainUI {
    */
   static final int VALIDATOR_BYTES = 3;
 
+  /**
+   * The size of the buffers for batch input and output.
+   */
+  static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The port we serve the chain on, unless told otherwise.
+   */
+  static final int DEFAULT_PORT = 8207;
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
@@ -48,10 +93,241 @@ public class BlockChainUI {
         balance: finds a user's balance
         transactions: prints out the chain of transactions
         blocks: prints out the chain of blocks (for debugging only)
+        export: writes the chain to a file (.ndjson for text, else binary)
+        import: replaces the chain with one read from such a file
         help: prints this list of commands
         quit: quits the program""");
   } // instructions(PrintWriter)
 
+  /**
+   * Determine whether a file holds text rather than binary.
+   *
+   * @param file
+   *   The name of the file.
+   *
+   * @return true if the file name ends with .ndjson or .json.
+   */
+  static boolean isText(String file) {
+    return file.endsWith(".ndjson") || file.endsWith(".json");
+  } // isText(String)
+
+  /**
+   * Build the validator that the UI uses.
+   *
+   * @param bytes
+   *   The number of leading bytes that must be zero.
+   *
+   * @return the validator.
+   */
+  static HashValidator validator(int bytes) {
+    return (h) -> {
+      if (h.length() < bytes) {
+        return false;
+      } // if
+      for (int v = 0; v < bytes; v++) {
+        if (h.get(v) != 0) {
+          return false;
+        } // if
+      } // for
+      return true;
+    };
+  } // validator(int)
+
+  /**
+   * Carry out one command.
+   *
+   * @param session
+   *   The chain and validator to work with.
+   * @param command
+   *   The command.
+   * @param args
+   *   Where to get the command's arguments.
+   * @param pen
+   *   Where to print the results.
+   *
+   * @return false if the command was quit; true otherwise.
+   *
+   * @throws IOException
+   *   If we cannot read the arguments.
+   */
+  static boolean execute(Session session, String command, Arguments args, PrintWriter pen)
+      throws IOException {
+    BlockChain chain = session.chain;
+    String source;
+    String target;
+    String user;
+    int amount;
+    long nonce;
+
+    switch (command.toLowerCase()) {
+      case "append":
+        source = args.text("Source (return for deposit): ");
+        target = args.text("Target: ");
+        amount = args.integer("Amount: ");
+        nonce = args.number("Nonce: ");
+        Block newBlock = new Block(chain.getSize(),
+            (new Transaction(source, target, amount)), chain.getHash(), nonce);
+        try {
+          chain.append(newBlock);
+          pen.println("Appended: " + newBlock.toString());
+        } catch (Exception e) {
+          pen.println("Could not append: " + e.getMessage());
+        } // try/catch
+        break;
+
+      case "balance":
+        user = args.text("User: ");
+        long balance = chain.snapshot().balance(user);
+        pen.println(user + "'s balance is " + balance);
+        break;
+
+      case "blocks":
+        Iterator<Block> blocks = chain.blocks();
+        while (blocks.hasNext()) {
+          pen.println(blocks.next().toString());
+        } //while
+        break;
+
+      case "check":
+        try {
+          chain.check();
+          pen.println("The blockchain checks out.");
+        } catch (Exception e) {
+          pen.println(e.getMessage());
+        } // try/catch
+        break;
+
+      case "export":
+        String exportFile = args.text("File: ");
+        try {
+          if (isText(exportFile)) {
+            try (Writer out = new FileWriter(exportFile, StandardCharsets.UTF_8)) {
+              ChainTransfer.exportNdjson(chain.snapshot(), out, pen);
+            } // try
+          } else {
+            try (OutputStream out = new FileOutputStream(exportFile)) {
+              ChainTransfer.exportBinary(chain.snapshot(), out, pen);
+            } // try
+          } // if/else
+        } catch (Exception e) {
+          pen.println("Could not export: " + e.getMessage());
+        } // try/catch
+        break;
+
+      case "import":
+        String importFile = args.text("File: ");
+        try {
+          if (isText(importFile)) {
+            try (Reader in = new FileReader(importFile, StandardCharsets.UTF_8)) {
+              session.chain = ChainTransfer.loadNdjson(in, session.validator, pen);
+            } // try
+          } else {
+            try (InputStream in = new FileInputStream(importFile)) {
+              session.chain = ChainTransfer.loadBinary(in, session.validator, pen);
+            } // try
+          } // if/else
+        } catch (Exception e) {
+          pen.println("Could not import: " + e.getMessage());
+        } // try/catch
+        break;
+
+      case "help":
+        instructions(pen);
+        break;
+
+      case "mine":
+        source = args.text("Source (return for deposit): ");
+        target = args.text("Target: ");
+        amount = args.integer("Amount: ");
+        Block b = chain.mine(new Transaction(source, target, amount));
+        pen.println("Use nonce: " + b.getNonce());
+        break;
+
+      case "quit":
+        return false;
+
+      case "remove":
+        chain.removeLast();
+        pen.println("Last value in blockchain removed");
+        break;
+
+      case "transactions":
+        for (Transaction obj : chain) {
+          pen.println(obj.toString());
+        } // for
+        break;
+
+      case "users":
+        Iterator<String> users = chain.users();
+        while (users.hasNext()) {
+          pen.println(users.next());
+        } //while
+        break;
+
+      default:
+        pen.println("invalid command entered, please try again");
+        break;
+    } // switch
+    return true;
+  } // execute(Session, String, Arguments, PrintWriter)
+
+  /**
+   * Run commands from a script, as described above.
+   *
+   * @param session
+   *   The chain and validator to work with.
+   * @param eyes
+   *   Where to read the commands.
+   * @param pen
+   *   Where to print the results. Not flushed until the end.
+   *
+   * @return the number of commands run.
+   *
+   * @throws IOException
+   *   If we cannot read the script.
+   */
+  static long runBatch(Session session, BufferedReader eyes, PrintWriter pen)
+      throws IOException {
+    TreeMap<String, long[]> times = new TreeMap<String, long[]>();
+    long count = 0;
+    long lineNum = 0;
+    long start = System.nanoTime();
+    String line;
+    boolean more = true;
+    while (more && ((line = eyes.readLine()) != null)) {
+      lineNum++;
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      } // if
+      LineArguments args = new LineArguments(line, lineNum);
+      String command = args.command();
+      long before = System.nanoTime();
+      try {
+        more = execute(session, command, args, pen);
+        args.finish();
+      } catch (LineException e) {
+        pen.println(e.getMessage());
+      } catch (RuntimeException e) {
+        pen.println(args.error("Could not " + command + ": " + e).getMessage());
+      } // try/catch
+      long[] time = times.computeIfAbsent(command.toLowerCase(), (c) -> new long[2]);
+      time[0]++;
+      time[1] += System.nanoTime() - before;
+      count++;
+    } // while
+    long elapsed = System.nanoTime() - start;
+
+    pen.printf("%n%-14s %10s %12s %12s%n", "command", "count", "total ms", "mean us");
+    for (Map.Entry<String, long[]> entry : times.entrySet()) {
+      long[] time = entry.getValue();
+      pen.printf("%-14s %10d %12.1f %12.2f%n", entry.getKey(), time[0], time[1] / 1e6,
+          time[1] / 1e3 / time[0]);
+    } // for
+    pen.printf("%-14s %10d %12.1f%n", "(all)", count, elapsed / 1e6);
+    pen.flush();
+    return count;
+  } // runBatch(Session, BufferedReader, PrintWriter)
+
   // +------+--------------------------------------------------------
   // | Main |
   // +------+
@@ -60,37 +336,65 @@ public class BlockChainUI {
    * Run the UI.
    *
    * @param args
-   *   Command-line arguments (currently ignored).
+   *   Command-line arguments: nothing, for the interactive UI,
+   *   --batch and an optional script file, or --serve and an optional
+   *   port.
+   *
+   * @throws IOException
+   *   If we cannot read the input or the script, or cannot serve on
+   *   the port.
+   * @throws InterruptedException
+   *   If we are interrupted while serving.
    */
-  public static void main(String[] args) throws Exception {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    // Set up our blockchain.
+    HashValidator validator = validator(VALIDATOR_BYTES);
+    Session session = new Session(validator, new BlockChain(validator));
+
+    if ((args.length > 0) && args[0].equals("--serve")) {
+      int port = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+      // Keep responses from waiting for delayed ACKs (see ChainServer).
+      if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+      } // if
+      ChainServer server = new ChainServer(session.chain, port);
+      server.start();
+      System.out.println("Serving the chain on port " + server.getPort());
+      Thread.currentThread().join();
+    } // if
+
+    if ((args.length > 0) && args[0].equals("--batch")) {
+      String script = (args.length > 1) ? args[1] : "-";
+      Reader source = script.equals("-")
+          ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+          : new FileReader(script, StandardCharsets.UTF_8);
+      try (BufferedReader eyes = new BufferedReader(source, BUFFER_SIZE);
+          PrintWriter pen = new PrintWriter(new BufferedWriter(
+              new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE))) {
+        runBatch(session, eyes, pen);
+      } // try
+      return;
+    } // if
+
     PrintWriter pen = new PrintWriter(System.out, true);
     BufferedReader eyes = new BufferedReader(new InputStreamReader(System.in));
+    Arguments prompts = new Arguments() {
+      public String text(String prompt) throws IOException {
+        return IOUtils.readLine(pen, eyes, prompt);
+      } // text(String)
 
-    // Set up our blockchain.
-    HashValidator validator =
-        (h) -> {
-          if (h.length() < VALIDATOR_BYTES) {
-            return false;
-          } // if
-          for (int v = 0; v < VALIDATOR_BYTES; v++) {
-            if (h.get(v) != 0) {
-              return false;
-            } // if
-          } // for
-          return true;
-        };
-    BlockChain chain = new BlockChain(validator);
+      public int integer(String prompt) throws IOException {
+        return IOUtils.readInt(pen, eyes, prompt);
+      } // integer(String)
+
+      public long number(String prompt) throws IOException {
+        return IOUtils.readLong(pen, eyes, prompt);
+      } // number(String)
+    };
 
     instructions(pen);
 
     boolean done = false;
-
-    String source;
-    String target;
-    String user;
-    int amount;
-    long nonce;
-
     while (!done) {
       pen.print("\nCommand: ");
       pen.flush();
@@ -98,87 +402,195 @@ public class BlockChainUI {
       if (command == null) {
         command = "quit";
       } // if
-
-      switch (command.toLowerCase()) {
-        case "append":
-          source = IOUtils.readLine(pen, eyes, "Source (return for deposit): ");
-          target = IOUtils.readLine(pen, eyes, "Target: ");
-          amount = IOUtils.readInt(pen, eyes, "Amount: ");
-          nonce = IOUtils.readLong(pen, eyes, "Nonce: ");
-          Block newBlock = new Block(chain.getSize(),
-              (new Transaction(source, target, amount)), chain.getHash(), nonce);
-          try {
-            chain.append(newBlock);
-          } catch (Exception e) {
-            pen.println("Could not append: " + e.getMessage());
-          } // try/catch
-          pen.println("Appended: " + newBlock.toString());
-          break;
-
-        case "balance":
-          user = IOUtils.readLine(pen, eyes, "User: ");
-          int balance = chain.balance(user);
-          pen.println(user + "'s balance is " + balance);
-          break;
-
-        case "blocks":
-          Iterator<Block> blocks = chain.blocks();
-          while (blocks.hasNext()) {
-            pen.println(blocks.next().toString());
-          } //while
-          break;
-
-        case "check":
-          try {
-            chain.check();
-            pen.println("The blockchain checks out.");
-          } catch (Exception e) {
-            pen.println(e.getMessage());
-          } // try/catch
-          break;
-
-        case "help":
-          instructions(pen);
-          break;
-
-        case "mine":
-          source = IOUtils.readLine(pen, eyes, "Source (return for deposit): ");
-          target = IOUtils.readLine(pen, eyes, "Target: ");
-          amount = IOUtils.readInt(pen, eyes, "Amount: ");
-          Block b = chain.mine(new Transaction(source, target, amount));
-          pen.println("Use nonce: " + b.getNonce());
-          break;
-
-        case "quit":
-          done = true;
-          break;
-
-        case "remove":
-          chain.removeLast();
-          pen.println("Last value in blockchain removed");
-          break;
-
-        case "transactions":
-          for (Transaction obj : chain) {
-            pen.println(obj.toString());
-          } // for
-          break;
-
-        case "users":
-          Iterator<String> users = chain.users();
-          while (users.hasNext()) {
-            pen.println(users.next());
-          } //while
-          break;
-
-        default:
-          pen.println("invalid command entered, please try again");
-          break;
-      } // switch
+      done = !execute(session, command, prompts, pen);
     } // while
 
     pen.printf("\nGoodbye\n");
     eyes.close();
     pen.close();
   } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * The chain that commands work on, which import may replace.
+   */
+  static class Session {
+    /** The validator for the chain. */
+    final HashValidator validator;
+
+    /** The chain. */
+    BlockChain chain;
+
+    /**
+     * Create a new session.
+     *
+     * @param check
+     *   The validator for the chain.
+     * @param blocks
+     *   The chain.
+     */
+    Session(HashValidator check, BlockChain blocks) {
+      this.validator = check;
+      this.chain = blocks;
+    } // Session(HashValidator, BlockChain)
+  } // class Session
+
+  /**
+   * Where a command gets its arguments.
+   */
+  interface Arguments {
+    /**
+     * Get a string.
+     *
+     * @param prompt
+     *   What the argument is.
+     *
+     * @return the string.
+     *
+     * @throws IOException
+     *   If we cannot read it.
+     */
+    String text(String prompt) throws IOException;
+
+    /**
+     * Get an int.
+     *
+     * @param prompt
+     *   What the argument is.
+     *
+     * @return the int.
+     *
+     * @throws IOException
+     *   If we cannot read it.
+     */
+    int integer(String prompt) throws IOException;
+
+    /**
+     * Get a long.
+     *
+     * @param prompt
+     *   What the argument is.
+     *
+     * @return the long.
+     *
+     * @throws IOException
+     *   If we cannot read it.
+     */
+    long number(String prompt) throws IOException;
+  } // interface Arguments
+
+  /**
+   * The arguments on one line of a script. Problems are reported as
+   * LineExceptions that give the line number.
+   */
+  static class LineArguments implements Arguments {
+    /** The fields of the line, starting with the command. */
+    private final String[] fields;
+
+    /** The number of the line. */
+    private final long lineNum;
+
+    /** The next field to use. */
+    private int next;
+
+    /**
+     * Split a line into fields.
+     *
+     * @param line
+     *   The line.
+     * @param num
+     *   The number of the line.
+     */
+    LineArguments(String line, long num) {
+      this.fields = line.split("\t", -1);
+      this.lineNum = num;
+      this.next = 1;
+    } // LineArguments(String, long)
+
+    /**
+     * Get the command.
+     *
+     * @return the command.
+     */
+    String command() {
+      return this.fields[0].strip();
+    } // command()
+
+    /**
+     * Complain about the line.
+     *
+     * @param problem
+     *   What is wrong.
+     *
+     * @return an exception to throw.
+     */
+    LineException error(String problem) {
+      return new LineException("Line " + this.lineNum + ": " + problem);
+    } // error(String)
+
+    /**
+     * Make sure that the command used all of the fields.
+     */
+    void finish() {
+      if (this.next < this.fields.length) {
+        throw error("Too many arguments for " + command());
+      } // if
+    } // finish()
+
+    /**
+     * Get the name of an argument from its prompt.
+     *
+     * @param prompt
+     *   The prompt.
+     *
+     * @return the name (e.g., "Source" for "Source (return for
+     *   deposit): ").
+     */
+    static String name(String prompt) {
+      return prompt.replaceFirst("\\s*[(:].*", "");
+    } // name(String)
+
+    public String text(String prompt) {
+      if (this.next >= this.fields.length) {
+        throw error("Missing " + name(prompt) + " for " + command());
+      } // if
+      return this.fields[this.next++];
+    } // text(String)
+
+    public int integer(String prompt) {
+      String field = text(prompt);
+      try {
+        return Integer.parseInt(field.strip());
+      } catch (NumberFormatException e) {
+        throw error(name(prompt) + " '" + field + "' isn't an integer");
+      } // try/catch
+    } // integer(String)
+
+    public long number(String prompt) {
+      String field = text(prompt);
+      try {
+        return Long.parseLong(field.strip());
+      } catch (NumberFormatException e) {
+        throw error(name(prompt) + " '" + field + "' isn't a long integer");
+      } // try/catch
+    } // number(String)
+  } // class LineArguments
+
+  /**
+   * A problem with one line of a script.
+   */
+  static class LineException extends IllegalArgumentException {
+    /**
+     * Create a new exception.
+     *
+     * @param message
+     *   What went wrong, and where.
+     */
+    LineException(String message) {
+      super(message);
+    } // LineException(String)
+  } // class LineException
 } // class BlockChainUI
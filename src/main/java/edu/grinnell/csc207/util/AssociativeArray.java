@@ -1,12 +1,29 @@
 package edu.grinnell.csc207.util;
 
-import static java.lang.reflect.Array.newInstance;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 /**
  * A basic implementation of Associative Arrays with keys of type K
  * and values of type V. Associative Arrays store key/value pairs
  * and permit you to look up values by key.
  *
+ * The pairs live in a hash table with open addressing: each key goes
+ * in the first free slot at or after the slot its hash picks (linear
+ * probing), so that finding a key takes a few probes however many
+ * pairs there are. The table doubles when it gets three-quarters full,
+ * and removing a key moves later keys back rather than leaving a
+ * marker, so lookups never wade through dead slots.
+ *
+ * getOrDefault, putIfAbsent, merge, and computeIfPresent look a key up
+ * once and act on the slot they find, and none of them throws for a
+ * missing key, so they suit code that reads and updates the same key.
+ *
+ * To visit every pair without building arrays, use forEach or a
+ * cursor, which walk the table in place.
+ *
  * @param <K> the key type
  * @param <V> the value type
  *
@@ -23,6 +40,11 @@ public class AssociativeArray<K, V> {
    */
   static final int DEFAULT_CAPACITY = 16;
 
+  /**
+   * How full, in quarters, the table may get before it grows.
+   */
+  static final int LOAD_QUARTERS = 3;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -33,9 +55,15 @@ public class AssociativeArray<K, V> {
   int size;
 
   /**
-   * The array of key/value pairs.
+   * The key in each slot (null for empty slots). The length is always
+   * a power of two.
+   */
+  Object[] keys;
+
+  /**
+   * The value in each slot.
    */
-  KVPair<K, V>[]pairs;
+  Object[] vals;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -44,14 +72,27 @@ public class AssociativeArray<K, V> {
   /**
    * Create a new, empty associative array.
    */
-  @SuppressWarnings({ "unchecked" })
   public AssociativeArray() {
-    // Creating new arrays is sometimes a PITN.
-    this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(),
-        DEFAULT_CAPACITY);
-    this.size = 0;
+    this(DEFAULT_CAPACITY);
   } // AssociativeArray()
 
+  /**
+   * Create a new, empty associative array with room for a number of
+   * pairs before it must grow.
+   *
+   * @param capacity
+   *   The number of pairs to make room for.
+   */
+  public AssociativeArray(int capacity) {
+    int slots = DEFAULT_CAPACITY;
+    while (slots / 4 * LOAD_QUARTERS < capacity) {
+      slots *= 2;
+    } // while
+    this.keys = new Object[slots];
+    this.vals = new Object[slots];
+    this.size = 0;
+  } // AssociativeArray(int)
+
   // +------------------+--------------------------------------------
   // | Standard Methods |
   // +------------------+
@@ -63,58 +104,50 @@ public class AssociativeArray<K, V> {
    */
   public AssociativeArray<K, V> clone() {
     AssociativeArray<K, V> newArr = new AssociativeArray<K, V>();
-
-    newArr.size = this.size();
-
-    while (newArr.size > newArr.pairs.length) {
-      newArr.expand();
-    } // while
-
-    for (int i = 0; i < this.size; i++) {
-      newArr.pairs[i] = this.pairs[i].clone();
-    } // for
-
+    newArr.keys = this.keys.clone();
+    newArr.vals = this.vals.clone();
+    newArr.size = this.size;
     return newArr;
   } // clone()
 
   /**
-   * Convert the array to a string.
+   * Convert the array to a string. The pairs come in the order of
+   * the slots they occupy in the hash table, not the order in which
+   * they were set, and that order may change when the table grows. A
+   * null value is written as Null.
    *
    * @return a string of the form "{Key0:Value0, Key1:Value1, ... KeyN:ValueN}"
    */
   public String toString() {
-    String arrString = "{";
-    for (int i = 0; i < this.size - 1; i++) {
-      try {
-        arrString += this.pairs[i].toString() + ", ";
-      } catch (NullPointerException e) {
-        arrString += this.pairs[i].key.toString() + ": Null" + ", ";
-      } // try/catch
+    StringBuilder arrString = new StringBuilder("{");
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.keys[i] != null) {
+        if (arrString.length() > 1) {
+          arrString.append(", ");
+        } // if
+        arrString.append(this.keys[i]).append(':')
+            .append((this.vals[i] == null) ? "Null" : this.vals[i]);
+      } // if
     } // for
-    try {
-      arrString += this.pairs[this.size - 1].toString() + "}";
-    } catch (NullPointerException e) {
-      arrString += this.pairs[this.size - 1].key.toString() + ": Null" + "}";
-    } // try/catch
-    return arrString;
+    return arrString.append('}').toString();
   } // toString()
 
   /**
-   * Get all of the keys in the AssociativeArray.
+   * Get all of the keys in the AssociativeArray, in the same order as
+   * toString() lists them.
    *
    * @return all of the keys
    */
   public String[] getAllKeys() {
     String[] arrString = new String[this.size];
-    for (int i = 0; i < this.size; i++) {
-      try {
-        arrString[i] = (String) this.pairs[i].key;
-      } catch (Exception e) {
-        System.err.print("Somehow added a null");
-      } // try/catch
+    int n = 0;
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.keys[i] != null) {
+        arrString[n++] = this.keys[i].toString();
+      } // if
     } //for
     return arrString;
-  } // toString()
+  } // getAllKeys()
 
   // +----------------+----------------------------------------------
   // | Public Methods |
@@ -136,16 +169,12 @@ public class AssociativeArray<K, V> {
     if (key == null) {
       throw new NullKeyException();
     } // if
-    try {
-      int index = this.find(key);
-      this.pairs[index].val = value;
-    } catch (KeyNotFoundException e) {
-      if (size + 1 > this.pairs.length) {
-        this.expand();
-      } // if
-      this.pairs[size] = new KVPair<>(key, value);
-      size++;
-    } // try/catch
+    int index = this.slot(key);
+    if (this.keys[index] == null) {
+      this.insert(index, key, value);
+    } else {
+      this.vals[index] = value;
+    } // if/else
   } // set(K,V)
 
   /**
@@ -159,16 +188,13 @@ public class AssociativeArray<K, V> {
    *
    * @return the value V associated with K key
    */
+  @SuppressWarnings("unchecked")
   public V get(K key) throws KeyNotFoundException {
-    if (key == null) {
+    int index = this.find(key);
+    if (index < 0) {
       throw new KeyNotFoundException("Key not found");
     } // if
-    try {
-      int index = this.find(key);
-      return this.pairs[index].val;
-    } catch (KeyNotFoundException e) {
-      throw new KeyNotFoundException("Key not found");
-    } // try/catch
+    return (V) this.vals[index];
   } // get(K)
 
   /**
@@ -180,15 +206,7 @@ public class AssociativeArray<K, V> {
    * @return true if found, false if null or not found
    */
   public boolean hasKey(K key) {
-    if (key == null) {
-      return false;
-    } // if
-    try {
-      this.find(key);
-      return true;
-    } catch (Exception e) {
-      return false;
-    } // try/catch
+    return this.find(key) >= 0;
   } // hasKey(K)
 
   /**
@@ -199,16 +217,202 @@ public class AssociativeArray<K, V> {
    * @param key
    */
   public void remove(K key) {
-    try {
-      int foundIndex = this.find(key);
-      this.pairs[foundIndex] = this.pairs[size - 1];
-      this.pairs[size - 1] = new KVPair<>();
-      size--;
-    } catch (Exception e) {
-      // do nothing
-    } // try/catch
+    int hole = this.find(key);
+    if (hole < 0) {
+      return;
+    } // if
+    int mask = this.keys.length - 1;
+    // Move back any later key in the run whose home slot is not
+    // between the hole and where it sits, or it could not be found.
+    int i = hole;
+    while (true) {
+      i = (i + 1) & mask;
+      if (this.keys[i] == null) {
+        break;
+      } // if
+      int home = hash(this.keys[i]) & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        this.keys[hole] = this.keys[i];
+        this.vals[hole] = this.vals[i];
+        hole = i;
+      } // if
+    } // while
+    this.keys[hole] = null;
+    this.vals[hole] = null;
+    this.size--;
   } // remove(K)
 
+  /**
+   * Get the value associated with key, or a default if there is none.
+   *
+   * @param key
+   *   A key (possibly null).
+   * @param defaultValue
+   *   The value to return if key does not appear.
+   *
+   * @return the value associated with key, or defaultValue.
+   */
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(K key, V defaultValue) {
+    int index = this.find(key);
+    return (index < 0) ? defaultValue : (V) this.vals[index];
+  } // getOrDefault(K, V)
+
+  /**
+   * Associate key with value, unless key already appears.
+   *
+   * @param key
+   *   The key.
+   * @param value
+   *   The value to give a new key.
+   *
+   * @return the value key already had, or null if it was added.
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  @SuppressWarnings("unchecked")
+  public V putIfAbsent(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException();
+    } // if
+    int index = this.slot(key);
+    if (this.keys[index] != null) {
+      return (V) this.vals[index];
+    } // if
+    this.insert(index, key, value);
+    return null;
+  } // putIfAbsent(K, V)
+
+  /**
+   * Combine value with the value already associated with key. If key
+   * does not appear, associate it with value; otherwise associate it
+   * with fun(old value, value), or remove it if that is null.
+   *
+   * @param key
+   *   The key.
+   * @param value
+   *   The value to combine.
+   * @param fun
+   *   How to combine the old value and the new one.
+   *
+   * @return the new value associated with key (or null if it was
+   *   removed).
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  @SuppressWarnings("unchecked")
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> fun)
+      throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException();
+    } // if
+    int index = this.slot(key);
+    if (this.keys[index] == null) {
+      this.insert(index, key, value);
+      return value;
+    } // if
+    V result = fun.apply((V) this.vals[index], value);
+    if (result == null) {
+      this.remove(key);
+    } else {
+      this.vals[index] = result;
+    } // if/else
+    return result;
+  } // merge(K, V, BiFunction)
+
+  /**
+   * Replace the value associated with key by fun(key, old value), if
+   * key appears. If fun returns null, remove key instead.
+   *
+   * @param key
+   *   A key (possibly null).
+   * @param fun
+   *   Computes the new value.
+   *
+   * @return the new value associated with key, or null if there is
+   *   none.
+   */
+  @SuppressWarnings("unchecked")
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> fun) {
+    int index = this.find(key);
+    if (index < 0) {
+      return null;
+    } // if
+    V result = fun.apply(key, (V) this.vals[index]);
+    if (result == null) {
+      this.remove(key);
+    } else {
+      this.vals[index] = result;
+    } // if/else
+    return result;
+  } // computeIfPresent(K, BiFunction)
+
+  /**
+   * Do something with each key/value pair. The action must not add or
+   * remove keys, though it may change values with set.
+   *
+   * @param action
+   *   What to do with each key and its value.
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Object[] ks = this.keys;
+    Object[] vs = this.vals;
+    for (int i = 0; i < ks.length; i++) {
+      if (ks[i] != null) {
+        action.accept((K) ks[i], (V) vs[i]);
+      } // if
+    } // for
+  } // forEach(BiConsumer)
+
+  /**
+   * Get a cursor positioned before the first pair.
+   *
+   * @return the cursor.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  } // cursor()
+
+  /**
+   * Copy all of the pairs of another associative array into this one,
+   * replacing the values of keys that already appear.
+   *
+   * @param other
+   *   The other associative array.
+   */
+  public void putAll(AssociativeArray<? extends K, ? extends V> other) {
+    if (other == this) {
+      return;
+    } // if
+    while ((this.size + other.size) * 4 > this.keys.length * LOAD_QUARTERS) {
+      this.expand();
+    } // while
+    for (int i = 0; i < other.keys.length; i++) {
+      Object key = other.keys[i];
+      if (key != null) {
+        int index = this.slot(key);
+        if (this.keys[index] == null) {
+          this.insert(index, key, other.vals[i]);
+        } else {
+          this.vals[index] = other.vals[i];
+        } // if/else
+      } // if
+    } // for
+  } // putAll(AssociativeArray)
+
+  /**
+   * Remove all of the pairs, keeping the room they took so that the
+   * array can fill up again without growing.
+   */
+  public void clear() {
+    Arrays.fill(this.keys, null);
+    Arrays.fill(this.vals, null);
+    this.size = 0;
+  } // clear()
+
   /**
    * Determine how many key/value pairs are in the associative array.
    *
@@ -222,37 +426,175 @@ public class AssociativeArray<K, V> {
   // | Private Methods |
   // +-----------------+
 
+  /**
+   * Spread the bits of a key's hash code, so that keys whose codes
+   * differ only in the high bits still land in different slots.
+   *
+   * @param key
+   *   The key.
+   *
+   * @return the spread hash.
+   */
+  static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  } // hash(Object)
+
   /**
    * Expand the underlying array.
    */
   void expand() {
-    this.pairs = java.util.Arrays.copyOf(this.pairs, this.pairs.length * 2);
+    Object[] oldKeys = this.keys;
+    Object[] oldVals = this.vals;
+    this.keys = new Object[oldKeys.length * 2];
+    this.vals = new Object[oldKeys.length * 2];
+    int mask = this.keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        int index = hash(oldKeys[i]) & mask;
+        while (this.keys[index] != null) {
+          index = (index + 1) & mask;
+        } // while
+        this.keys[index] = oldKeys[i];
+        this.vals[index] = oldVals[i];
+      } // if
+    } // for
   } // expand()
 
   /**
-   * Find the index of the first entry in `pairs` that contains key.
-   * If no such entry is found, throws an exception.
+   * Add a new pair, growing the table first if it is getting full.
    *
+   * @param index
+   *   The empty slot that slot(key) found.
    * @param key
-   *   The key of the entry.
+   *   The key, which does not appear yet.
+   * @param value
+   *   The value.
+   */
+  void insert(int index, Object key, Object value) {
+    int target = index;
+    if ((this.size + 1) * 4 > this.keys.length * LOAD_QUARTERS) {
+      this.expand();
+      target = this.slot(key);
+    } // if
+    this.keys[target] = key;
+    this.vals[target] = value;
+    this.size++;
+  } // insert(int, Object, Object)
+
+  /**
+   * Find the slot that holds key or, if there is none, the empty slot
+   * where it would go.
    *
-   * @throws KeyNotFoundException
-   *   If the key does not appear in the associative array.
+   * @param key
+   *   The key, which must not be null.
    *
-   * @return the index of the key in the array
+   * @return the index of the slot.
    */
-  int find(K key) throws KeyNotFoundException {
+  int slot(Object key) {
+    int mask = this.keys.length - 1;
+    int index = hash(key) & mask;
+    Object k;
+    while (((k = this.keys[index]) != null) && !k.equals(key)) {
+      index = (index + 1) & mask;
+    } // while
+    return index;
+  } // slot(Object)
 
-    try {
-      for (int i = 0; i < this.size; i++) {
-        if (this.pairs[i].key.equals(key)) {
-          return i;
-        } // if
-      }   // for
-    } catch (Exception e) {
-      throw new KeyNotFoundException("Key not found in pairs");
-    } // try/catch
-    throw new KeyNotFoundException("Key not found in pairs");
+  /**
+   * Find the index of the slot that contains key.
+   *
+   * @param key
+   *   The key of the entry.
+   *
+   * @return the index of the key in the array, or -1 if the key is
+   *   null or does not appear in the associative array.
+   */
+  int find(K key) {
+    if (key == null) {
+      return -1;
+    } // if
+    int index = this.slot(key);
+    return (this.keys[index] == null) ? -1 : index;
   } // find(K)
 
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A position in the table, for walking the pairs one at a time.
+   * Call next() before each pair; key() and value() then describe it.
+   * The array must not gain or lose keys while the cursor is in use,
+   * though setValue() may change values.
+   */
+  public class Cursor {
+    /** The slot of the current pair, or -1 before the first. */
+    private int slot = -1;
+
+    /**
+     * Create a cursor positioned before the first pair.
+     */
+    Cursor() {
+    } // Cursor()
+
+    /**
+     * Move to the next pair.
+     *
+     * @return true if there is one; false if we have visited them all.
+     */
+    public boolean next() {
+      Object[] ks = AssociativeArray.this.keys;
+      do {
+        this.slot++;
+      } while ((this.slot < ks.length) && (ks[this.slot] == null));
+      return this.slot < ks.length;
+    } // next()
+
+    /**
+     * Get the key of the current pair.
+     *
+     * @return the key.
+     */
+    @SuppressWarnings("unchecked")
+    public K key() {
+      return (K) AssociativeArray.this.keys[current()];
+    } // key()
+
+    /**
+     * Get the value of the current pair.
+     *
+     * @return the value.
+     */
+    @SuppressWarnings("unchecked")
+    public V value() {
+      return (V) AssociativeArray.this.vals[current()];
+    } // value()
+
+    /**
+     * Change the value of the current pair.
+     *
+     * @param value
+     *   The new value.
+     */
+    public void setValue(V value) {
+      AssociativeArray.this.vals[current()] = value;
+    } // setValue(V)
+
+    /**
+     * Get the slot of the current pair.
+     *
+     * @return the slot.
+     *
+     * @throws NoSuchElementException
+     *   If the cursor is not at a pair.
+     */
+    private int current() {
+      if ((this.slot < 0) || (this.slot >= AssociativeArray.this.keys.length)
+          || (AssociativeArray.this.keys[this.slot] == null)) {
+        throw new NoSuchElementException();
+      } // if
+      return this.slot;
+    } // current()
+  } // class Cursor
 } // class AssociativeArray
@@ -0,0 +1,362 @@
+package edu.grinnell.csc207.util;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * An associative array that many threads may use at once. The pairs
+ * are split among a number of stripes by the hashes of their keys, and
+ * each stripe is an AssociativeArray with its own lock, so threads
+ * that work on different keys seldom wait for each other. Each method
+ * is atomic for its key; size(), clone(), and getAllKeys() lock one
+ * stripe at a time, so they see each stripe as it was at some moment
+ * but not necessarily all stripes at the same moment.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ConcurrentAssociativeArray<K, V> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default number of stripes.
+   */
+  static final int DEFAULT_STRIPES = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The stripes. The length is a power of two. Each stripe is its own
+   * lock.
+   */
+  private final AssociativeArray<K, V>[] stripes;
+
+  /**
+   * The number of bits that choose a stripe.
+   */
+  private final int stripeBits;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty array with the default number of stripes.
+   */
+  public ConcurrentAssociativeArray() {
+    this(DEFAULT_STRIPES);
+  } // ConcurrentAssociativeArray()
+
+  /**
+   * Create a new, empty array with at least some number of stripes.
+   * More stripes let more threads work at once.
+   *
+   * @param stripeCount
+   *   The number of stripes, which is rounded up to a power of two.
+   */
+  @SuppressWarnings("unchecked")
+  public ConcurrentAssociativeArray(int stripeCount) {
+    int bits = 0;
+    while ((1 << bits) < stripeCount) {
+      bits++;
+    } // while
+    this.stripeBits = bits;
+    this.stripes = (AssociativeArray<K, V>[]) new AssociativeArray<?, ?>[1 << bits];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new AssociativeArray<K, V>();
+    } // for
+  } // ConcurrentAssociativeArray(int)
+
+  // +------------------+--------------------------------------------
+  // | Standard Methods |
+  // +------------------+
+
+  /**
+   * Copy the pairs into an ordinary associative array.
+   *
+   * @return the copy.
+   */
+  public AssociativeArray<K, V> clone() {
+    AssociativeArray<K, V> result = new AssociativeArray<K, V>(size());
+    for (AssociativeArray<K, V> stripe : this.stripes) {
+      synchronized (stripe) {
+        result.putAll(stripe);
+      } // synchronized
+    } // for
+    return result;
+  } // clone()
+
+  /**
+   * Convert the array to a string. As with AssociativeArray, the pairs
+   * come in hash-table order, not the order in which they were set.
+   *
+   * @return a string of the form "{Key0:Value0, Key1:Value1, ... KeyN:ValueN}"
+   */
+  public String toString() {
+    return this.clone().toString();
+  } // toString()
+
+  /**
+   * Get all of the keys in the array.
+   *
+   * @return all of the keys
+   */
+  public String[] getAllKeys() {
+    return this.clone().getAllKeys();
+  } // getAllKeys()
+
+  // +----------------+----------------------------------------------
+  // | Public Methods |
+  // +----------------+
+
+  /**
+   * Add to the count associated with a key, starting from 0 if the key
+   * does not appear.
+   *
+   * @param <K>
+   *   The key type.
+   * @param counts
+   *   The array of counts.
+   * @param key
+   *   The key.
+   * @param delta
+   *   The amount to add.
+   *
+   * @return the new count.
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  public static <K> long addTo(ConcurrentAssociativeArray<K, Long> counts, K key, long delta)
+      throws NullKeyException {
+    return counts.merge(key, delta, Long::sum);
+  } // addTo(ConcurrentAssociativeArray, K, long)
+
+  /**
+   * Set the value associated with key to value.
+   *
+   * @param key
+   *   The key whose value we are seeting.
+   * @param value
+   *   The value of that key.
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  public void set(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException();
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.set(key, value);
+    } // synchronized
+  } // set(K, V)
+
+  /**
+   * Get the value associated with key.
+   *
+   * @param key
+   *   A key
+   *
+   * @throws KeyNotFoundException
+   *   when the key is null or does not appear in the array.
+   *
+   * @return the value associated with key
+   */
+  public V get(K key) throws KeyNotFoundException {
+    if (key == null) {
+      throw new KeyNotFoundException("Key not found");
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    } // synchronized
+  } // get(K)
+
+  /**
+   * Get the value associated with key, or a default if there is none.
+   *
+   * @param key
+   *   A key (possibly null).
+   * @param defaultValue
+   *   The value to return if key does not appear.
+   *
+   * @return the value associated with key, or defaultValue.
+   */
+  public V getOrDefault(K key, V defaultValue) {
+    if (key == null) {
+      return defaultValue;
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.getOrDefault(key, defaultValue);
+    } // synchronized
+  } // getOrDefault(K, V)
+
+  /**
+   * Determine if key appears in the array.
+   *
+   * @param key
+   *   A key (possibly null).
+   *
+   * @return true if found, false if null or not found
+   */
+  public boolean hasKey(K key) {
+    if (key == null) {
+      return false;
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.hasKey(key);
+    } // synchronized
+  } // hasKey(K)
+
+  /**
+   * Remove the pair associated with a key, if there is one.
+   *
+   * @param key
+   *   A key (possibly null).
+   */
+  public void remove(K key) {
+    if (key == null) {
+      return;
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.remove(key);
+    } // synchronized
+  } // remove(K)
+
+  /**
+   * Associate key with value, unless key already appears.
+   *
+   * @param key
+   *   The key.
+   * @param value
+   *   The value to give a new key.
+   *
+   * @return the value key already had, or null if it was added.
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  public V putIfAbsent(K key, V value) throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException();
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.putIfAbsent(key, value);
+    } // synchronized
+  } // putIfAbsent(K, V)
+
+  /**
+   * Combine value with the value already associated with key, as
+   * AssociativeArray.merge does, atomically.
+   *
+   * @param key
+   *   The key.
+   * @param value
+   *   The value to combine.
+   * @param fun
+   *   How to combine the old value and the new one. Called while the
+   *   key's stripe is locked, so it should be quick and must not use
+   *   this array.
+   *
+   * @return the new value associated with key (or null if it was
+   *   removed).
+   *
+   * @throws NullKeyException
+   *   If the client provides a null key.
+   */
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> fun)
+      throws NullKeyException {
+    if (key == null) {
+      throw new NullKeyException();
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.merge(key, value, fun);
+    } // synchronized
+  } // merge(K, V, BiFunction)
+
+  /**
+   * Replace the value associated with key by fun(key, old value), if
+   * key appears, atomically. If fun returns null, remove key instead.
+   *
+   * @param key
+   *   A key (possibly null).
+   * @param fun
+   *   Computes the new value. Called while the key's stripe is locked.
+   *
+   * @return the new value associated with key, or null if there is
+   *   none.
+   */
+  public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> fun) {
+    if (key == null) {
+      return null;
+    } // if
+    AssociativeArray<K, V> stripe = stripe(key);
+    synchronized (stripe) {
+      return stripe.computeIfPresent(key, fun);
+    } // synchronized
+  } // computeIfPresent(K, BiFunction)
+
+  /**
+   * Do something with each pair. Each stripe is locked while we visit
+   * it, so the action should be quick and must not use this array.
+   *
+   * @param action
+   *   What to do with each key and its value.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (AssociativeArray<K, V> stripe : this.stripes) {
+      synchronized (stripe) {
+        stripe.forEach(action);
+      } // synchronized
+    } // for
+  } // forEach(BiConsumer)
+
+  /**
+   * Determine how many pairs are in the array.
+   *
+   * @return the number of pairs.
+   */
+  public int size() {
+    int result = 0;
+    for (AssociativeArray<K, V> stripe : this.stripes) {
+      synchronized (stripe) {
+        result += stripe.size();
+      } // synchronized
+    } // for
+    return result;
+  } // size()
+
+  // +-----------------+---------------------------------------------
+  // | Private Methods |
+  // +-----------------+
+
+  /**
+   * Find the stripe for a key. We pick it with the high bits of a
+   * multiplied hash, since each stripe places keys by the low bits.
+   *
+   * @param key
+   *   The key, which must not be null.
+   *
+   * @return the stripe.
+   */
+  private AssociativeArray<K, V> stripe(K key) {
+    if (this.stripeBits == 0) {
+      return this.stripes[0];
+    } // if
+    return this.stripes[(AssociativeArray.hash(key) * 0x9E3779B9) >>> (32 - this.stripeBits)];
+  } // stripe(K)
+} // class ConcurrentAssociativeArray
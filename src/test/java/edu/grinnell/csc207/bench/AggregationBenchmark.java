@@ -0,0 +1,135 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainSnapshot;
+import edu.grinnell.csc207.blockchains.Transaction;
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.ConcurrentAssociativeArray;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Measure how well threads can total the volume each user sends, each
+ * thread taking its own part of the chain, into one shared array:
+ * first a ConcurrentAssociativeArray and then, for comparison, an
+ * ordinary AssociativeArray behind a single lock.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.AggregationBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class AggregationBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks in the chain. */
+  static final int BLOCKS = 200_000;
+
+  /** The number of distinct users. */
+  static final int USERS = 10_000;
+
+  /** The thread counts to try. */
+  static final int[] THREADS = {1, 2, 4, 8};
+
+  /** The number of times to total the chain in each trial. */
+  static final int ROUNDS = 5;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Total the volume per user with some number of threads.
+   *
+   * @param transactions
+   *   The transactions of the chain.
+   * @param threads
+   *   The number of threads.
+   * @param striped
+   *   True to use a ConcurrentAssociativeArray, false to lock one
+   *   AssociativeArray.
+   *
+   * @return the number of users seen, so that the work cannot be
+   *   skipped.
+   */
+  static int total(List<Transaction> transactions, int threads, boolean striped)
+      throws InterruptedException {
+    ConcurrentAssociativeArray<String, Long> shared = new ConcurrentAssociativeArray<>();
+    AssociativeArray<String, Long> locked = new AssociativeArray<>();
+    int part = (transactions.size() + threads - 1) / threads;
+    Thread[] workers = new Thread[threads];
+    for (int w = 0; w < threads; w++) {
+      final int p = w;
+      workers[w] = new Thread(() -> {
+        int end = Math.min(transactions.size(), (p + 1) * part);
+        try {
+          for (int i = p * part; i < end; i++) {
+            Transaction t = transactions.get(i);
+            if (striped) {
+              ConcurrentAssociativeArray.addTo(shared, t.getSource(), t.getAmount());
+            } else {
+              synchronized (locked) {
+                locked.merge(t.getSource(), (long) t.getAmount(), Long::sum);
+              } // synchronized
+            } // if/else
+          } // for
+        } catch (NullKeyException e) {
+          throw new RuntimeException(e);
+        } // try/catch
+      });
+      workers[w].start();
+    } // for
+    for (Thread worker : workers) {
+      worker.join();
+    } // for
+    return striped ? shared.size() : locked.size();
+  } // total(List, int, boolean)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int b = 0; b < BLOCKS; b++) {
+      chain.append(chain.mine((b < USERS)
+          ? new Transaction("", "U" + b, 1000)
+          : new Transaction("U" + (b % USERS), "U" + ((b * 7) % USERS), 1)));
+    } // for
+    ChainSnapshot snap = chain.snapshot();
+    List<Transaction> transactions = snap.transactionStream(false).toList();
+
+    // Warm up.
+    total(transactions, 2, true);
+    total(transactions, 2, false);
+    pen.printf("%-8s %8s %16s %8s%n", "mode", "threads", "updates/sec", "users");
+    for (boolean striped : new boolean[] {true, false}) {
+      for (int threads : THREADS) {
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+          sink += total(transactions, threads, striped);
+        } // for
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pen.printf("%-8s %8d %16.0f %8d%n", striped ? "striped" : "locked", threads,
+            transactions.size() * ROUNDS / seconds, sink / ROUNDS);
+      } // for
+    } // for
+  } // main(String[])
+} // class AggregationBenchmark
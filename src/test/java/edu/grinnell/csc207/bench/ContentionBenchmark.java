@@ -0,0 +1,154 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainSnapshot;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure how readers and a writer get along. One thread appends blocks
+ * while some number of reader threads answer balance and history
+ * queries, first through lock-free snapshots and then, for comparison,
+ * through a read/write lock around the chain.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.ContentionBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class ContentionBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks the writer appends in each trial. */
+  static final int BLOCKS = 50_000;
+
+  /** The number of distinct users. */
+  static final int USERS = 100;
+
+  /** The reader counts to try. */
+  static final int[] READERS = {0, 1, 2, 4, 8};
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Run one query against a snapshot.
+   *
+   * @param snap
+   *   The snapshot.
+   * @param i
+   *   Which query to run.
+   *
+   * @return something derived from the result, so that the work
+   *   cannot be skipped.
+   */
+  static long query(ChainSnapshot snap, int i) {
+    String user = "U" + (i % USERS);
+    if ((i & 1) == 0) {
+      return snap.balance(user);
+    } // if
+    return snap.history(user, Math.max(0, snap.getSize() - 1000), 20).size();
+  } // query(ChainSnapshot, int)
+
+  /**
+   * Run one trial.
+   *
+   * @param readers
+   *   The number of reader threads.
+   * @param locked
+   *   True if readers and writer should share a read/write lock.
+   *
+   * @return { writer nanoseconds, reader queries completed }.
+   */
+  static long[] trial(int readers, boolean locked) throws InterruptedException {
+    BlockChain chain = new BlockChain((hash) -> true);
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    AtomicBoolean done = new AtomicBoolean(false);
+    LongAdder queries = new LongAdder();
+    LongAdder sink = new LongAdder();
+
+    Thread[] threads = new Thread[readers];
+    for (int r = 0; r < readers; r++) {
+      final int seed = r;
+      threads[r] = new Thread(() -> {
+        int i = seed;
+        while (!done.get()) {
+          if (locked) {
+            lock.readLock().lock();
+            try {
+              sink.add(query(chain.snapshot(), i));
+            } finally {
+              lock.readLock().unlock();
+            } // try/finally
+          } else {
+            sink.add(query(chain.snapshot(), i));
+          } // if/else
+          queries.increment();
+          i += readers;
+        } // while
+      });
+      threads[r].start();
+    } // for
+
+    long start = System.nanoTime();
+    for (int b = 0; b < BLOCKS; b++) {
+      Transaction t = (b < USERS)
+          ? new Transaction("", "U" + b, 1000)
+          : new Transaction("U" + (b % USERS), "U" + ((b * 7) % USERS), 1);
+      if (locked) {
+        lock.writeLock().lock();
+        try {
+          chain.append(chain.mine(t));
+        } finally {
+          lock.writeLock().unlock();
+        } // try/finally
+      } else {
+        chain.append(chain.mine(t));
+      } // if/else
+    } // for
+    long elapsed = System.nanoTime() - start;
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    return new long[] {elapsed, queries.sum()};
+  } // trial(int, boolean)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    // Warm up.
+    trial(2, false);
+    trial(2, true);
+    pen.printf("%-10s %8s %14s %16s%n", "mode", "readers", "appends/sec", "queries/sec");
+    for (boolean locked : new boolean[] {false, true}) {
+      for (int readers : READERS) {
+        long[] result = trial(readers, locked);
+        double seconds = result[0] / 1e9;
+        pen.printf("%-10s %8d %14.0f %16.0f%n", locked ? "rwlock" : "snapshot", readers,
+            BLOCKS / seconds, result[1] / seconds);
+      } // for
+    } // for
+  } // main(String[])
+} // class ContentionBenchmark
@@ -0,0 +1,182 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainServer;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure the latency of a ChainServer on this machine: several client
+ * threads ask for balances while one mines and appends transfers, all
+ * over HTTP. Prints the median and 99th percentile of each kind of
+ * request.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.HttpBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class HttpBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of users in the chain. */
+  static final int USERS = 1000;
+
+  /** The number of threads asking for balances. */
+  static final int READERS = 8;
+
+  /** The number of balances each reader asks for. */
+  static final int READS = 2000;
+
+  /** The number of transfers the writer appends. */
+  static final int WRITES = 1000;
+
+  /** The number of requests of each kind to send before measuring. */
+  static final int WARMUP = 1000;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Send a request and time it.
+   *
+   * @param client
+   *   The client.
+   * @param request
+   *   The request.
+   *
+   * @return the body of the response, preceded by the nanoseconds it
+   *   took and a space.
+   */
+  static String timed(HttpClient client, HttpRequest request) throws Exception {
+    long start = System.nanoTime();
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    long elapsed = System.nanoTime() - start;
+    if (response.statusCode() != 200) {
+      throw new IllegalStateException(response.statusCode() + " " + response.body());
+    } // if
+    return elapsed + " " + response.body();
+  } // timed(HttpClient, HttpRequest)
+
+  /**
+   * Print the median and 99th percentile of some latencies.
+   *
+   * @param pen
+   *   Where to print them.
+   * @param kind
+   *   The kind of request.
+   * @param nanos
+   *   The latencies.
+   * @param seconds
+   *   How long the requests took in all.
+   */
+  static void report(PrintWriter pen, String kind, long[] nanos, double seconds) {
+    Arrays.sort(nanos);
+    pen.printf("%-10s %8d %12.0f %10.3f %10.3f%n", kind, nanos.length, nanos.length / seconds,
+        nanos[nanos.length / 2] / 1e6, nanos[(int) (nanos.length * 0.99)] / 1e6);
+  } // report(PrintWriter, String, long[], double)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    // Keep responses from waiting for delayed ACKs (see ChainServer).
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    } // if
+    PrintWriter pen = new PrintWriter(System.out, true);
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int u = 0; u < USERS; u++) {
+      chain.append(chain.mine(new Transaction("", "U" + u, 1_000_000)));
+    } // for
+    ChainServer server = new ChainServer(chain, 0);
+    server.start();
+    String base = "http://localhost:" + server.getPort();
+    HttpClient client = HttpClient.newHttpClient();
+
+    // Warm up.
+    for (int i = 0; i < WARMUP; i++) {
+      timed(client, HttpRequest.newBuilder(URI.create(base + "/balance?user=U" + i % USERS))
+          .build());
+    } // for
+
+    long[][] reads = new long[READERS][READS];
+    long[] mines = new long[WRITES];
+    long[] appends = new long[WRITES];
+    Thread[] threads = new Thread[READERS + 1];
+    for (int r = 0; r < READERS; r++) {
+      final long[] mine = reads[r];
+      final int offset = r;
+      threads[r] = new Thread(() -> {
+        try {
+          for (int i = 0; i < READS; i++) {
+            String user = "U" + ((i * 31 + offset) % USERS);
+            String result = timed(client,
+                HttpRequest.newBuilder(URI.create(base + "/balance?user=" + user)).build());
+            mine[i] = Long.parseLong(result.substring(0, result.indexOf(' ')));
+          } // for
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        } // try/catch
+      });
+    } // for
+    threads[READERS] = new Thread(() -> {
+      try {
+        for (int i = 0; i < WRITES; i++) {
+          String transfer = "{\"source\":\"U" + (i % USERS) + "\",\"target\":\"U"
+              + ((i * 7 + 1) % USERS) + "\",\"amount\":1}";
+          String mined = timed(client, HttpRequest.newBuilder(URI.create(base + "/mine"))
+              .POST(HttpRequest.BodyPublishers.ofString(transfer)).build());
+          int space = mined.indexOf(' ');
+          mines[i] = Long.parseLong(mined.substring(0, space));
+          String appended = timed(client, HttpRequest.newBuilder(URI.create(base + "/append"))
+              .POST(HttpRequest.BodyPublishers.ofString(mined.substring(space + 1))).build());
+          appends[i] = Long.parseLong(appended.substring(0, appended.indexOf(' ')));
+        } // for
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      } // try/catch
+    });
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    double seconds = (System.nanoTime() - start) / 1e9;
+    server.stop(0);
+
+    long[] allReads = new long[READERS * READS];
+    for (int r = 0; r < READERS; r++) {
+      System.arraycopy(reads[r], 0, allReads, r * READS, READS);
+    } // for
+    pen.printf("%-10s %8s %12s %10s %10s%n", "request", "count", "per sec", "p50 ms", "p99 ms");
+    report(pen, "balance", allReads, seconds);
+    report(pen, "mine", mines, seconds);
+    report(pen, "append", appends, seconds);
+    pen.printf("Chain size: %d%n", chain.getSize());
+  } // main(String[])
+} // class HttpBenchmark
@@ -0,0 +1,101 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure how much heap a chain takes per block, with blocks kept as
+ * objects and with blocks kept in columns. (Columns always use the
+ * compact index.)
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.MemoryBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class MemoryBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks in each chain. */
+  static final int BLOCKS = 200_000;
+
+  /** The number of distinct users. */
+  static final int USERS = 1000;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Determine how much of the heap is in use, after collecting garbage.
+   *
+   * @return the number of bytes in use.
+   */
+  static long used() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    } // for
+    return rt.totalMemory() - rt.freeMemory();
+  } // used()
+
+  /**
+   * Build a chain and measure it.
+   *
+   * @param compactIndex
+   *   Whether to use the compact hash index.
+   * @param columnar
+   *   Whether to keep blocks in columns.
+   *
+   * @return the number of bytes per block.
+   */
+  static double trial(boolean compactIndex, boolean columnar) throws InterruptedException {
+    long before = used();
+    BlockChain chain = new BlockChain((hash) -> true, compactIndex, columnar);
+    for (int b = 0; b < BLOCKS; b++) {
+      // Build new names each time, as a client reading input would.
+      Transaction t = (b < USERS)
+          ? new Transaction("", "U" + b, 1000)
+          : new Transaction("U" + (b % USERS), "U" + ((b * 7) % USERS), 1);
+      chain.append(chain.mine(t));
+    } // for
+    long after = used();
+    if (chain.getSize() != BLOCKS + 1) {
+      throw new IllegalStateException("Lost blocks");
+    } // if
+    return (after - before) / (double) BLOCKS;
+  } // trial(boolean, boolean)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    pen.printf("%-10s %-8s %16s%n", "storage", "index", "bytes/block");
+    for (boolean columnar : new boolean[] {false, true}) {
+      for (boolean compact : new boolean[] {false, true}) {
+        if (compact || !columnar) {
+          pen.printf("%-10s %-8s %16.1f%n", columnar ? "columns" : "objects",
+              compact ? "compact" : "full", trial(compact, columnar));
+        } // if
+      } // for
+    } // for
+  } // main(String[])
+} // class MemoryBenchmark
@@ -0,0 +1,139 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainNode;
+import edu.grinnell.csc207.blockchains.Hash;
+import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure how long blocks take to spread among nodes on this machine,
+ * connected in a line (the slowest case, every block crossing every
+ * hop) and fully (every node a peer of every other). For each, we
+ * time single blocks from append on the first node until every node
+ * has it, and then a burst of blocks appended as fast as we can.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.PropagationBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class PropagationBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of nodes. */
+  static final int NODES = 8;
+
+  /** The number of single blocks to time. */
+  static final int SINGLES = 500;
+
+  /** The number of blocks in the burst. */
+  static final int BURST = 20_000;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Wait until every node's chain ends with a particular block.
+   *
+   * @param nodes
+   *   The nodes.
+   * @param tail
+   *   The hash of the block.
+   */
+  static void await(ChainNode[] nodes, Hash tail) {
+    for (ChainNode node : nodes) {
+      while (!node.getChain().getHash().equals(tail)) {
+        Thread.yield();
+      } // while
+    } // for
+  } // await(ChainNode[], Hash)
+
+  /**
+   * Time blocks spreading through a network.
+   *
+   * @param pen
+   *   Where to print.
+   * @param label
+   *   What to call the network.
+   * @param mesh
+   *   True to connect every pair of nodes, false for a line.
+   */
+  static void trial(PrintWriter pen, String label, boolean mesh) throws Exception {
+    HashValidator anything = (hash) -> true;
+    Block genesis = new BlockChain(anything).blocks().next();
+    ChainNode[] nodes = new ChainNode[NODES];
+    for (int i = 0; i < NODES; i++) {
+      nodes[i] = new ChainNode(new BlockChain(anything, false, false, genesis), 0);
+    } // for
+    for (int i = 0; i < NODES; i++) {
+      for (int j = i + 1; j < (mesh ? NODES : Math.min(i + 2, NODES)); j++) {
+        nodes[i].connect("localhost", nodes[j].getPort());
+      } // for
+    } // for
+    Thread.sleep(200);
+
+    ChainNode first = nodes[0];
+    long[] nanos = new long[SINGLES];
+    for (int b = 0; b < SINGLES; b++) {
+      Block blk = first.getChain().mine(new Transaction("", "U" + b, 1));
+      long start = System.nanoTime();
+      first.append(blk);
+      await(nodes, blk.getHash());
+      nanos[b] = System.nanoTime() - start;
+    } // for
+    Arrays.sort(nanos);
+
+    long start = System.nanoTime();
+    Block blk = null;
+    for (int b = 0; b < BURST; b++) {
+      blk = first.getChain().mine(new Transaction("", "V" + b, 1));
+      first.append(blk);
+    } // for
+    await(nodes, blk.getHash());
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long downloads = 0;
+    for (int i = 1; i < NODES; i++) {
+      downloads += nodes[i].getDownloaded();
+    } // for
+    pen.printf("%-6s %10.2f %10.2f %14.0f %16.2f%n", label, nanos[SINGLES / 2] / 1e6,
+        nanos[(int) (SINGLES * 0.99)] / 1e6, BURST / seconds,
+        downloads / (double) ((NODES - 1) * (SINGLES + BURST)));
+    for (ChainNode node : nodes) {
+      node.close();
+    } // for
+  } // trial(PrintWriter, String, boolean)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    pen.printf("%d nodes%n", NODES);
+    pen.printf("%-6s %10s %10s %14s %16s%n", "net", "p50 ms", "p99 ms", "burst blk/s",
+        "downloads/block");
+    trial(pen, "warm", true);
+    trial(pen, "line", false);
+    trial(pen, "mesh", true);
+  } // main(String[])
+} // class PropagationBenchmark
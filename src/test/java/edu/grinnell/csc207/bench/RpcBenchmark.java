@@ -0,0 +1,173 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import edu.grinnell.csc207.blockchains.Block;
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.ChainRpcClient;
+import edu.grinnell.csc207.blockchains.ChainRpcServer;
+import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure a ChainRpcServer on this machine: one connection that keeps
+ * many balance requests in flight, then the same connection appending
+ * blocks one at a time and in batches. Prints requests (or blocks) per
+ * second and the median and 99th percentile latencies.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.RpcBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class RpcBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of users in the chain. */
+  static final int USERS = 1000;
+
+  /** The number of balance requests. */
+  static final int READS = 200_000;
+
+  /** The number of blocks to append in each trial. */
+  static final int BLOCKS = 20_000;
+
+  /** The numbers of requests we allow in flight. */
+  static final int[] WINDOWS = {1, 16, 256};
+
+  /** The numbers of blocks in each append. */
+  static final int[] BATCHES = {1, 16, 256};
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Send requests, keeping up to some number in flight, and print how
+   * they went.
+   *
+   * @param pen
+   *   Where to print.
+   * @param label
+   *   What to call the trial.
+   * @param count
+   *   The number of requests.
+   * @param items
+   *   The number of items (balances or blocks) per request.
+   * @param window
+   *   The most requests in flight.
+   * @param request
+   *   Sends request i.
+   */
+  static void trial(PrintWriter pen, String label, int count, int items, int window,
+      Request request) throws Exception {
+    Semaphore room = new Semaphore(window);
+    long[] nanos = new long[count];
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      room.acquire();
+      final int n = i;
+      final long sent = System.nanoTime();
+      request.send(i).whenComplete((result, failure) -> {
+        nanos[n] = System.nanoTime() - sent;
+        if (failure != null) {
+          failure.printStackTrace();
+        } // if
+        room.release();
+      });
+    } // for
+    room.acquire(window);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Arrays.sort(nanos);
+    pen.printf("%-16s %8d %14.0f %10.1f %10.1f%n", label, window, count * items / seconds,
+        nanos[count / 2] / 1e3, nanos[(int) (count * 0.99)] / 1e3);
+  } // trial(PrintWriter, String, int, int, int, Request)
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) throws Exception {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    HashValidator anything = (hash) -> true;
+    BlockChain chain = new BlockChain(anything);
+    for (int u = 0; u < USERS; u++) {
+      chain.append(chain.mine(new Transaction("", "U" + u, 1_000_000)));
+    } // for
+    ChainRpcServer server = new ChainRpcServer(chain, 0);
+    server.start();
+    ChainRpcClient client = new ChainRpcClient("localhost", server.getPort());
+
+    pen.printf("%-16s %8s %14s %10s %10s%n", "trial", "window", "items/sec", "p50 us",
+        "p99 us");
+    trial(pen, "warm-up", READS, 1, 64, (i) -> client.balance("U" + i % USERS));
+    for (int window : WINDOWS) {
+      trial(pen, "balance", READS, 1, window, (i) -> client.balance("U" + i % USERS));
+    } // for
+
+    // Build the blocks ahead of time on a copy of the chain, so that we
+    // time only sending and appending them.
+    BlockChain copy = new BlockChain(anything, false, false, chain.blocks().next());
+    for (Iterator<Block> blocks = chain.blocks(); blocks.hasNext(); ) {
+      Block blk = blocks.next();
+      if (blk.getNum() > 0) {
+        copy.append(blk);
+      } // if
+    } // for
+    for (int batch : BATCHES) {
+      List<List<Block>> requests = new ArrayList<List<Block>>();
+      for (int r = 0; r < BLOCKS / batch; r++) {
+        List<Block> blocks = new ArrayList<Block>(batch);
+        for (int b = 0; b < batch; b++) {
+          Block blk = copy.mine(new Transaction("U" + (b % USERS), "U" + (r % USERS), 1));
+          copy.append(blk);
+          blocks.add(blk);
+        } // for
+        requests.add(blocks);
+      } // for
+      trial(pen, "append x" + batch, requests.size(), batch, 16,
+          (i) -> client.append(requests.get(i)));
+    } // for
+    pen.printf("Chain size: %d (expected %d)%n", chain.getSize(), copy.getSize());
+    client.close();
+    server.stop();
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A way to send numbered requests.
+   */
+  interface Request {
+    /**
+     * Send one request.
+     *
+     * @param i
+     *   Its number.
+     *
+     * @return a future for its result.
+     */
+    CompletableFuture<?> send(int i);
+  } // interface Request
+} // class RpcBenchmark
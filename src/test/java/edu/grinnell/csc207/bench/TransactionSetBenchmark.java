@@ -0,0 +1,166 @@
+package edu.grinnell.csc207.bench;
+
+import java.io.PrintWriter;
+import java.util.HashSet;
+
+import edu.grinnell.csc207.blockchains.Transaction;
+
+/**
+ * Measure how quickly we can ask whether transactions are in a hash
+ * set, as a mempool does to find duplicates: first with Transaction's
+ * own cached hash code and then, for comparison, with the hash code
+ * of its string form, as Transaction used to compute it.
+ *
+ * Run with
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/classes:target/test-classes \
+ *     edu.grinnell.csc207.bench.TransactionSetBenchmark
+ * </pre>
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TransactionSetBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of transactions in the set. */
+  static final int SIZE = 100_000;
+
+  /** The number of lookups in each trial. */
+  static final int LOOKUPS = 2_000_000;
+
+  /** The number of trials of each kind. */
+  static final int TRIALS = 5;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build some transactions.
+   *
+   * @param n
+   *   The number of transactions.
+   * @param offset
+   *   Shifts the amounts, so that different offsets give different
+   *   transactions.
+   *
+   * @return the transactions.
+   */
+  static Transaction[] sample(int n, int offset) {
+    Transaction[] result = new Transaction[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = new Transaction("U" + (i % 1000), "U" + ((i * 7) % 1000), i + offset);
+    } // for
+    return result;
+  } // sample(int, int)
+
+  /**
+   * Time lookups of transactions, half of which are in the set.
+   *
+   * @param set
+   *   The set.
+   * @param probes
+   *   What to look up.
+   *
+   * @return { nanoseconds, number found }.
+   */
+  static <T> long[] trial(HashSet<T> set, T[] probes) {
+    long start = System.nanoTime();
+    long found = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      if (set.contains(probes[i % probes.length])) {
+        found++;
+      } // if
+    } // for
+    return new long[] {System.nanoTime() - start, found};
+  } // trial(HashSet, T[])
+
+  // +------+--------------------------------------------------------
+  // | Main |
+  // +------+
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args
+   *   Command-line arguments (ignored).
+   */
+  public static void main(String[] args) {
+    PrintWriter pen = new PrintWriter(System.out, true);
+    Transaction[] members = sample(SIZE, 0);
+    Transaction[] probes = new Transaction[2 * SIZE];
+    System.arraycopy(sample(SIZE, 0), 0, probes, 0, SIZE);
+    System.arraycopy(sample(SIZE, SIZE), 0, probes, SIZE, SIZE);
+
+    HashSet<Transaction> cached = new HashSet<Transaction>();
+    HashSet<Formatted> formatted = new HashSet<Formatted>();
+    Formatted[] formattedProbes = new Formatted[probes.length];
+    for (Transaction t : members) {
+      cached.add(t);
+      formatted.add(new Formatted(t));
+    } // for
+    for (int i = 0; i < probes.length; i++) {
+      formattedProbes[i] = new Formatted(probes[i]);
+    } // for
+
+    pen.printf("%-10s %16s %10s%n", "hash", "lookups/sec", "found");
+    for (int t = 0; t < TRIALS; t++) {
+      long[] a = trial(cached, probes);
+      long[] b = trial(formatted, formattedProbes);
+      pen.printf("%-10s %16.0f %10d%n", "cached", LOOKUPS / (a[0] / 1e9), a[1]);
+      pen.printf("%-10s %16.0f %10d%n", "formatted", LOOKUPS / (b[0] / 1e9), b[1]);
+    } // for
+  } // main(String[])
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A transaction whose hash code is that of its formatted string,
+   * computed on every call.
+   */
+  static class Formatted {
+    /** The transaction. */
+    final Transaction transaction;
+
+    /**
+     * Wrap a transaction.
+     *
+     * @param t
+     *   The transaction.
+     */
+    Formatted(Transaction t) {
+      this.transaction = t;
+    } // Formatted(Transaction)
+
+    /**
+     * Get a hash code the old way.
+     *
+     * @return the hash code.
+     */
+    public int hashCode() {
+      Transaction t = this.transaction;
+      return String.format("[%s, Target: %s, Amount: %s]",
+          ("".equals(t.getSource())) ? "Deposit" : "Source: " + t.getSource(),
+          t.getTarget(), t.getAmount()).hashCode();
+    } // hashCode()
+
+    /**
+     * Compare to another wrapped transaction.
+     *
+     * @param other
+     *   The other object.
+     *
+     * @return true if it wraps an equal transaction.
+     */
+    public boolean equals(Object other) {
+      return (other instanceof Formatted)
+          && ((Formatted) other).transaction.equals(this.transaction);
+    } // equals(Object)
+  } // class Formatted
+} // class TransactionSetBenchmark
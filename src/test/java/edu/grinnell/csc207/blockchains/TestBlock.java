@@ -1,12 +1,17 @@
 package edu.grinnell.csc207.blockchains;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -243,6 +248,58 @@ public class TestBlock {
     assertEquals(ph, b.getPrevHash(), "correct previous hash in initial block");
   } // initialBlockTest()
 
+  /**
+   * Make sure that the header formats produce the hashes we expect.
+   */
+  @Test
+  public void versionTest() {
+    Transaction t = new Transaction("H\u00e9re", "There", 12);
+    Hash ph = new Hash(new byte[] {3, 4, 5});
+    Block legacy = new Block(10, t, ph, 67);
+    assertEquals(Block.LEGACY, legacy.getVersion(), "default format");
+    assertArrayEquals(expectedHash(legacy), legacy.getHash().getBytes(), "legacy hash");
+
+    Block canonical = new Block(10, t, ph, 67, Block.CANONICAL);
+    byte[] source = "H\u00e9re".getBytes(StandardCharsets.UTF_8);
+    byte[] header = ByteBuffer.allocate(1 + 5 * Integer.BYTES + source.length + 5 + 3
+        + Long.BYTES)
+        .put((byte) Block.CANONICAL).putInt(10)
+        .putInt(source.length).put(source)
+        .putInt(5).put("There".getBytes(StandardCharsets.UTF_8))
+        .putInt(12).putInt(3).put(new byte[] {3, 4, 5}).putLong(67).array();
+    assertArrayEquals(header, canonical.getHeader(), "canonical header");
+    assertArrayEquals(md.digest(header), canonical.getHash().getBytes(), "canonical hash");
+    assertNotEquals(legacy.getHash(), canonical.getHash(), "formats differ");
+    assertThrows(IllegalArgumentException.class, () -> new Block(1, t, ph, 1, 7),
+        "unknown format");
+  } // versionTest()
+
+  /**
+   * Make sure that the Merkle root of a batch covers every transaction.
+   */
+  @Test
+  public void merkleTest() {
+    List<Transaction> batch = new ArrayList<Transaction>();
+    for (int i = 0; i < 5; i++) {
+      batch.add(new Transaction("A", "B" + i, i + 1));
+    } // for
+    Hash root = Block.merkleRoot(batch);
+    assertEquals(32, root.length(), "size of root");
+    assertEquals(root, Block.merkleRoot(new ArrayList<Transaction>(batch)), "same root");
+    for (int i = 0; i < 5; i++) {
+      List<Transaction> changed = new ArrayList<Transaction>(batch);
+      changed.set(i, new Transaction("A", "B" + i, 100));
+      assertNotEquals(root, Block.merkleRoot(changed), "changed transaction " + i);
+    } // for
+    assertNotEquals(root, Block.merkleRoot(batch.subList(0, 4)), "missing transaction");
+
+    Block blk = new Block(3, batch, root, (hash) -> true);
+    assertEquals(root, blk.getMerkleRoot(), "root of block");
+    assertEquals(blk.getHash(), new Block(3, batch, root, blk.getNonce()).getHash(), "rehash");
+    assertThrows(IllegalArgumentException.class,
+        () -> new Block(3, new ArrayList<Transaction>(), root, 0), "empty batch");
+  } // merkleTest()
+
   /**
    * Test that the toString method works.
    * Forthcoming.
@@ -3,6 +3,12 @@ package edu.grinnell.csc207.blockchains;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -438,6 +444,30 @@ public class TestBlockChain {
     chain.check();
   } // testInvalidTransactions()
 
+  /**
+   * Make sure that check() tells an unknown source from one that
+   * cannot afford a transfer.
+   */
+  @Test
+  public void testCheckMessages() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+
+    chain.append(chain.mine(new Transaction("A", "B", 150)));
+    Exception e = assertThrows(Exception.class, () -> chain.check(), "overdraft");
+    assertTrue(e.getMessage().startsWith("Insufficient funds for A"), e.getMessage());
+    chain.removeLast();
+
+    chain.append(chain.mine(new Transaction("Z", "B", 150)));
+    e = assertThrows(Exception.class, () -> chain.check(), "unknown source");
+    assertTrue(e.getMessage().startsWith("Unknown Source"), e.getMessage());
+    chain.removeLast();
+
+    chain.append(chain.mine(new Transaction("Z", "B", 0)));
+    e = assertThrows(Exception.class, () -> chain.check(), "unknown source of nothing");
+    assertTrue(e.getMessage().startsWith("Unknown Source"), e.getMessage());
+  } // testCheckMessages()
+
   /**
    * Test modifying a valid chain.
    */
@@ -463,4 +493,559 @@ public class TestBlockChain {
     assertCheckFails(chain, "modified chain is incorrect");
   } // testModifiedChain()
 
+  /**
+   * Make sure that we can find blocks by their hashes.
+   */
+  @Test
+  public void testFindByHash() {
+    for (boolean compact : new boolean[] {false, true}) {
+      BlockChain chain = new BlockChain((hash) -> true, compact);
+      Block[] blocks = new Block[100];
+      for (int i = 0; i < blocks.length; i++) {
+        blocks[i] = chain.mine(new Transaction("", "A", i));
+        chain.append(blocks[i]);
+      } // for
+      for (Block block : blocks) {
+        assertEquals(block, chain.findByHash(block.getHash()), "indexed block");
+      } // for
+      assertEquals(chain.blocks().next(), chain.findByHash(chain.blocks().next().getHash()),
+          "initial block");
+      assertEquals(null, chain.findByHash(new Hash(new byte[] {1, 2, 3})), "missing hash");
+
+      for (int i = 0; i < 50; i++) {
+        chain.removeLast();
+      } // for
+      for (int i = 0; i < blocks.length; i++) {
+        assertEquals((i < 50) ? blocks[i] : null, chain.findByHash(blocks[i].getHash()),
+            "block " + i + " after removing");
+      } // for
+    } // for
+  } // testFindByHash()
+
+  /**
+   * Make sure that we can page through a user's history.
+   */
+  @Test
+  public void testHistory() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 100)));
+    for (int i = 0; i < 20; i++) {
+      chain.append(chain.mine(new Transaction("A", (i % 2 == 0) ? "B" : "C", 1)));
+    } // for
+    assertEquals(21, chain.historySize("A"), "A's history size");
+    assertEquals(11, chain.historySize("B"), "B's history size");
+    assertEquals(10, chain.historySize("C"), "C's history size");
+    assertEquals(0, chain.historySize("D"), "D's history size");
+
+    List<Block> page = chain.history("B", 0, 4);
+    assertEquals(4, page.size(), "first page of B");
+    assertEquals(2, page.get(0).getNum(), "B's deposit");
+    assertEquals(3, page.get(1).getNum(), "B's first transfer");
+    assertEquals(7, page.get(3).getNum(), "end of first page of B");
+    page = chain.history("B", page.get(3).getNum() + 1, 4);
+    assertEquals(9, page.get(0).getNum(), "start of second page of B");
+    assertEquals(7, chain.history("B", 9, 100).size(), "last page of B");
+    assertTrue(chain.history("B", 100, 100).isEmpty(), "past the end");
+    assertTrue(chain.history("D", 0, 100).isEmpty(), "unknown user");
+
+    chain.removeLast();
+    chain.removeLast();
+    assertEquals(19, chain.historySize("A"), "A's history after removing");
+    assertEquals(10, chain.historySize("B"), "B's history after removing");
+    assertEquals(9, chain.historySize("C"), "C's history after removing");
+    chain.append(chain.mine(new Transaction("C", "D", 1)));
+    assertEquals(chain.getSize() - 1, chain.history("D", 0, 1).get(0).getNum(), "D's history");
+    assertEquals(10, chain.historySize("C"), "C's history after appending");
+  } // testHistory()
+
+  /**
+   * Check historical balances.
+   */
+  @Test
+  public void testBalanceAt() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 50)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("", "C", 5)));
+    chain.append(chain.mine(new Transaction("B", "C", 70)));
+
+    long[] expectedA = {0, 100, 100, 70, 70, 70};
+    long[] expectedB = {0, 0, 50, 80, 80, 10};
+    long[] expectedC = {0, 0, 0, 0, 5, 75};
+    for (int h = 0; h < chain.getSize(); h++) {
+      assertEquals(expectedA[h], chain.balanceAt("A", h), "A at " + h);
+      assertEquals(expectedB[h], chain.balanceAt("B", h), "B at " + h);
+      assertEquals(expectedC[h], chain.balanceAt("C", h), "C at " + h);
+    } // for
+    assertEquals(0, chain.balanceAt("D", 3), "unknown user");
+    assertEquals(10, chain.balanceAt("B", 1000), "past the end");
+
+    chain.removeLast();
+    assertEquals(80, chain.balanceAt("B", 1000), "B after removing");
+    assertEquals(5, chain.balanceAt("C", 1000), "C after removing");
+    chain.append(chain.mine(new Transaction("C", "A", 5)));
+    assertEquals(75, chain.balanceAt("A", 5), "A after appending");
+    assertEquals(0, chain.balanceAt("C", 5), "C after appending");
+    assertEquals(5, chain.balanceAt("C", 4), "C before the new block");
+  } // testBalanceAt()
+
+  /**
+   * Make sure that block and transaction streams split correctly.
+   */
+  @Test
+  public void testStreams() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    String[] names = {"A", "B", "C", "D", "E"};
+    for (int i = 0; i < 1000; i++) {
+      chain.append(chain.mine(new Transaction("", names[i % names.length], i)));
+    } // for
+
+    Spliterator<Transaction> split = chain.spliterator();
+    assertTrue(split.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED
+        | Spliterator.ORDERED | Spliterator.IMMUTABLE), "characteristics");
+    assertEquals(1001, split.getExactSizeIfKnown(), "size of spliterator");
+    Spliterator<Transaction> prefix = split.trySplit();
+    assertEquals(500, prefix.getExactSizeIfKnown(), "size of prefix");
+    assertEquals(501, split.getExactSizeIfKnown(), "size of suffix");
+
+    assertEquals(1001, chain.blockStream(true).count(), "number of blocks");
+    int[] nums = chain.blockStream(true).mapToInt(Block::getNum).toArray();
+    for (int i = 0; i < nums.length; i++) {
+      assertEquals(i, nums[i], "order of blocks");
+    } // for
+
+    Map<String, Long> sequential = chain.transactionStream()
+        .collect(Collectors.groupingBy(Transaction::getTarget,
+            Collectors.summingLong(Transaction::getAmount)));
+    Map<String, Long> parallel = chain.transactionStream(true)
+        .collect(Collectors.groupingByConcurrent(Transaction::getTarget,
+            Collectors.summingLong(Transaction::getAmount)));
+    assertEquals(sequential, parallel, "volume per user");
+    assertEquals(99500L, parallel.get("A"), "volume for A");
+  } // testStreams()
+
+  /**
+   * Make sure that transaction streams split evenly by transactions
+   * when blocks hold batches, even after pruning.
+   */
+  @Test
+  public void testBatchedStreams() {
+    for (int retained : new int[] {0, 10}) {
+      BlockChain chain = new BlockChain((hash) -> true);
+      if (retained > 0) {
+        chain.setRetainedBlocks(retained);
+      } // if
+      int amount = 0;
+      for (int i = 0; i < 200; i++) {
+        List<Transaction> batch = new ArrayList<Transaction>();
+        for (int j = 0; j <= i % 7; j++) {
+          batch.add(new Transaction("", "A", amount++));
+        } // for
+        chain.append(chain.mine(batch));
+      } // for
+
+      ChainSnapshot snap = chain.snapshot();
+      List<Transaction> all = new ArrayList<Transaction>();
+      for (Transaction t : snap) {
+        all.add(t);
+      } // for
+      assertEquals(snap.getTransactionCount(), all.size(), "iterated transactions");
+
+      Spliterator<Transaction> split = snap.spliterator();
+      assertTrue(split.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED),
+          "characteristics");
+      assertEquals(all.size(), split.getExactSizeIfKnown(), "size of spliterator");
+      Spliterator<Transaction> prefix = split.trySplit();
+      assertEquals(all.size() / 2, prefix.getExactSizeIfKnown(), "size of prefix");
+      assertEquals(all.size() - all.size() / 2, split.getExactSizeIfKnown(),
+          "size of suffix");
+      List<Transaction> halves = new ArrayList<Transaction>();
+      prefix.forEachRemaining(halves::add);
+      assertTrue(split.tryAdvance(halves::add), "advance");
+      assertTrue(split.tryAdvance(halves::add), "advance again");
+      split.forEachRemaining(halves::add);
+      assertEquals(all, halves, "halves in order");
+
+      assertEquals(all, snap.transactionStream(true).toList(), "parallel stream");
+      assertEquals(all, snap.transactionStream(false).toList(), "sequential stream");
+    } // for
+  } // testBatchedStreams()
+
+  /**
+   * Make sure that snapshots stay consistent while another thread
+   * appends and removes blocks.
+   */
+  @Test
+  public void testSnapshots() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 1)));
+    ChainSnapshot before = chain.snapshot();
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicReference<String> failure = new AtomicReference<String>(null);
+
+    Thread[] readers = new Thread[4];
+    for (int r = 0; r < readers.length; r++) {
+      readers[r] = new Thread(() -> {
+        while (!done.get() && (failure.get() == null)) {
+          ChainSnapshot snap = chain.snapshot();
+          int n = snap.getSize();
+          // Every block but the first deposits 1 into A.
+          if ((snap.balance("A") != n - 1) || (snap.historySize("A") != n - 1)
+              || (snap.blockStream(false).count() != n)
+              || !snap.getBlock(n - 1).getHash().equals(snap.getHash())) {
+            failure.set("inconsistent snapshot of size " + n);
+          } // if
+        } // while
+      });
+      readers[r].start();
+    } // for
+
+    for (int i = 0; i < 2000; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+      if (i % 3 == 0) {
+        chain.removeLast();
+        chain.append(chain.mine(new Transaction("", "A", 1)));
+      } // if
+    } // for
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    } // for
+
+    assertEquals(null, failure.get(), "readers saw consistent snapshots");
+    assertEquals(2, before.getSize(), "old snapshot keeps its size");
+    assertEquals(1, before.balance("A"), "old snapshot keeps its balances");
+    assertEquals(2001, chain.snapshot().balance("A"), "final balance");
+    assertEquals(2001, chain.balance("A"), "final balance from the chain");
+  } // testSnapshots()
+
+  /**
+   * Make sure that readers of a compact hash index find every block
+   * that stays in the chain, without locking, while another thread
+   * appends and removes blocks (shifting and growing the table).
+   */
+  @Test
+  public void testCompactFindWhileChanging() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true, true);
+    Block[] kept = new Block[50];
+    for (int i = 0; i < kept.length; i++) {
+      kept[i] = chain.mine(new Transaction("", "A", i));
+      chain.append(kept[i]);
+    } // for
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicReference<String> failure = new AtomicReference<String>(null);
+
+    Thread[] readers = new Thread[4];
+    for (int r = 0; r < readers.length; r++) {
+      readers[r] = new Thread(() -> {
+        while (!done.get() && (failure.get() == null)) {
+          for (Block blk : kept) {
+            if (chain.findByHash(blk.getHash()) == null) {
+              failure.set("lost block " + blk.getNum());
+            } // if
+          } // for
+        } // while
+      });
+      readers[r].start();
+    } // for
+
+    for (int i = 0; i < 5000; i++) {
+      chain.append(chain.mine(new Transaction("", "B", i)));
+      if (i % 2 == 0) {
+        chain.removeLast();
+      } // if
+    } // for
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    } // for
+    assertEquals(null, failure.get(), "readers found every kept block");
+    assertEquals(kept.length + 1 + 2500, chain.getSize(), "final size");
+  } // testCompactFindWhileChanging()
+
+  /**
+   * Mine a batch of deposits that follows the end of a chain.
+   */
+  static List<Block> batch(BlockChain chain, HashValidator v, int n) {
+    List<Block> blocks = new ArrayList<Block>();
+    Hash prev = chain.getHash();
+    for (int i = 0; i < n; i++) {
+      Block blk = new Block(chain.getSize() + i, new Transaction("", "A", 1), prev, v);
+      blocks.add(blk);
+      prev = blk.getHash();
+    } // for
+    return blocks;
+  } // batch(BlockChain, HashValidator, int)
+
+  /**
+   * Make sure that batches are appended all or nothing.
+   */
+  @Test
+  public void testAppendAll() {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    BlockChain chain = new BlockChain(v);
+    chain.appendAll(batch(chain, v, 200));
+    assertEquals(201, chain.getSize(), "after appending a batch");
+    assertEquals(200, chain.balance("A"), "balance after appending a batch");
+    assertTrue(chain.isCorrect(), "chain after appending a batch");
+
+    List<Block> blocks = batch(chain, v, 100);
+    blocks.get(57).nonce++;
+    InvalidBlockException e =
+        assertThrows(InvalidBlockException.class, () -> chain.appendAll(blocks));
+    assertEquals(57, e.getIndex(), "bad nonce");
+    assertEquals(201, chain.getSize(), "after a bad nonce");
+
+    List<Block> unlinked = batch(chain, v, 100);
+    unlinked.remove(30);
+    e = assertThrows(InvalidBlockException.class, () -> chain.appendAll(unlinked));
+    assertEquals(30, e.getIndex(), "missing block");
+    assertEquals(201, chain.getSize(), "after a missing block");
+
+    List<Block> stale = batch(chain, v, 10);
+    chain.append(chain.mine(new Transaction("", "B", 1)));
+    e = assertThrows(InvalidBlockException.class, () -> chain.appendAll(stale));
+    assertEquals(0, e.getIndex(), "stale batch");
+    assertEquals(202, chain.getSize(), "after a stale batch");
+  } // testAppendAll()
+
+  /**
+   * Make sure that the chain follows the longest branch.
+   */
+  @Test
+  public void testForks() {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Hash forkPoint = chain.getHash();
+    chain.append(chain.mine(new Transaction("A", "B", 10)));
+    chain.append(chain.mine(new Transaction("A", "B", 10)));
+    Hash oldTip = chain.getHash();
+
+    // A competing branch that sends money to C instead.
+    Block c1 = new Block(2, new Transaction("A", "C", 30), forkPoint, v);
+    Block c2 = new Block(3, new Transaction("A", "C", 30), c1.getHash(), v);
+    Block c3 = new Block(4, new Transaction("C", "D", 5), c2.getHash(), v);
+    assertFalse(chain.submit(c3), "orphan does not change the chain");
+    assertFalse(chain.submit(c1), "shorter branch does not change the chain");
+    assertEquals(oldTip, chain.getHash(), "still on the original branch");
+    assertEquals(2, chain.getSideBlockCount(), "two blocks waiting");
+    assertTrue(chain.submit(c2), "longer branch changes the chain");
+    assertEquals(5, chain.getSize(), "size after switching");
+    assertEquals(c3.getHash(), chain.getHash(), "tip after switching");
+    assertEquals(0, chain.balance("B"), "B after switching");
+    assertEquals(55, chain.balanceAt("C", 4), "C after switching");
+    assertEquals(1, chain.historySize("D"), "D after switching");
+    assertEquals(2, chain.getSideBlockCount(), "old branch kept");
+    assertEquals(null, chain.findByHash(oldTip), "old tip not in chain");
+    assertTrue(chain.isCorrect(), "chain after switching");
+
+    // Extend the original branch past the new one.
+    Block b4 = new Block(4, new Transaction("", "B", 1), oldTip, v);
+    Block b5 = new Block(5, new Transaction("", "B", 1), b4.getHash(), v);
+    assertFalse(chain.submit(b4), "tie does not change the chain");
+    assertTrue(chain.submit(b5), "switch back");
+    assertEquals(b5.getHash(), chain.getHash(), "tip after switching back");
+    assertEquals(22, chain.balance("B"), "B after switching back");
+    assertEquals(0, chain.historySize("C"), "C after switching back");
+    assertFalse(chain.submit(b5), "duplicate block");
+    assertTrue(chain.isCorrect(), "chain after switching back");
+
+    Block extra = chain.mine(new Transaction("", "E", 1));
+    assertTrue(chain.submit(extra), "block that extends the chain");
+    assertEquals(extra, chain.findByHash(chain.getHash()), "extended tip");
+  } // testForks()
+
+  /**
+   * Make sure that submit keeps only so many blocks off the chain, and
+   * none on branches that leave it too far back.
+   */
+  @Test
+  public void testForkLimits() {
+    HashValidator v = (hash) -> true;
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Hash forkPoint = chain.getHash();
+    chain.append(chain.mine(new Transaction("", "A", 1)));
+
+    // A side branch that joins the chain, then a flood of orphans.
+    Block side = new Block(2, new Transaction("", "S", 1), forkPoint, v);
+    assertFalse(chain.submit(side), "side block");
+    for (int i = 0; i < BlockChain.MAX_SIDE_BLOCKS + 100; i++) {
+      Hash nowhere = new Hash(new byte[] {(byte) i, (byte) (i >> 8), 1, 2});
+      assertFalse(chain.submit(new Block(5, new Transaction("", "O", i), nowhere, v)),
+          "orphan " + i);
+      assertTrue(chain.getSideBlockCount() <= BlockChain.MAX_SIDE_BLOCKS,
+          "side blocks after orphan " + i);
+    } // for
+    Block next = new Block(3, new Transaction("", "S", 1), side.getHash(), v);
+    assertTrue(chain.submit(next), "orphans went first, so the side branch can win");
+    assertEquals(2, chain.balance("S"), "on the side branch");
+
+    // Branches that leave the chain too far back are dropped.
+    Hash old = side.getHash();
+    Block stale = new Block(3, new Transaction("", "T", 1), old, v);
+    assertFalse(chain.submit(stale), "tie at the end");
+    int before = chain.getSideBlockCount();
+    for (int i = 0; i <= BlockChain.MAX_FORK_DEPTH; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+    } // for
+    Block late = new Block(4, new Transaction("", "T", 1), stale.getHash(), v);
+    assertFalse(chain.submit(late), "too far back");
+    assertTrue(chain.getSideBlockCount() < before, "old branches dropped");
+    Block deep = new Block(chain.getSize(), new Transaction("", "T", 1), old, v);
+    assertFalse(chain.submit(deep), "numbered high, but forks too far back");
+    assertEquals(null, chain.findByHash(deep.getHash()), "not followed");
+    assertEquals(0, chain.balance("T"), "no deep branch");
+  } // testForkLimits()
+
+  /**
+   * Make sure that pruned chains still know balances and users.
+   */
+  @Test
+  public void testPruning() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    BlockChain chain = new BlockChain(v);
+    chain.setRetainedBlocks(10);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    Hash first = chain.getHash();
+    for (int i = 0; i < 100; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 3)));
+    } // for
+    chain.append(chain.mine(new Transaction("", "C", 7)));
+    assertEquals(103, chain.getSize(), "size counts pruned blocks");
+    ChainSnapshot snap = chain.snapshot();
+    assertTrue(snap.getBase() > 0, "some blocks pruned");
+    assertTrue(snap.getSize() - snap.getBase() < 20, "few blocks kept");
+    assertEquals(700, chain.balance("A"), "A after pruning");
+    assertEquals(300, chain.balance("B"), "B after pruning");
+    assertEquals(700, chain.balanceAt("A", 102), "indexed A after pruning");
+    assertEquals(chain.getSize() - snap.getBase(), chain.historySize("B") + 1,
+        "history of retained blocks");
+    assertThrows(IllegalArgumentException.class, () -> chain.balanceAt("A", 5),
+        "balance in pruned blocks");
+    assertThrows(IndexOutOfBoundsException.class, () -> snap.getBlock(0),
+        "pruned block");
+    List<String> users = new ArrayList<String>();
+    chain.users().forEachRemaining(users::add);
+    users.sort(null);
+    assertEquals(List.of("A", "B", "C"), users, "users after pruning");
+    chain.check();
+    assertTrue(chain.isCorrect(), "chain after pruning");
+
+    while (chain.removeLast()) {
+      // Remove everything we can.
+    } // while
+    assertEquals(snap.getBase() + 1, chain.getSize(), "cannot remove pruned blocks");
+    chain.append(chain.mine(new Transaction("A", "C", 1)));
+    assertTrue(chain.isCorrect(), "chain after removing and appending");
+    assertEquals(null, chain.findByHash(first), "pruned blocks not indexed");
+  } // testPruning()
+
+  /**
+   * Make sure that a chain kept in columns acts like any other chain.
+   */
+  @Test
+  public void testColumnar() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    BlockChain chain = new BlockChain(v, true, true);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    chain.appendAll(batch(chain, v, 100));
+    for (int i = 0; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("A", "B" + (i % 3), 5)));
+    } // for
+    assertEquals(132, chain.getSize(), "size in columns");
+    assertEquals(950, chain.balance("A"), "A in columns");
+    assertEquals(50, chain.balance("B1"), "B1 in columns");
+    chain.check();
+
+    Block tip = chain.findByHash(chain.getHash());
+    assertEquals(131, tip.getNum(), "number of the tip");
+    assertEquals(new Transaction("A", "B2", 5), tip.getTransaction(), "tip transaction");
+    tip.blockData = new Transaction("", "F", 1000);
+    assertTrue(chain.isCorrect(), "returned blocks are copies");
+
+    // Replace blocks that an older snapshot can still see.
+    ChainSnapshot before = chain.snapshot();
+    Hash oldHash = before.getBlock(128).getHash();
+    for (int i = 0; i < 5; i++) {
+      chain.removeLast();
+    } // for
+    chain.append(chain.mine(new Transaction("A", "C", 1)));
+    assertEquals(oldHash, before.getBlock(128).getHash(), "old snapshot unchanged");
+    assertEquals(new Transaction("A", "C", 1), chain.snapshot().getBlock(127).getTransaction(),
+        "new block");
+    assertEquals(1, chain.balance("C"), "C in columns");
+    assertTrue(chain.isCorrect(), "chain after replacing blocks");
+  } // testColumnar()
+
+  /**
+   * Make sure that chains accept blocks in either header format.
+   */
+  @Test
+  public void testBlockVersions() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    for (boolean columnar : new boolean[] {false, true}) {
+      BlockChain chain = new BlockChain(v, false, columnar);
+      chain.append(chain.mine(new Transaction("", "A", 100)));
+      chain.setBlockVersion(Block.CANONICAL);
+      Block blk = chain.mine(new Transaction("A", "B", 10));
+      assertEquals(Block.CANONICAL, blk.getVersion(), "mined format");
+      chain.append(blk);
+      chain.setBlockVersion(Block.LEGACY);
+      chain.append(chain.mine(new Transaction("B", "A", 1)));
+      assertEquals(Block.CANONICAL, chain.snapshot().getBlock(2).getVersion(), "stored format");
+      chain.check();
+      assertEquals(91, chain.balance("A"), "balance with mixed formats");
+    } // for
+  } // testBlockVersions()
+
+  /**
+   * Make sure that blocks may hold batches of transactions.
+   */
+  @Test
+  public void testBatches() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+    for (boolean columnar : new boolean[] {false, true}) {
+      BlockChain chain = new BlockChain(v, false, columnar);
+      chain.append(chain.mine(new Transaction("", "A", 100)));
+      Block batch = chain.mine(List.of(new Transaction("A", "B", 10),
+          new Transaction("B", "C", 4), new Transaction("A", "C", 1)));
+      assertTrue(batch.isBatch(), "batch");
+      assertEquals(3, batch.getTransactionCount(), "count");
+      assertEquals(new Transaction("A", "B", 10), batch.getTransaction(), "first transaction");
+      chain.append(batch);
+      chain.append(chain.mine(new Transaction("C", "A", 2)));
+      chain.check();
+      assertEquals(91, chain.balance("A"), "A");
+      assertEquals(6, chain.balance("B"), "B");
+      assertEquals(3, chain.balance("C"), "C");
+      assertEquals(6, chain.balanceAt("B", 2), "B at the batch");
+      assertEquals(2, chain.historySize("C"), "blocks with C");
+
+      ChainSnapshot snap = chain.snapshot();
+      assertEquals(6, snap.getTransactionCount(), "transactions");
+      List<Transaction> all = new ArrayList<Transaction>();
+      for (Transaction t : snap) {
+        all.add(t);
+      } // for
+      assertEquals(6, all.size(), "iterated transactions");
+      assertEquals(new Transaction("B", "C", 4), all.get(3), "in order");
+      assertEquals(5, snap.transactionStream(true).filter((t) -> t.getTarget().equals("C"))
+          .mapToInt(Transaction::getAmount).sum(), "stream");
+      assertEquals(batch.getMerkleRoot(), snap.getBlock(2).getMerkleRoot(), "stored root");
+
+      // An overdraft in the middle of a batch is caught.
+      chain.append(chain.mine(List.of(new Transaction("B", "A", 1),
+          new Transaction("B", "C", 100))));
+      assertThrows(Exception.class, () -> chain.check(), "overdraft in batch");
+      assertTrue(chain.removeLast(), "remove bad batch");
+      assertTrue(chain.removeLast(), "remove");
+      assertEquals(89, chain.balance("A"), "A after removing");
+      assertEquals(5, chain.snapshot().getTransactionCount(), "transactions after removing");
+    } // for
+  } // testBatches()
+
 } // class TestBlockChain
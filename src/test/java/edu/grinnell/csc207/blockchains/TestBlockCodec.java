@@ -0,0 +1,94 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of our binary form for blocks.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestBlockCodec {
+  /**
+   * Make sure that variable-length ints survive the trip.
+   */
+  @Test
+  public void varintTest() {
+    int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+    ByteBuffer buf = ByteBuffer.allocate(64);
+    for (int value : values) {
+      buf.clear();
+      BlockCodec.writeVarint(buf, value);
+      assertEquals(BlockCodec.varintSize(value), buf.position(), "size of " + value);
+      buf.flip();
+      assertEquals(value, BlockCodec.readVarint(buf), "value " + value);
+      assertEquals(value, BlockCodec.unzigzag(BlockCodec.zigzag(value)), "zigzag " + value);
+    } // for
+    assertEquals(1, BlockCodec.varintSize(BlockCodec.zigzag(-5)), "small negative");
+  } // varintTest()
+
+  /**
+   * Make sure that blocks survive the trip, in heap and direct buffers.
+   */
+  @Test
+  public void blockTest() {
+    Block[] blocks = {
+      new Block(0, new Transaction("", "", 0), new Hash(new byte[0]), (hash) -> true),
+      new Block(12, new Transaction("Alï", "Bo", 1000), new Hash(new byte[] {1, 2}), -3),
+      new Block(300, new Transaction("", "C", -7), new Hash(new byte[32]), 9, Block.CANONICAL),
+      new Block(5, List.of(new Transaction("A", "B", 2), new Transaction("B", "Cé", 1)),
+          new Hash(new byte[] {3}), 4),
+    };
+    for (ByteBuffer buf : new ByteBuffer[] {ByteBuffer.allocate(1024),
+        ByteBuffer.allocateDirect(1024)}) {
+      for (Block blk : blocks) {
+        BlockCodec.writeBlock(buf, blk);
+      } // for
+      buf.flip();
+      for (Block blk : blocks) {
+        int start = buf.position();
+        Block copy = BlockCodec.readBlock(buf);
+        assertEquals(BlockCodec.sizeOf(blk), buf.position() - start, "size of " + blk);
+        assertEquals(blk.toString(), copy.toString(), "copy of " + blk);
+        assertEquals(blk.getVersion(), copy.getVersion(), "version of " + blk);
+        assertEquals(blk.getTransactions(), copy.getTransactions(), "transactions of " + blk);
+        assertEquals(blk.getHash(), copy.rehash().getHash(), "rehash");
+      } // for
+      assertEquals(0, buf.remaining(), "all read");
+    } // for
+    assertTrue(BlockCodec.sizeOf(blocks[1]) < 60, "compact");
+  } // blockTest()
+
+  /**
+   * Make sure that we reject bad data.
+   */
+  @Test
+  public void badDataTest() {
+    Block blk = new Block(1, new Transaction("A", "B", 1), new Hash(new byte[] {1}), 1);
+    ByteBuffer buf = ByteBuffer.allocate(BlockCodec.sizeOf(blk));
+    BlockCodec.writeBlock(buf, blk);
+    byte[] data = buf.array();
+
+    byte[] badFormat = data.clone();
+    badFormat[0] = 99;
+    assertThrows(IllegalArgumentException.class,
+        () -> BlockCodec.readBlock(ByteBuffer.wrap(badFormat)), "format");
+    byte[] badVersion = data.clone();
+    badVersion[1] = 5;
+    assertThrows(IllegalArgumentException.class,
+        () -> BlockCodec.readBlock(ByteBuffer.wrap(badVersion)), "version");
+    byte[] badLength = data.clone();
+    badLength[3] = 100;
+    assertThrows(IllegalArgumentException.class,
+        () -> BlockCodec.readBlock(ByteBuffer.wrap(badLength)), "length");
+    assertThrows(RuntimeException.class,
+        () -> BlockCodec.readBlock(ByteBuffer.wrap(data, 0, data.length - 1)), "truncated");
+  } // badDataTest()
+} // class TestBlockCodec
@@ -0,0 +1,219 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of sharing a chain among nodes.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestChainNode {
+  /** A validator that is quick to satisfy. */
+  static final HashValidator VALIDATOR = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+
+  /** The longest we wait for blocks to spread, in milliseconds. */
+  static final long PATIENCE = 20_000;
+
+  /**
+   * Start some nodes whose chains share a genesis block.
+   *
+   * @param n
+   *   The number of nodes.
+   *
+   * @return the nodes.
+   */
+  static ChainNode[] start(int n) throws Exception {
+    Block genesis = new BlockChain(VALIDATOR).blocks().next();
+    ChainNode[] nodes = new ChainNode[n];
+    for (int i = 0; i < n; i++) {
+      nodes[i] = new ChainNode(new BlockChain(VALIDATOR, false, false, genesis), 0);
+    } // for
+    return nodes;
+  } // start(int)
+
+  /**
+   * Wait until every node has the same chain as the first.
+   *
+   * @param nodes
+   *   The nodes.
+   */
+  static void await(ChainNode... nodes) throws Exception {
+    long deadline = System.currentTimeMillis() + PATIENCE;
+    Hash tail = nodes[0].getChain().getHash();
+    for (ChainNode node : nodes) {
+      while (!node.getChain().getHash().equals(tail)) {
+        assertTrue(System.currentTimeMillis() < deadline, "blocks did not spread");
+        Thread.sleep(5);
+      } // while
+    } // for
+  } // await(ChainNode...)
+
+  /**
+   * Add some blocks to one node's chain.
+   *
+   * @param node
+   *   The node.
+   * @param n
+   *   The number of blocks.
+   * @param user
+   *   Who gets the money.
+   */
+  static void grow(ChainNode node, int n, String user) {
+    for (int i = 0; i < n; i++) {
+      node.append(node.getChain().mine(new Transaction("", user, i + 1)));
+    } // for
+  } // grow(ChainNode, int, String)
+
+  /**
+   * Make sure that blocks spread down a line of nodes, and that each
+   * node downloads each block once.
+   */
+  @Test
+  public void lineTest() throws Exception {
+    ChainNode[] nodes = start(4);
+    try {
+      for (int i = 0; i + 1 < nodes.length; i++) {
+        nodes[i].connect("localhost", nodes[i + 1].getPort());
+      } // for
+      grow(nodes[0], 100, "A");
+      await(nodes);
+      for (int i = 1; i < nodes.length; i++) {
+        assertEquals(101, nodes[i].getChain().getSize(), "size at " + i);
+        assertEquals(100, nodes[i].getDownloaded(), "downloads at " + i);
+        assertEquals(100, nodes[i].getAdded(), "blocks added at " + i);
+        nodes[i].getChain().check();
+      } // for
+
+      // Blocks from the end of the line travel back too.
+      grow(nodes[3], 5, "D");
+      await(nodes[3], nodes[0]);
+      assertEquals(15, nodes[0].getChain().balance("D"), "D at the start");
+    } finally {
+      for (ChainNode node : nodes) {
+        node.close();
+      } // for
+    } // try/finally
+  } // lineTest()
+
+  /**
+   * Make sure that a node switches to a longer chain that forked from
+   * its own.
+   */
+  @Test
+  public void forkTest() throws Exception {
+    ChainNode[] nodes = start(2);
+    try {
+      grow(nodes[0], 3, "A");
+      grow(nodes[1], 5, "B");
+      nodes[0].connect("localhost", nodes[1].getPort());
+      await(nodes[1], nodes[0]);
+      assertEquals(6, nodes[0].getChain().getSize(), "size");
+      assertEquals(0, nodes[0].getChain().balance("A"), "A's branch");
+      assertEquals(15, nodes[0].getChain().balance("B"), "B's branch");
+      assertEquals(3, nodes[0].getChain().getSideBlockCount(), "kept the old branch");
+    } finally {
+      for (ChainNode node : nodes) {
+        node.close();
+      } // for
+    } // try/finally
+  } // forkTest()
+
+  /**
+   * Make sure that we do not download much of a fork that is too deep
+   * to follow.
+   */
+  @Test
+  public void deepForkTest() throws Exception {
+    ChainNode[] nodes = start(2);
+    try (ChainRpcClient peer = new ChainRpcClient("localhost", nodes[1].getPort())) {
+      int depth = BlockChain.MAX_FORK_DEPTH + 50;
+      grow(nodes[0], depth, "A");
+      grow(nodes[1], depth + 10, "B");
+      Hash tail = nodes[0].getChain().getHash();
+      nodes[0].sync(peer, nodes[1].getChain().getSize(), nodes[1].getChain().getHash());
+      assertEquals(tail, nodes[0].getChain().getHash(), "kept our chain");
+      assertEquals(0, nodes[0].getAdded(), "blocks added");
+      assertTrue(nodes[0].getDownloaded() <= BlockChain.MAX_FORK_DEPTH + 10,
+          nodes[0].getDownloaded() + " blocks downloaded");
+    } finally {
+      for (ChainNode node : nodes) {
+        node.close();
+      } // for
+    } // try/finally
+  } // deepForkTest()
+
+  /**
+   * Make sure that a peer that never sends blocks is dropped and does
+   * not stop us syncing with others.
+   */
+  @Test
+  public void silentPeerTest() throws Exception {
+    ChainNode[] nodes = start(2);
+    try (ServerSocket silent = new ServerSocket(0)) {
+      grow(nodes[0], 3, "A");
+      nodes[1].announced("localhost", silent.getLocalPort(), 10, new Hash(new byte[] {1, 2, 3}));
+      try (Socket conn = silent.accept()) {
+        nodes[1].connect("localhost", nodes[0].getPort());
+        await(nodes[0], nodes[1]);
+        assertEquals(3, nodes[1].getAdded(), "blocks added");
+
+        // We hung up on the silent peer.
+        conn.setSoTimeout((int) PATIENCE);
+        InputStream requests = conn.getInputStream();
+        while (requests.read() >= 0) {
+          // Skip what we asked for.
+        } // while
+      } // try
+    } finally {
+      for (ChainNode node : nodes) {
+        node.close();
+      } // for
+    } // try/finally
+  } // silentPeerTest()
+
+  /**
+   * Make sure that blocks we only keep on the side do not count as
+   * added.
+   */
+  @Test
+  public void sideBlocksTest() throws Exception {
+    ChainNode node = start(1)[0];
+    Block genesis = node.getChain().blocks().next();
+    BlockChain lax = new BlockChain((hash) -> true, false, false, genesis);
+    ChainNode peer = new ChainNode(lax, 0);
+    try (ChainRpcClient client = new ChainRpcClient("localhost", peer.getPort())) {
+      grow(node, 5, "A");
+      // A longer branch whose first two blocks we accept and whose
+      // third we do not.
+      BlockChain strict = new BlockChain(VALIDATOR, false, false, genesis);
+      for (int i = 0; i < 2; i++) {
+        Block blk = strict.mine(new Transaction("", "B", 1));
+        strict.append(blk);
+        lax.append(blk);
+      } // for
+      Block bad = lax.mine(new Transaction("", "C", 1));
+      for (int amount = 2; VALIDATOR.isValid(bad.getHash()); amount++) {
+        bad = lax.mine(new Transaction("", "C", amount));
+      } // for
+      lax.append(bad);
+      for (int i = 0; i < 5; i++) {
+        lax.append(lax.mine(new Transaction("", "C", 1)));
+      } // for
+      node.sync(client, lax.getSize(), lax.getHash());
+      assertEquals(6, node.getChain().getSize(), "kept our chain");
+      assertEquals(2, node.getChain().getSideBlockCount(), "kept the good blocks");
+      assertEquals(0, node.getAdded(), "blocks added");
+    } finally {
+      node.close();
+      peer.close();
+    } // try/finally
+  } // sideBlocksTest()
+} // class TestChainNode
@@ -0,0 +1,127 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of serving a chain over the binary protocol.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestChainRpc {
+  /** A validator that is quick to satisfy. */
+  static final HashValidator VALIDATOR = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+
+  /**
+   * Make sure that every request works, in flight together.
+   */
+  @Test
+  public void requestTest() throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    ChainRpcServer server = new ChainRpcServer(chain, 0);
+    server.start();
+    try (ChainRpcClient client = new ChainRpcClient("localhost", server.getPort())) {
+      Block deposit = client.mine(new Transaction("", "A", 100)).join();
+      assertEquals(2, client.append(deposit).join(), "one block");
+
+      // Build three blocks on a copy of the chain and send them together.
+      BlockChain copy = new BlockChain(VALIDATOR, false, false, chain.blocks().next());
+      copy.append(deposit);
+      List<Block> batch = new ArrayList<Block>();
+      for (int i = 1; i <= 3; i++) {
+        Block blk = copy.mine(new Transaction("A", "B" + i, i));
+        copy.append(blk);
+        batch.add(blk);
+      } // for
+      assertEquals(5, client.append(batch).join(), "a batch");
+      assertEquals(copy.getHash(), chain.getHash(), "same chain");
+
+      // Many requests at once, including one that fails.
+      List<CompletableFuture<Long>> balances = new ArrayList<CompletableFuture<Long>>();
+      for (int i = 0; i < 1000; i++) {
+        balances.add(client.balance((i % 2 == 0) ? "A" : "B2"));
+      } // for
+      CompletableFuture<Integer> stale = client.append(batch.subList(1, 3));
+      for (int i = 0; i < 1000; i++) {
+        assertEquals((i % 2 == 0) ? 94L : 2L, balances.get(i).join(), "balance " + i);
+      } // for
+      CompletionException e = assertThrows(CompletionException.class, () -> stale.join());
+      assertInstanceOf(IllegalArgumentException.class, e.getCause(), "rejected");
+      assertTrue(e.getCause().getMessage().startsWith("Block 0 of batch"), e.getMessage());
+      assertEquals(5, chain.getSize(), "nothing appended");
+      assertEquals(0L, client.balance("nobody").join(), "unknown user");
+    } finally {
+      server.stop();
+    } // try/finally
+  } // requestTest()
+
+  /**
+   * Make sure that a client that sends many requests without reading
+   * the responses gets them all, in order, once it reads, and that
+   * other clients are answered meanwhile.
+   */
+  @Test
+  public void slowReaderTest() throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    for (int i = 0; i < 200; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+    } // for
+    ChainRpcServer server = new ChainRpcServer(chain, 0);
+    server.start();
+    try (SocketChannel slow = SocketChannel.open(new InetSocketAddress("localhost",
+            server.getPort()));
+        ChainRpcClient client = new ChainRpcClient("localhost", server.getPort())) {
+      // Far more responses than the server will queue.
+      int count = 2000;
+      for (int id = 0; id < count; id++) {
+        ByteBuffer req = ChainRpcServer.frame(id, ChainRpcServer.BLOCKS, 2);
+        BlockCodec.writeVarint(req, 0);
+        BlockCodec.writeVarint(req, 100);
+        req.flip();
+        while (req.hasRemaining()) {
+          slow.write(req);
+        } // while
+      } // for
+
+      // Another client is not held up, and its requests stay in order
+      // though appends run on their own thread.
+      Block blk = chain.mine(new Transaction("", "B", 7));
+      CompletableFuture<Integer> appended = client.append(blk);
+      CompletableFuture<Long> balance = client.balance("B");
+      assertEquals(202, appended.join(), "appended");
+      assertEquals(7L, balance.join(), "balance after append");
+
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Integer.BYTES + 1);
+      for (int id = 0; id < count; id++) {
+        header.clear();
+        while (header.hasRemaining()) {
+          assertTrue(slow.read(header) >= 0, "response " + id);
+        } // while
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt() - Integer.BYTES - 1);
+        assertEquals(id, header.getInt(), "id");
+        assertEquals(ChainRpcServer.OK, header.get(), "status of " + id);
+        while (body.hasRemaining()) {
+          assertTrue(slow.read(body) >= 0, "response " + id);
+        } // while
+        body.flip();
+        assertEquals(100, BlockCodec.readVarint(body), "blocks in " + id);
+      } // for
+    } finally {
+      server.stop();
+    } // try/finally
+  } // slowReaderTest()
+} // class TestChainRpc
@@ -0,0 +1,175 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of serving a chain over HTTP.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestChainServer {
+  /** A validator that is quick to satisfy. */
+  static final HashValidator VALIDATOR = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+
+  /** The client for every test. */
+  static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+  /**
+   * Send a request.
+   *
+   * @param server
+   *   The server.
+   * @param path
+   *   The path and query.
+   * @param body
+   *   The body to post, or null to get.
+   *
+   * @return the status and body of the response, separated by a space.
+   */
+  static String send(ChainServer server, String path, String body) throws Exception {
+    HttpRequest.Builder request =
+        HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path));
+    if (body != null) {
+      request.POST(HttpRequest.BodyPublishers.ofString(body));
+    } // if
+    HttpResponse<String> response =
+        CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    return response.statusCode() + " " + response.body();
+  } // send(ChainServer, String, String)
+
+  /**
+   * Mine and append a transaction.
+   *
+   * @param server
+   *   The server.
+   * @param transaction
+   *   The transaction, as JSON.
+   *
+   * @return the response to the append.
+   */
+  static String mineAndAppend(ChainServer server, String transaction) throws Exception {
+    String mined = send(server, "/mine", transaction);
+    assertTrue(mined.startsWith("200 {"), mined);
+    return send(server, "/append", mined.substring(4));
+  } // mineAndAppend(ChainServer, String)
+
+  /**
+   * Make sure that every endpoint works.
+   */
+  @Test
+  public void endpointTest() throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    ChainServer server = new ChainServer(chain, 0);
+    server.start();
+    try {
+      assertEquals("200 {\"size\":2}",
+          mineAndAppend(server, "{\"source\":\"\",\"target\":\"A\",\"amount\":100}"));
+      assertEquals("200 {\"size\":3}",
+          mineAndAppend(server, "{\"source\":\"A\",\"target\":\"B c\",\"amount\":30}"));
+      assertEquals(3, chain.getSize(), "appended to the chain");
+
+      assertEquals("200 {\"user\":\"A\",\"balance\":70}", send(server, "/balance?user=A", null));
+      assertEquals("200 {\"user\":\"B c\",\"balance\":30}",
+          send(server, "/balance?user=B%20c", null));
+      assertEquals("200 {\"users\":[\"A\",\"B c\"]}", send(server, "/users", null));
+      String history = send(server, "/history?user=A&from=2", null);
+      assertTrue(history.startsWith("200 {\"user\":\"A\",\"total\":2,\"blocks\":[{\"num\":2,"),
+          history);
+      assertEquals("200 {\"ok\":true}", send(server, "/check", null));
+
+      // A block that was mined before another was appended.
+      String stale = send(server, "/mine", "{\"source\":\"A\",\"target\":\"B\",\"amount\":1}");
+      mineAndAppend(server, "{\"source\":\"A\",\"target\":\"B\",\"amount\":2}");
+      assertTrue(send(server, "/append", stale.substring(4)).startsWith("409 {\"error\":"),
+          "stale block");
+
+      assertTrue(send(server, "/balance", null).startsWith("400 "), "no user");
+      assertTrue(send(server, "/history?user=A&limit=-1", null).startsWith("400 "), "limit");
+      assertTrue(send(server, "/mine", "{\"source\":\"A\"}").startsWith("400 "), "no target");
+      assertTrue(send(server, "/append", "x".repeat(ChainServer.MAX_BODY + 1))
+          .startsWith("413 "), "huge body");
+      assertTrue(send(server, "/mine", null).startsWith("405 "), "get /mine");
+      assertTrue(send(server, "/nothing", null).startsWith("404 "), "no such endpoint");
+    } finally {
+      server.stop(0);
+    } // try/finally
+  } // endpointTest()
+
+  /**
+   * Make sure that /mine fails with 503 once every miner is busy and
+   * the queue is full, and that other requests are still answered.
+   */
+  @Test
+  public void busyMinersTest() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    boolean[] hold = new boolean[1];
+    BlockChain chain = new BlockChain((hash) -> {
+      try {
+        if (hold[0]) {
+          release.await();
+        } // if
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } // try/catch
+      return VALIDATOR.isValid(hash);
+    });
+    hold[0] = true;
+    ChainServer server = new ChainServer(chain, 0);
+    server.start();
+    try {
+      int accepted = ChainServer.MINERS + ChainServer.MINE_QUEUE;
+      int turnedAway = 3;
+      List<CompletableFuture<HttpResponse<String>>> responses =
+          new ArrayList<CompletableFuture<HttpResponse<String>>>();
+      for (int i = 0; i < accepted + turnedAway; i++) {
+        HttpRequest request = HttpRequest.newBuilder(
+            URI.create("http://localhost:" + server.getPort() + "/mine"))
+            .POST(HttpRequest.BodyPublishers.ofString(
+                "{\"source\":\"\",\"target\":\"A\",\"amount\":" + i + "}"))
+            .build();
+        responses.add(CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+      } // for
+      CompletableFuture.anyOf(responses.toArray(new CompletableFuture<?>[0])).join();
+      assertEquals("200 {\"user\":\"A\",\"balance\":0}", send(server, "/balance?user=A", null));
+
+      // Only the ones turned away can finish before we let mining go on.
+      long deadline = System.currentTimeMillis() + 20_000;
+      int busy = 0;
+      while (busy < turnedAway) {
+        assertTrue(System.currentTimeMillis() < deadline, "only " + busy + " turned away");
+        busy = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+          if (response.isDone()) {
+            assertEquals(503, response.join().statusCode(), response.join().body());
+            busy++;
+          } // if
+        } // for
+        Thread.sleep(5);
+      } // while
+      release.countDown();
+      int mined = 0;
+      for (CompletableFuture<HttpResponse<String>> response : responses) {
+        if (response.join().statusCode() == 200) {
+          mined++;
+        } // if
+      } // for
+      assertEquals(accepted, mined, "blocks mined");
+    } finally {
+      release.countDown();
+      server.stop(0);
+    } // try/finally
+  } // busyMinersTest()
+} // class TestChainServer
@@ -0,0 +1,193 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of exporting and importing chains.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestChainTransfer {
+  /** A validator that is quick to satisfy. */
+  static final HashValidator VALIDATOR = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+
+  /**
+   * Build a chain to export.
+   *
+   * @param n
+   *   The number of transfers.
+   *
+   * @return the chain.
+   */
+  static BlockChain sample(int n) {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    chain.append(chain.mine(new Transaction("", "A\"lice\n", 10 * n)));
+    chain.setBlockVersion(Block.CANONICAL);
+    for (int i = 0; i < n; i++) {
+      chain.append(chain.mine(new Transaction("A\"lice\n", "B" + (i % 5), 3)));
+    } // for
+    chain.append(chain.mine(List.of(new Transaction("B1", "B2", 1),
+        new Transaction("B2", "C", 2))));
+    return chain;
+  } // sample(int)
+
+  /**
+   * Make sure that two chains have the same blocks.
+   *
+   * @param expected
+   *   The chain we exported.
+   * @param actual
+   *   The chain we imported.
+   */
+  static void assertSameBlocks(BlockChain expected, BlockChain actual) {
+    assertEquals(expected.getSize(), actual.getSize(), "size");
+    ChainSnapshot a = expected.snapshot();
+    ChainSnapshot b = actual.snapshot();
+    for (int i = 0; i < a.getSize(); i++) {
+      assertEquals(a.getBlock(i).toString(), b.getBlock(i).toString(), "block " + i);
+      assertEquals(a.getBlock(i).getVersion(), b.getBlock(i).getVersion(), "version " + i);
+    } // for
+  } // assertSameBlocks(BlockChain, BlockChain)
+
+  /**
+   * Round trip through NDJSON.
+   */
+  @Test
+  public void ndjsonTest() throws Exception {
+    BlockChain chain = sample(1200);
+    StringWriter text = new StringWriter();
+    assertEquals(1203, ChainTransfer.exportNdjson(chain.snapshot(), text, null), "exported");
+    String[] lines = text.toString().split("\n");
+    assertEquals(1203, lines.length, "one line per block");
+    assertTrue(lines[1].startsWith("{\"num\":1,\"version\":0,\"source\":\"\",\"target\":"
+        + "\"A\\\"lice\\u000A\",\"amount\":12000,"), "format of " + lines[1]);
+    assertTrue(lines[1202].startsWith("{\"num\":1202,\"version\":2,\"transactions\":"
+        + "[{\"source\":\"B1\",\"target\":\"B2\",\"amount\":1},{"), "format of batch");
+
+    StringWriter log = new StringWriter();
+    BlockChain copy = ChainTransfer.loadNdjson(new StringReader(text.toString()), VALIDATOR,
+        new PrintWriter(log));
+    assertSameBlocks(chain, copy);
+    assertTrue(log.toString().contains("Imported 1202 blocks"), "progress: " + log);
+    assertTrue(copy.isCorrect(), "imported chain");
+    assertEquals(chain.balance("B3"), copy.balance("B3"), "balance");
+    assertEquals(2, copy.balance("C"), "balance from batch");
+  } // ndjsonTest()
+
+  /**
+   * Round trip through binary.
+   */
+  @Test
+  public void binaryTest() throws Exception {
+    BlockChain chain = sample(1200);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ChainTransfer.exportBinary(chain.snapshot(), bytes, null);
+    byte[] data = bytes.toByteArray();
+    assertArrayEquals(ChainTransfer.MAGIC, Arrays.copyOf(data, 4), "magic");
+    BlockChain copy = ChainTransfer.loadBinary(new ByteArrayInputStream(data), VALIDATOR, null);
+    assertSameBlocks(chain, copy);
+
+    // Importing again adds nothing; importing into a longer copy adds
+    // only the blocks it lacks.
+    assertEquals(0, ChainTransfer.importBinary(copy, new ByteArrayInputStream(data), null),
+        "nothing new");
+    for (int i = 0; i < 700; i++) {
+      copy.removeLast();
+    } // for
+    assertEquals(700, ChainTransfer.importBinary(copy, new ByteArrayInputStream(data), null),
+        "missing blocks");
+    assertSameBlocks(chain, copy);
+  } // binaryTest()
+
+  /**
+   * Make sure that bad input is reported well.
+   */
+  @Test
+  public void badInputTest() throws Exception {
+    BlockChain chain = sample(10);
+    StringWriter text = new StringWriter();
+    ChainTransfer.exportNdjson(chain.snapshot(), text, null);
+    String[] lines = text.toString().split("\n");
+
+    lines[4] = lines[4].replace("\"amount\":3", "\"amount\":4");
+    BlockChain copy = ChainTransfer.loadNdjson(new StringReader(lines[0]), VALIDATOR, null);
+    InvalidBlockException e = assertThrows(InvalidBlockException.class,
+        () -> ChainTransfer.importNdjson(copy, new StringReader(String.join("\n", lines)),
+            null), "tampered block");
+    assertEquals(4, e.getIndex(), "index of tampered block");
+    assertEquals(1, copy.getSize(), "its batch is not appended");
+
+    lines[4] = "{\"num\":4,";
+    IOException bad = assertThrows(IOException.class,
+        () -> ChainTransfer.loadNdjson(new StringReader(String.join("\n", lines)), VALIDATOR,
+            null), "malformed line");
+    assertTrue(bad.getMessage().startsWith("Line 5:"), bad.getMessage());
+    assertThrows(IOException.class, () -> ChainTransfer.loadBinary(
+        new ByteArrayInputStream(new byte[] {1, 2, 3, 4}), VALIDATOR, null), "bad magic");
+  } // badInputTest()
+
+  /**
+   * Make sure that a binary import whose length is absurd fails rather
+   * than running out of memory or hanging.
+   */
+  @Test
+  public void hugeLengthTest() throws Exception {
+    BlockChain chain = sample(3);
+    int size = chain.getSize();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(ChainTransfer.MAGIC);
+    bytes.write(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+    InvalidBlockException e = assertThrows(InvalidBlockException.class,
+        () -> ChainTransfer.importBinary(chain, new ByteArrayInputStream(bytes.toByteArray()),
+            null), "huge length");
+    assertEquals(0, e.getIndex(), "index of huge record");
+    assertEquals(size, chain.getSize(), "nothing appended");
+  } // hugeLengthTest()
+
+  /**
+   * Make sure that a text import with an endless line fails rather
+   * than running out of memory or hanging.
+   */
+  @Test
+  public void hugeLineTest() throws Exception {
+    BlockChain chain = sample(3);
+    StringWriter text = new StringWriter();
+    ChainTransfer.exportNdjson(chain.snapshot(), text, null);
+    String start = text.toString();
+    // The export, and then a line that never ends.
+    Reader in = new Reader() {
+      int pos = 0;
+
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+        for (int i = 0; i < len; i++, this.pos++) {
+          cbuf[off + i] = (this.pos < start.length()) ? start.charAt(this.pos) : 'x';
+        } // for
+        return len;
+      } // read(char[], int, int)
+
+      @Override
+      public void close() {
+      } // close()
+    };
+    InvalidBlockException e = assertThrows(InvalidBlockException.class,
+        () -> ChainTransfer.loadNdjson(in, VALIDATOR, null), "endless line");
+    assertEquals(chain.getSize(), e.getIndex(), "index of endless line");
+  } // hugeLineTest()
+} // class TestChainTransfer
@@ -0,0 +1,72 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of ledgers of balances.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestLedger {
+  /**
+   * Make sure that balances add up.
+   */
+  @Test
+  public void balanceTest() {
+    Ledger ledger = new Ledger();
+    ledger.apply(new Transaction("", "LedgerA", 100));
+    ledger.apply(new Transaction("LedgerA", "LedgerB", 30));
+    UserDictionary.Entry a = UserDictionary.intern("LedgerA");
+    assertEquals(70, ledger.get(a), "A");
+    assertEquals(30, ledger.get("LedgerB"), "B");
+    assertEquals(0, ledger.get("LedgerNobody"), "unknown user");
+    assertEquals(null, UserDictionary.find("LedgerNobody"), "lookups add no names");
+    UserDictionary.Entry c = UserDictionary.intern("LedgerC");
+    assertFalse(ledger.has(c), "C has not appeared");
+    assertEquals(-5, ledger.addTo(c, -5), "C");
+    assertEquals(3, ledger.size(), "users, not counting the empty source");
+    assertEquals((long) Integer.MAX_VALUE * 2, ledger.addTo(a, (long) Integer.MAX_VALUE * 2 - 70),
+        "no overflow");
+  } // balanceTest()
+
+  /**
+   * Make sure that copies are independent, even though they share
+   * pages.
+   */
+  @Test
+  public void snapshotTest() {
+    Ledger ledger = new Ledger();
+    UserDictionary.Entry[] users = new UserDictionary.Entry[3 * Ledger.PAGE_SIZE];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = UserDictionary.intern("LedgerUser" + i);
+      ledger.addTo(users[i], i);
+    } // for
+    Ledger copy = ledger.snapshot();
+    ledger.addTo(users[0], 1000);
+    copy.addTo(users[1], 2000);
+    Ledger copyOfCopy = copy.snapshot();
+    copy.addTo(users[2], 3000);
+
+    assertEquals(1000, ledger.get(users[0]), "original changed");
+    assertEquals(1, ledger.get(users[1]), "original unchanged by copy");
+    assertEquals(0, copy.get(users[0]), "copy unchanged by original");
+    assertEquals(2001, copy.get(users[1]), "copy changed");
+    assertEquals(2001, copyOfCopy.get(users[1]), "copy of copy");
+    assertEquals(2, copyOfCopy.get(users[2]), "copy of copy unchanged");
+
+    HashMap<String, Long> seen = new HashMap<String, Long>();
+    copyOfCopy.forEach((name, balance) -> seen.put(name, balance));
+    assertEquals(users.length, seen.size(), "every user");
+    assertEquals(2001L, seen.get("LedgerUser1"), "balance of user");
+    assertTrue(ledger.freeze() == ledger, "freeze");
+    ledger.addTo(users[5], 1);
+    assertEquals(5, copy.get(users[5]), "frozen ledger still copies");
+  } // snapshotTest()
+} // class TestLedger
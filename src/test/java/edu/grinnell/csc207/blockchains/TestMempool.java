@@ -0,0 +1,150 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of pools of pending transactions.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestMempool {
+  /** A validator that is quick to satisfy. */
+  static final HashValidator VALIDATOR = (hash) -> (hash.length() >= 1) && (hash.get(0) == 0);
+
+  /**
+   * Build a chain in which A has 100.
+   *
+   * @return the chain.
+   */
+  static BlockChain sample() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    return chain;
+  } // sample()
+
+  /**
+   * Make sure that we check transactions as they arrive.
+   */
+  @Test
+  public void validationTest() {
+    Mempool pool = new Mempool(sample(), 10);
+    assertTrue(pool.add(new Transaction("A", "B", 60)), "affordable");
+    assertFalse(pool.add(new Transaction("A", "B", 60)), "duplicate");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.add(new Transaction("A", "C", 50)), "overdraft with pending spends");
+    assertTrue(pool.add(new Transaction("A", "C", 40)), "the rest");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.add(new Transaction("B", "C", 1)), "pending money does not count");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.add(new Transaction("Z", "C", 0)), "unknown source, even for nothing");
+    assertTrue(pool.add(new Transaction("A", "A", 0)), "known source, nothing");
+    assertThrows(IllegalArgumentException.class,
+        () -> pool.add(new Transaction("", "C", -1)), "negative amount");
+    assertTrue(pool.add(new Transaction("", "D", 1000)), "deposit");
+    assertEquals(4, pool.size(), "size");
+
+    assertTrue(pool.remove(new Transaction("A", "B", 60)), "remove");
+    assertTrue(pool.add(new Transaction("A", "C", 50)), "affordable again");
+  } // validationTest()
+
+  /**
+   * Make sure that the miner gets batches in order and that mined
+   * transactions leave the pool.
+   */
+  @Test
+  public void miningTest() throws Exception {
+    BlockChain chain = sample();
+    Mempool pool = new Mempool(chain, 10);
+    pool.add(new Transaction("A", "B", 5));
+    pool.add(new Transaction("A", "C", 20));
+    pool.add(new Transaction("", "B", 7));
+    pool.add(new Transaction("A", "D", 5));
+
+    List<Transaction> batch = pool.nextBatch(3);
+    assertEquals(List.of(new Transaction("A", "C", 20), new Transaction("", "B", 7),
+        new Transaction("A", "B", 5)), batch, "largest first, then arrival");
+    Block blk = chain.mine(batch);
+    chain.append(blk);
+    chain.check();
+    assertEquals(3, pool.confirm(blk), "confirmed");
+    assertEquals(List.of(new Transaction("A", "D", 5)), pool.nextBatch(3), "left over");
+
+    // Blocks that arrive from elsewhere may leave pending transactions
+    // that the chain can no longer cover.
+    chain.removeLast();
+    pool.add(new Transaction("A", "E", 90));
+    assertEquals(List.of(new Transaction("A", "E", 90), new Transaction("A", "D", 5)),
+        pool.nextBatch(10), "still affordable");
+    chain.append(chain.mine(new Transaction("A", "F", 50)));
+    assertEquals(List.of(new Transaction("A", "D", 5)), pool.nextBatch(10),
+        "skip what the chain cannot cover");
+
+    // Transfers to oneself cost nothing, as in check().
+    chain.append(chain.mine(new Transaction("A", "A", 50)));
+    chain.check();
+    assertEquals(List.of(new Transaction("A", "D", 5)), pool.nextBatch(10),
+        "self-transfer leaves the balance");
+  } // miningTest()
+
+  /**
+   * Make sure that a full pool keeps the best transactions.
+   */
+  @Test
+  public void evictionTest() {
+    Mempool pool = new Mempool(sample(), 3);
+    for (int amount : new int[] {5, 1, 3}) {
+      assertTrue(pool.add(new Transaction("", "B", amount)), "room for " + amount);
+    } // for
+    assertFalse(pool.add(new Transaction("", "B", 1)), "duplicate");
+    assertFalse(pool.add(new Transaction("", "C", 1)), "no better than the worst");
+    assertTrue(pool.add(new Transaction("A", "C", 2)), "better than the worst");
+    assertEquals(3, pool.size(), "still full");
+    assertFalse(pool.contains(new Transaction("", "B", 1)), "evicted");
+    assertTrue(pool.add(new Transaction("A", "C", 98)), "evicts a pending spend");
+    assertFalse(pool.contains(new Transaction("A", "C", 2)), "evicted spend");
+    assertTrue(pool.remove(new Transaction("", "B", 3)), "make room");
+    assertTrue(pool.add(new Transaction("A", "D", 2)), "its spend was released");
+    assertThrows(IllegalArgumentException.class, () -> new Mempool(sample(), 0), "capacity");
+  } // evictionTest()
+
+  /**
+   * Make sure that many threads may add at once without overspending.
+   */
+  @Test
+  public void concurrentTest() throws Exception {
+    Mempool pool = new Mempool(sample(), 1000, Mempool.ARRIVAL);
+    AtomicInteger accepted = new AtomicInteger();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      final int id = i;
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < 50; j++) {
+          try {
+            if (pool.add(new Transaction("A", "U" + id + "." + j, 1))) {
+              accepted.incrementAndGet();
+            } // if
+          } catch (IllegalArgumentException e) {
+            // Out of money.
+          } // try/catch
+        } // for
+      });
+      threads.add(thread);
+      thread.start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    assertEquals(100, accepted.get(), "exactly what A has");
+    assertEquals(100, pool.size(), "size");
+  } // concurrentTest()
+} // class TestMempool
@@ -1,6 +1,12 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -38,4 +44,62 @@ public class TestTransaction {
         trans.toString(),
         "String representation of deposit");
   } // depositTest()
+
+  /**
+   * Test that transactions share one copy of each name.
+   */
+  @Test
+  public void sharedNamesTest() {
+    Transaction first = new Transaction(new String("Alice"), new String("Bob"), 1);
+    Transaction second = new Transaction(new String("Bob"), new String("Alice"), 2);
+    assertSame(first.getSource(), second.getTarget(), "One copy of Alice");
+    assertSame(first.getTarget(), second.getSource(), "One copy of Bob");
+    assertEquals(first.source().id, UserDictionary.intern("Alice").id, "Same id");
+    assertSame(first.source(), UserDictionary.get(first.source().id), "Lookup by id");
+    assertArrayEquals("Alice".getBytes(), first.source().bytes, "Encoded name");
+    assertTrue(first.equals(new Transaction("Alice", new String("Bob"), 1)), "Equal");
+    assertFalse(first.equals(new Transaction("Alice", "Bob", 2)), "Different amount");
+  } // sharedNamesTest()
+
+  /**
+   * Test that names nothing refers to are forgotten, so that names from
+   * transactions that are never kept do not pile up.
+   */
+  @Test
+  public void forgottenNamesTest() {
+    Transaction kept = new Transaction("Keeper", "Kept", 1);
+    int before = UserDictionary.size();
+    for (int i = 0; i < 100_000; i++) {
+      new Transaction("Passing" + i, "Through" + i, 1);
+    } // for
+    long deadline = System.currentTimeMillis() + 20_000;
+    for (int probe = 0; UserDictionary.size() > before + 10_000; probe++) {
+      assertTrue(System.currentTimeMillis() < deadline, "names were not forgotten");
+      System.gc();
+      // Adding a name reclaims those the collector has taken.
+      UserDictionary.intern("Probe" + probe);
+    } // for
+    assertSame(kept.source(), UserDictionary.find("Keeper"), "Names in use stay");
+    assertSame(kept.target(), UserDictionary.get(kept.target().id), "Ids in use stay");
+  } // forgottenNamesTest()
+
+  /**
+   * Test that transactions behave as values.
+   */
+  @Test
+  public void valueTest() {
+    Transaction t = new Transaction("Alice", "Bob", 5);
+    Transaction same = new Transaction(new String("Alice"), "Bob", 5);
+    assertEquals(t, same, "Equal transactions");
+    assertEquals(t.hashCode(), same.hashCode(), "Equal hash codes");
+    assertFalse(t.equals((Transaction) null), "Not equal to null");
+    assertFalse(t.equals((Object) "Alice"), "Not equal to a string");
+    HashSet<Transaction> set = new HashSet<Transaction>();
+    for (int i = 0; i < 1000; i++) {
+      set.add(new Transaction("A" + (i % 10), "B" + (i % 7), i % 50));
+    } // for
+    assertEquals(350, set.size(), "Distinct transactions");
+    assertTrue(set.contains(new Transaction("A3", "B3", 3)), "Member");
+    assertFalse(set.contains(new Transaction("A3", "B3", 4)), "Not a member");
+  } // valueTest()
 } // class TestTransaction
@@ -0,0 +1,82 @@
+package edu.grinnell.csc207.main;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.HashValidator;
+
+/**
+ * Tests of the scripted side of the UI.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestBlockChainUI {
+  /**
+   * Run a script against a chain that accepts any nonce.
+   *
+   * @param script
+   *   The script.
+   * @param session
+   *   Filled in with the chain.
+   *
+   * @return what the script printed.
+   */
+  static String run(String script, BlockChainUI.Session[] session) throws Exception {
+    HashValidator validator = BlockChainUI.validator(0);
+    session[0] = new BlockChainUI.Session(validator, new BlockChain(validator));
+    StringWriter out = new StringWriter();
+    BlockChainUI.runBatch(session[0], new BufferedReader(new StringReader(script)),
+        new PrintWriter(out));
+    return out.toString();
+  } // run(String, Session[])
+
+  /**
+   * Make sure that commands run, bad lines are reported, and times
+   * are summarized.
+   */
+  @Test
+  public void batchTest() throws Exception {
+    BlockChainUI.Session[] session = new BlockChainUI.Session[1];
+    String output = run("""
+        # Set up.
+        append\t\tA\t100\t0
+
+        append\tA\tB\t30\t0
+        append\tA\tB\t500\t0
+        check
+        remove
+        append\tA\tB\tten\t0
+        balance
+        balance\tB\textra
+        frobnicate
+        balance\tB
+        quit
+        balance\tA
+        """, session);
+    String[] lines = output.split("\n");
+    for (int i = 0; i < 3; i++) {
+      assertTrue(lines[i].startsWith("Appended: "), lines[i]);
+    } // for
+    assertFalse(lines[3].contains("checks out"), lines[3]);
+    assertEquals("Last value in blockchain removed", lines[4]);
+    assertEquals("Line 8: Amount 'ten' isn't an integer", lines[5]);
+    assertEquals("Line 9: Missing User for balance", lines[6]);
+    assertEquals("B's balance is 30", lines[7]);
+    assertEquals("Line 10: Too many arguments for balance", lines[8]);
+    assertEquals("invalid command entered, please try again", lines[9]);
+    assertEquals("B's balance is 30", lines[10]);
+    assertEquals(3, session[0].chain.getSize(), "blocks");
+    assertTrue(output.contains("\nappend "), "timing for append");
+    assertTrue(output.matches("(?s).*\\(all\\)\\s+11\\s.*"), "eleven commands to quit");
+  } // batchTest()
+} // class TestBlockChainUI
@@ -0,0 +1,324 @@
+package edu.grinnell.csc207.util;
+
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the hash table behind associative arrays, and of walking
+ * and bulk operations on them.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestAssociativeArray {
+  /** The number of slots in a new, empty array. */
+  static final int SLOTS = new AssociativeArray<Object, Object>().keys.length;
+
+  /**
+   * Build an array of squares.
+   *
+   * @param n
+   *   The number of pairs.
+   *
+   * @return the array.
+   */
+  static AssociativeArray<Integer, Integer> squares(int n) throws NullKeyException {
+    AssociativeArray<Integer, Integer> arr = new AssociativeArray<Integer, Integer>();
+    for (int i = 0; i < n; i++) {
+      arr.set(i, i * i);
+    } // for
+    return arr;
+  } // squares(int)
+
+  /**
+   * Get one of the keys that wrapped() uses.
+   *
+   * @param i
+   *   The number of the key, from 0 to 5.
+   *
+   * @return the key.
+   */
+  static Colliding key(int i) {
+    int last = SLOTS - 1;
+    // k0 to k2 take the last slot, 0, and 1; k3 belongs in 0 and k4 in
+    // 1, so they follow; k5 belongs just before the run.
+    int[] homes = {last, last, last, 0, 1, last - 1};
+    return new Colliding("k" + i, homes[i]);
+  } // key(int)
+
+  /**
+   * Build an array of keys that collide, the first few in the last
+   * slot of the table so that their run wraps around to the start.
+   *
+   * @return the array, whose keys are key(0) to key(5) (with values 0
+   *   to 5).
+   */
+  static AssociativeArray<Colliding, Integer> wrapped() throws NullKeyException {
+    AssociativeArray<Colliding, Integer> arr = new AssociativeArray<Colliding, Integer>();
+    for (int i = 0; i < 6; i++) {
+      arr.set(key(i), i);
+    } // for
+    assertEquals(SLOTS, arr.keys.length, "no growth yet");
+    return arr;
+  } // wrapped()
+
+  /**
+   * Make sure that every key but one is still where lookups find it.
+   *
+   * @param arr
+   *   An array built by wrapped(), less one key.
+   * @param gone
+   *   The number of the key that was removed.
+   */
+  static void assertAllBut(AssociativeArray<Colliding, Integer> arr, int gone)
+      throws KeyNotFoundException {
+    assertEquals(5, arr.size(), "size after removing k" + gone);
+    for (int i = 0; i < 6; i++) {
+      if (i == gone) {
+        assertFalse(arr.hasKey(key(i)), "k" + i + " is gone");
+      } else {
+        assertEquals(i, arr.get(key(i)), "k" + i + " after removing k" + gone);
+      } // if/else
+    } // for
+  } // assertAllBut(AssociativeArray, int)
+
+  /**
+   * Make sure that removing any key from a run of colliding keys that
+   * wraps around the end of the table leaves the others findable.
+   */
+  @Test
+  public void wrappedRemoveTest() throws Exception {
+    for (int gone = 0; gone < 6; gone++) {
+      AssociativeArray<Colliding, Integer> arr = wrapped();
+      arr.remove(key(gone));
+      assertAllBut(arr, gone);
+      arr.set(key(gone), gone);
+      assertEquals(6, arr.size(), "size after putting k" + gone + " back");
+    } // for
+
+    AssociativeArray<Colliding, Integer> arr = wrapped();
+    for (int i = 0; i < 6; i++) {
+      arr.remove(key(i));
+    } // for
+    assertEquals(0, arr.size(), "all removed");
+    assertEquals("{}", arr.toString(), "no slots left in use");
+  } // wrappedRemoveTest()
+
+  /**
+   * Make sure that the table grows once it is three-quarters full and
+   * keeps every pair when it does.
+   */
+  @Test
+  public void growthTest() throws Exception {
+    AssociativeArray<Integer, Integer> arr = new AssociativeArray<Integer, Integer>();
+    int limit = SLOTS / 4 * AssociativeArray.LOAD_QUARTERS;
+    for (int i = 0; i < limit; i++) {
+      arr.set(i, i * i);
+    } // for
+    assertEquals(SLOTS, arr.keys.length, "at the limit");
+    arr.set(limit, limit * limit);
+    assertEquals(SLOTS * 2, arr.keys.length, "past the limit");
+    for (int i = 0; i <= limit; i++) {
+      assertEquals(i * i, arr.get(i), "value of " + i + " after growing");
+    } // for
+
+    AssociativeArray<Integer, Integer> big = squares(10_000);
+    assertEquals(10_000, big.size(), "size of big array");
+    assertTrue(big.size() * 4 <= big.keys.length * AssociativeArray.LOAD_QUARTERS,
+        "big array under the load limit");
+    assertEquals(16_384, new AssociativeArray<Integer, Integer>(10_000).keys.length,
+        "presized");
+  } // growthTest()
+
+  /**
+   * Make sure that null keys are rejected or treated as missing.
+   */
+  @Test
+  public void nullKeyTest() throws Exception {
+    AssociativeArray<String, Integer> arr = new AssociativeArray<String, Integer>();
+    arr.set("a", 1);
+    assertThrows(NullKeyException.class, () -> arr.set(null, 2), "set");
+    assertThrows(KeyNotFoundException.class, () -> arr.get(null), "get");
+    assertFalse(arr.hasKey(null), "hasKey");
+    arr.remove(null);
+    assertEquals(1, arr.size(), "remove does nothing");
+    assertEquals(3, arr.getOrDefault(null, 3), "getOrDefault");
+    assertThrows(NullKeyException.class, () -> arr.putIfAbsent(null, 4), "putIfAbsent");
+    assertThrows(NullKeyException.class, () -> arr.merge(null, 5, Integer::sum), "merge");
+    assertEquals(null, arr.computeIfPresent(null, (k, v) -> 6), "computeIfPresent");
+    assertEquals("{a:1}", arr.toString(), "unchanged");
+  } // nullKeyTest()
+
+  /**
+   * Make sure that a clone and its original change independently.
+   */
+  @Test
+  public void cloneTest() throws Exception {
+    AssociativeArray<Colliding, Integer> arr = wrapped();
+    AssociativeArray<Colliding, Integer> copy = arr.clone();
+    arr.remove(key(0));
+    copy.set(key(1), 100);
+    copy.set(new Colliding("new", 3), 7);
+    assertAllBut(arr, 0);
+    assertFalse(arr.hasKey(new Colliding("new", 3)), "added to the copy only");
+    assertEquals(7, copy.size(), "size of copy");
+    assertEquals(0, copy.get(key(0)), "removed from the original only");
+    assertEquals(100, copy.get(key(1)), "changed in the copy");
+
+    AssociativeArray<Integer, Integer> grown = squares(5);
+    AssociativeArray<Integer, Integer> small = grown.clone();
+    for (int i = 5; i < 100; i++) {
+      grown.set(i, i * i);
+    } // for
+    assertEquals(5, small.size(), "copy does not grow with the original");
+    assertFalse(small.hasKey(50), "copy lacks later keys");
+  } // cloneTest()
+
+  /**
+   * Make sure that getOrDefault, putIfAbsent, merge, and
+   * computeIfPresent read and update keys as their Map namesakes do.
+   */
+  @Test
+  public void updateTest() throws Exception {
+    AssociativeArray<String, Integer> arr = new AssociativeArray<String, Integer>();
+    assertEquals(-1, arr.getOrDefault("a", -1), "default for missing key");
+    assertEquals(null, arr.putIfAbsent("a", 1), "putIfAbsent adds");
+    assertEquals(1, arr.putIfAbsent("a", 2), "putIfAbsent keeps");
+    assertEquals(1, arr.getOrDefault("a", -1), "value for present key");
+    arr.set("n", null);
+    assertEquals(null, arr.getOrDefault("n", -1), "null value is a value");
+
+    assertEquals(5, arr.merge("b", 5, Integer::sum), "merge adds");
+    assertEquals(12, arr.merge("b", 7, Integer::sum), "merge combines");
+    assertEquals(null, arr.merge("b", 0, (old, val) -> null), "merge to null");
+    assertFalse(arr.hasKey("b"), "merge to null removes");
+
+    assertEquals(null, arr.computeIfPresent("c", (k, v) -> 9), "missing key");
+    assertFalse(arr.hasKey("c"), "computeIfPresent does not add");
+    assertEquals(11, arr.computeIfPresent("a", (k, v) -> v + 10), "computeIfPresent");
+    assertEquals(null, arr.computeIfPresent("a", (k, v) -> null), "compute to null");
+    assertFalse(arr.hasKey("a"), "computeIfPresent to null removes");
+    assertEquals(1, arr.size(), "only n is left");
+
+    // Removing through merge or computeIfPresent must keep the rest of
+    // a run of colliding keys findable.
+    for (int gone = 0; gone < 6; gone++) {
+      AssociativeArray<Colliding, Integer> run = wrapped();
+      if (gone % 2 == 0) {
+        run.merge(key(gone), 1, (old, val) -> null);
+      } else {
+        run.computeIfPresent(key(gone), (k, v) -> null);
+      } // if/else
+      assertAllBut(run, gone);
+    } // for
+    AssociativeArray<Colliding, Integer> run = wrapped();
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i * 2, run.computeIfPresent(key(i), (k, v) -> v * 2), "doubled k" + i);
+      assertEquals(i * 2 + 1, run.merge(key(i), 1, Integer::sum), "merged into k" + i);
+    } // for
+    assertEquals(6, run.size(), "no keys added");
+  } // updateTest()
+
+  /**
+   * Make sure that forEach and cursors visit every pair once.
+   */
+  @Test
+  public void walkTest() throws Exception {
+    AssociativeArray<Integer, Integer> arr = squares(1000);
+    HashMap<Integer, Integer> seen = new HashMap<Integer, Integer>();
+    arr.forEach((k, v) -> assertEquals(null, seen.put(k, v), "key " + k + " again"));
+    assertEquals(1000, seen.size(), "forEach");
+
+    AssociativeArray<Integer, Integer>.Cursor cursor = arr.cursor();
+    assertThrows(NoSuchElementException.class, () -> cursor.key(), "before the first");
+    int count = 0;
+    while (cursor.next()) {
+      assertEquals(cursor.key() * cursor.key(), cursor.value(), "value of " + cursor.key());
+      cursor.setValue(-cursor.value());
+      count++;
+    } // while
+    assertEquals(1000, count, "cursor");
+    assertFalse(cursor.next(), "still done");
+    assertEquals(-81, arr.get(9), "setValue");
+  } // walkTest()
+
+  /**
+   * Make sure that putAll, clear, and toString work.
+   */
+  @Test
+  public void bulkTest() throws Exception {
+    AssociativeArray<Integer, Integer> arr = squares(10);
+    AssociativeArray<Integer, Integer> more = new AssociativeArray<Integer, Integer>();
+    more.set(5, 0);
+    more.set(100, 1);
+    arr.putAll(more);
+    assertEquals(11, arr.size(), "size after putAll");
+    assertEquals(0, arr.get(5), "replaced");
+    assertEquals(1, arr.get(100), "added");
+
+    int slots = arr.keys.length;
+    arr.clear();
+    assertEquals(0, arr.size(), "cleared");
+    assertFalse(arr.hasKey(5), "no keys");
+    assertEquals(slots, arr.keys.length, "room kept");
+    assertEquals("{}", arr.toString(), "empty");
+
+    arr.set(1, null);
+    arr.set(2, 4);
+    String str = arr.toString();
+    assertTrue(str.equals("{1:Null, 2:4}") || str.equals("{2:4, 1:Null}"), str);
+    assertEquals(100_000, squares(100_000).toString().split(", ").length, "long string");
+  } // bulkTest()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /**
+   * A key whose hash code we pick, so that we can decide which keys
+   * collide. Keys with the same name are equal, so they must be made
+   * with the same hash code.
+   */
+  static class Colliding {
+    /** The name. */
+    final String name;
+
+    /** The hash code. */
+    final int home;
+
+    /**
+     * Create a key.
+     *
+     * @param keyName
+     *   The name.
+     * @param homeSlot
+     *   The hash code, which is the key's slot in a small table.
+     */
+    Colliding(String keyName, int homeSlot) {
+      this.name = keyName;
+      this.home = homeSlot;
+    } // Colliding(String, int)
+
+    @Override
+    public boolean equals(Object other) {
+      return (other instanceof Colliding) && ((Colliding) other).name.equals(this.name);
+    } // equals(Object)
+
+    @Override
+    public int hashCode() {
+      return this.home;
+    } // hashCode()
+
+    @Override
+    public String toString() {
+      return this.name;
+    } // toString()
+  } // class Colliding
+} // class TestAssociativeArray
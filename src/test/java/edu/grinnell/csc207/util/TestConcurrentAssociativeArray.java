@@ -0,0 +1,78 @@
+package edu.grinnell.csc207.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of associative arrays that many threads share.
+ *
+ * @author Benjamin Sheeley
+ * @author Jake Bell
+ */
+public class TestConcurrentAssociativeArray {
+  /**
+   * Make sure that the array works like an ordinary one.
+   */
+  @Test
+  public void basicTest() throws Exception {
+    ConcurrentAssociativeArray<String, Integer> arr = new ConcurrentAssociativeArray<>(5);
+    for (int i = 0; i < 100; i++) {
+      arr.set("K" + i, i);
+    } // for
+    assertEquals(100, arr.size(), "size");
+    assertEquals(42, arr.get("K42"), "get");
+    assertEquals(-1, arr.getOrDefault("nothing", -1), "default");
+    assertNull(arr.putIfAbsent("K100", 100), "absent");
+    assertEquals(100, arr.putIfAbsent("K100", 0), "present");
+    assertEquals(3, arr.merge("K1", 2, Integer::sum), "merge");
+    assertNull(arr.computeIfPresent("K2", (k, v) -> null), "remove by compute");
+    arr.remove("K3");
+    assertFalse(arr.hasKey("K3"), "removed");
+    assertFalse(arr.hasKey(null), "null key");
+    assertThrows(KeyNotFoundException.class, () -> arr.get("K3"), "missing key");
+    assertThrows(NullKeyException.class, () -> arr.set(null, 0), "null key");
+
+    AssociativeArray<String, Integer> copy = arr.clone();
+    assertEquals(99, copy.size(), "size of copy");
+    assertEquals(3, copy.get("K1"), "copied value");
+    assertEquals(99, arr.getAllKeys().length, "keys");
+  } // basicTest()
+
+  /**
+   * Make sure that concurrent updates are not lost.
+   */
+  @Test
+  public void concurrentTest() throws Exception {
+    ConcurrentAssociativeArray<String, Long> counts = new ConcurrentAssociativeArray<>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < 20_000; i++) {
+            ConcurrentAssociativeArray.addTo(counts, "U" + (i % 100), 1);
+          } // for
+        } catch (NullKeyException e) {
+          throw new RuntimeException(e);
+        } // try/catch
+      });
+      threads.add(thread);
+      thread.start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    assertEquals(100, counts.size(), "users");
+    for (int u = 0; u < 100; u++) {
+      assertEquals(1600L, counts.get("U" + u), "count for U" + u);
+    } // for
+    assertTrue(counts.toString().contains("U7:1600"), "toString");
+  } // concurrentTest()
+} // class TestConcurrentAssociativeArray